@@ -42,6 +42,7 @@ android {
 }
 
 dependencies {
+    implementation(project(":dsp"))
     implementation(libs.androidx.core.ktx)
     implementation(libs.androidx.appcompat)
     implementation(libs.material)
@@ -83,12 +83,10 @@ class MainActivity : ComponentActivity() {
             } else {
                 Manifest.permission.READ_EXTERNAL_STORAGE
             }
-            val recordAudioPermission = rememberPermissionState(Manifest.permission.RECORD_AUDIO)
             val storagePermission = rememberPermissionState(mediaPermission)
 
             LaunchedEffect(Unit) {
                 storagePermission.launchPermissionRequest()
-                recordAudioPermission.launchPermissionRequest()
             }
 
             MyMMusicTheme(
@@ -1,6 +1,8 @@
 package com.helpofai.mymmusic.data.local
 
 import androidx.room.*
+import androidx.room.migration.Migration
+import androidx.sqlite.db.SupportSQLiteDatabase
 import kotlinx.coroutines.flow.Flow
 
 @Entity(tableName = "playback_history")
@@ -18,7 +20,58 @@ interface HistoryDao {
     fun getRecentTrackIds(): Flow<List<RecentTrack>>
 }
 
-@Database(entities = [RecentTrack::class], version = 1)
+/**
+ * EBU R128 measurement of one track. [fileSize] and [lastModified] identify the file
+ * version that was scanned, so unchanged files are skipped on the next scan. Leading and
+ * trailing silence come from the same pass; null until they are measured.
+ */
+@Entity(tableName = "track_loudness")
+data class TrackLoudness(
+    @PrimaryKey val trackId: Long,
+    val path: String,
+    val fileSize: Long,
+    val lastModified: Long,
+    val album: String,
+    val durationMs: Long,
+    val integratedLufs: Double,
+    val loudnessRange: Double,
+    val truePeakDb: Double,
+    val leadingSilenceMs: Long? = null,
+    val trailingSilenceMs: Long? = null
+)
+
+@Dao
+interface LoudnessDao {
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    suspend fun insertOrUpdate(loudness: TrackLoudness)
+
+    @Query("SELECT * FROM track_loudness WHERE trackId = :trackId")
+    suspend fun get(trackId: Long): TrackLoudness?
+
+    @Query("SELECT * FROM track_loudness WHERE album = :album")
+    suspend fun getAlbum(album: String): List<TrackLoudness>
+
+    @Query("SELECT * FROM track_loudness")
+    suspend fun getAll(): List<TrackLoudness>
+}
+
+@Database(entities = [RecentTrack::class, TrackLoudness::class], version = 2)
 abstract class MusicDatabase : RoomDatabase() {
     abstract fun historyDao(): HistoryDao
+    abstract fun loudnessDao(): LoudnessDao
+
+    companion object {
+        val MIGRATION_1_2 = object : Migration(1, 2) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                db.execSQL(
+                    "CREATE TABLE IF NOT EXISTS `track_loudness` (" +
+                        "`trackId` INTEGER NOT NULL, `path` TEXT NOT NULL, `fileSize` INTEGER NOT NULL, " +
+                        "`lastModified` INTEGER NOT NULL, `album` TEXT NOT NULL, `durationMs` INTEGER NOT NULL, " +
+                        "`integratedLufs` REAL NOT NULL, `loudnessRange` REAL NOT NULL, " +
+                        "`truePeakDb` REAL NOT NULL, `leadingSilenceMs` INTEGER, `trailingSilenceMs` INTEGER, " +
+                        "PRIMARY KEY(`trackId`))"
+                )
+            }
+        }
+    }
 }
@@ -0,0 +1,59 @@
+package com.helpofai.mymmusic.data.repository
+
+import android.content.Context
+import com.helpofai.mymmusic.dsp.DspPreset
+import dagger.hilt.android.qualifiers.ApplicationContext
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.withContext
+import java.io.File
+import java.net.URLDecoder
+import java.util.Properties
+import javax.inject.Inject
+import javax.inject.Singleton
+
+/** User DSP presets, one `.properties` file each under the app's files directory. */
+@Singleton
+class PresetRepository @Inject constructor(
+    @ApplicationContext private val context: Context
+) {
+    private val directory get() = File(context.filesDir, "presets")
+
+    suspend fun getSavedPresets(): List<DspPreset> = withContext(Dispatchers.IO) {
+        directory.listFiles { file -> file.extension == "properties" }
+            .orEmpty()
+            .mapNotNull { file ->
+                runCatching {
+                    val props = Properties().apply { file.inputStream().use { load(it) } }
+                    DspPreset.fromProperties(props, fallbackName = URLDecoder.decode(file.nameWithoutExtension, "UTF-8"))
+                }.getOrNull()
+            }
+            .sortedBy { it.name.lowercase() }
+    }
+
+    /** Writes [preset], replacing a saved preset of the same name. */
+    suspend fun savePreset(preset: DspPreset) = withContext(Dispatchers.IO) {
+        directory.mkdirs()
+        fileFor(preset.name).outputStream().use { preset.toProperties().store(it, null) }
+    }
+
+    suspend fun deletePreset(name: String) = withContext(Dispatchers.IO) {
+        fileFor(name).delete()
+    }
+
+    // One file per name, reversibly: letters, digits, space, '_' and '-' are kept and every
+    // other UTF-8 byte, '%' included, is written as %XX
+    private fun fileFor(name: String): File {
+        val encoded = StringBuilder()
+        for (byte in name.toByteArray(Charsets.UTF_8)) {
+            val c = byte.toInt() and 0xFF
+            if (c.toChar() in SAFE) encoded.append(c.toChar())
+            else encoded.append('%').append(HEX[c shr 4]).append(HEX[c and 0xF])
+        }
+        return File(directory, "$encoded.properties")
+    }
+
+    private companion object {
+        const val HEX = "0123456789ABCDEF"
+        val SAFE = (('A'..'Z') + ('a'..'z') + ('0'..'9') + listOf(' ', '_', '-')).toSet()
+    }
+}
@@ -3,6 +3,7 @@ package com.helpofai.mymmusic.di
 import android.content.Context
 import androidx.room.Room
 import com.helpofai.mymmusic.data.local.HistoryDao
+import com.helpofai.mymmusic.data.local.LoudnessDao
 import com.helpofai.mymmusic.data.local.MusicDatabase
 import dagger.Module
 import dagger.Provides
@@ -22,11 +23,17 @@ object DatabaseModule {
             context,
             MusicDatabase::class.java,
             "music_db"
-        ).build()
+        ).addMigrations(MusicDatabase.MIGRATION_1_2)
+            .build()
     }
 
     @Provides
     fun provideHistoryDao(database: MusicDatabase): HistoryDao {
         return database.historyDao()
     }
+
+    @Provides
+    fun provideLoudnessDao(database: MusicDatabase): LoudnessDao {
+        return database.loudnessDao()
+    }
 }
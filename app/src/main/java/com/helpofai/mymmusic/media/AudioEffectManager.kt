@@ -1,9 +1,10 @@
 package com.helpofai.mymmusic.media
 
 import android.media.audiofx.BassBoost
-import android.media.audiofx.Equalizer
 import android.media.audiofx.Virtualizer
 import android.util.Log
+import com.helpofai.mymmusic.dsp.EqBandSpec
+import com.helpofai.mymmusic.dsp.ParametricEq
 import kotlinx.coroutines.flow.MutableStateFlow
 import kotlinx.coroutines.flow.asStateFlow
 import javax.inject.Inject
@@ -18,12 +19,30 @@ data class EqBand(
 )
 
 @Singleton
-class AudioEffectManager @Inject constructor() {
-    private var equalizer: Equalizer? = null
+class AudioEffectManager @Inject constructor(
+    private val stereoAudioProcessor: StereoAudioProcessor
+) {
+    companion object {
+        // Band gain range in millibels, as the platform Equalizer reports it
+        private const val MIN_LEVEL: Short = -1200
+        private const val MAX_LEVEL: Short = 1200
+    }
+
     private var bassBoost: BassBoost? = null
     private var virtualizer: Virtualizer? = null
 
-    private val _eqBands = MutableStateFlow<List<EqBand>>(emptyList())
+    // Software EQ inside the DSP chain: same bands and sound on every device
+    private val _eqBands = MutableStateFlow(
+        ParametricEq.OCTAVE_CENTERS.mapIndexed { i, hz ->
+            EqBand(
+                id = i.toShort(),
+                centerFreq = (hz * 1000).toInt(),
+                minLevel = MIN_LEVEL,
+                maxLevel = MAX_LEVEL,
+                currentLevel = 0
+            )
+        }
+    )
     val eqBands = _eqBands.asStateFlow()
 
     private val _bassStrength = MutableStateFlow<Short>(0)
@@ -32,19 +51,16 @@ class AudioEffectManager @Inject constructor() {
     private val _virtualizerStrength = MutableStateFlow<Short>(0)
     val virtualizerStrength = _virtualizerStrength.asStateFlow()
 
-    private val _isEqEnabled = MutableStateFlow(false)
+    private val _isEqEnabled = MutableStateFlow(true)
     val isEqEnabled = _isEqEnabled.asStateFlow()
 
+    init {
+        applyBands(_eqBands.value)
+    }
+
     fun initialize(audioSessionId: Int) {
         release()
         try {
-            // Equalizer
-            equalizer = Equalizer(0, audioSessionId).apply {
-                enabled = true
-                _isEqEnabled.value = true
-                loadBands(this)
-            }
-
             // Bass Boost
             bassBoost = BassBoost(0, audioSessionId).apply {
                 enabled = true
@@ -62,35 +78,18 @@ class AudioEffectManager @Inject constructor() {
         }
     }
 
-    private fun loadBands(eq: Equalizer) {
-        val bands = mutableListOf<EqBand>()
-        val minLevel = eq.bandLevelRange[0]
-        val maxLevel = eq.bandLevelRange[1]
-
-        for (i in 0 until eq.numberOfBands) {
-            bands.add(
-                EqBand(
-                    id = i.toShort(),
-                    centerFreq = eq.getCenterFreq(i.toShort()),
-                    minLevel = minLevel,
-                    maxLevel = maxLevel,
-                    currentLevel = eq.getBandLevel(i.toShort())
-                )
-            )
-        }
-        _eqBands.value = bands
+    private fun applyBands(bands: List<EqBand>) {
+        stereoAudioProcessor.setEqBands(
+            bands.map { EqBandSpec(frequency = it.centerFreq / 1000.0, gainDb = it.currentLevel / 100.0) }
+        )
     }
 
     fun setBandLevel(bandId: Short, level: Short) {
-        equalizer?.let { eq ->
-            try {
-                eq.setBandLevel(bandId, level)
-                // Refresh state
-                loadBands(eq)
-            } catch (e: Exception) {
-                Log.e("AudioEffectManager", "Error setting band level", e)
-            }
+        val bands = _eqBands.value.map {
+            if (it.id == bandId) it.copy(currentLevel = level.coerceIn(it.minLevel, it.maxLevel)) else it
         }
+        _eqBands.value = bands
+        applyBands(bands)
     }
 
     fun setBassStrength(strength: Short) {
@@ -116,16 +115,14 @@ class AudioEffectManager @Inject constructor() {
     }
     
     fun setEqEnabled(enabled: Boolean) {
-        equalizer?.enabled = enabled
+        stereoAudioProcessor.setEqEnabled(enabled)
         _isEqEnabled.value = enabled
     }
 
     fun release() {
-        equalizer?.release()
         bassBoost?.release()
         virtualizer?.release()
         
-        equalizer = null
         bassBoost = null
         virtualizer = null
     }
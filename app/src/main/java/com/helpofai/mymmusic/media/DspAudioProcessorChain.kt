@@ -0,0 +1,30 @@
+package com.helpofai.mymmusic.media
+
+import androidx.media3.common.PlaybackParameters
+import androidx.media3.common.audio.AudioProcessor
+import androidx.media3.common.audio.AudioProcessorChain
+import androidx.media3.exoplayer.audio.DefaultAudioSink
+
+/**
+ * Media3's default chain (its own silence skipping and the playback speed stage) behind
+ * [processor]. It only adds the frames the processor's silence gate dropped to the skipped
+ * count, so the sink moves the playback position past them just as it does for Media3's
+ * own skipping; otherwise the position, seek bar and lyrics fall behind the audio.
+ */
+class DspAudioProcessorChain(private val processor: StereoAudioProcessor) : AudioProcessorChain {
+
+    private val default = DefaultAudioSink.DefaultAudioProcessorChain(processor)
+
+    override fun getAudioProcessors(): Array<AudioProcessor> = default.audioProcessors
+
+    override fun applyPlaybackParameters(playbackParameters: PlaybackParameters): PlaybackParameters =
+        default.applyPlaybackParameters(playbackParameters)
+
+    override fun applySkipSilenceEnabled(skipSilenceEnabled: Boolean): Boolean =
+        default.applySkipSilenceEnabled(skipSilenceEnabled)
+
+    override fun getMediaDuration(playoutDuration: Long): Long = default.getMediaDuration(playoutDuration)
+
+    override fun getSkippedOutputFrameCount(): Long =
+        default.skippedOutputFrameCount + processor.skippedOutputFrameCount
+}
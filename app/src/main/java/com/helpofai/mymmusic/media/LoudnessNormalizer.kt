@@ -0,0 +1,99 @@
+package com.helpofai.mymmusic.media
+
+import com.helpofai.mymmusic.data.local.LoudnessDao
+import com.helpofai.mymmusic.data.local.TrackLoudness
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.asStateFlow
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import javax.inject.Inject
+import javax.inject.Singleton
+import kotlin.math.log10
+import kotlin.math.pow
+
+enum class NormalizationMode { OFF, TRACK, ALBUM }
+
+/**
+ * Turns the scanner's measurements into the chain's normalization gain for the playing
+ * track and the one queued after it. Unscanned tracks play at unity gain.
+ */
+@Singleton
+class LoudnessNormalizer @Inject constructor(
+    private val loudnessDao: LoudnessDao,
+    private val stereoAudioProcessor: StereoAudioProcessor
+) {
+    companion object {
+        // ReplayGain 2.0 reference level
+        const val TARGET_LUFS = -18.0
+        // Boost never pushes the true peak above this
+        const val PEAK_CEILING_DB = -1.0
+    }
+
+    private val _mode = MutableStateFlow(NormalizationMode.OFF)
+    val mode = _mode.asStateFlow()
+
+    // Updates run one at a time in call order (the mutex is fair), so a slow lookup can
+    // never overwrite the gain of a later one
+    private val mutex = Mutex()
+    private var currentTrackId: Long? = null
+    private var nextTrackId: Long? = null
+
+    suspend fun setMode(mode: NormalizationMode) = mutex.withLock {
+        _mode.value = mode
+        updateGains(changeCurrent = true)
+    }
+
+    /**
+     * [trackId] is now playing and [nextTrackId] is queued after it. When playback ran into
+     * [trackId] from the previous track ([atBoundary]), the chain already switched gains at
+     * the end of that stream; otherwise (skip, seek, new queue) the gain changes right away.
+     */
+    suspend fun onTrackChanged(trackId: Long?, nextTrackId: Long?, atBoundary: Boolean) = mutex.withLock {
+        currentTrackId = trackId
+        this.nextTrackId = nextTrackId
+        updateGains(changeCurrent = !atBoundary)
+    }
+
+    /** The track queued after the current one changed (queue edit, shuffle or repeat mode). */
+    suspend fun onNextTrackChanged(nextTrackId: Long?) = mutex.withLock {
+        this.nextTrackId = nextTrackId
+        updateGains(changeCurrent = false)
+    }
+
+    private suspend fun updateGains(changeCurrent: Boolean) {
+        val current = gainFor(currentTrackId)
+        if (changeCurrent) stereoAudioProcessor.setNormalizationGain(current)
+        // Without a known next track, a stream that ends and restarts keeps its own gain
+        val next = if (nextTrackId == null) current else gainFor(nextTrackId)
+        stereoAudioProcessor.setNextNormalizationGain(next)
+    }
+
+    private suspend fun gainFor(trackId: Long?): Double {
+        if (trackId == null || _mode.value == NormalizationMode.OFF) return 0.0
+        val track = loudnessDao.get(trackId) ?: return 0.0
+        val (lufs, peakDb) = when (_mode.value) {
+            NormalizationMode.ALBUM -> albumLoudness(loudnessDao.getAlbum(track.album))
+            else -> track.integratedLufs to track.truePeakDb
+        }
+        // Silent or unmeasurable tracks are left alone
+        if (!lufs.isFinite()) return 0.0
+        val gain = TARGET_LUFS - lufs
+        return if (peakDb.isFinite()) minOf(gain, PEAK_CEILING_DB - peakDb) else gain
+    }
+
+    // Album loudness as the duration-weighted energy mean of its tracks' integrated
+    // loudness (close to gating the whole album as one stream); album peak is the loudest
+    private fun albumLoudness(tracks: List<TrackLoudness>): Pair<Double, Double> {
+        var energy = 0.0
+        var duration = 0.0
+        for (t in tracks) {
+            if (!t.integratedLufs.isFinite()) continue
+            val weight = t.durationMs.coerceAtLeast(1L).toDouble()
+            energy += weight * 10.0.pow(t.integratedLufs / 10.0)
+            duration += weight
+        }
+        val lufs = if (duration > 0.0) 10.0 * log10(energy / duration) else Double.NEGATIVE_INFINITY
+        val peak = tracks.maxOfOrNull { it.truePeakDb } ?: Double.NEGATIVE_INFINITY
+        return lufs to peak
+    }
+}
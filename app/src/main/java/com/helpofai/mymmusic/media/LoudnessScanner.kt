@@ -0,0 +1,180 @@
+package com.helpofai.mymmusic.media
+
+import android.content.Context
+import android.media.AudioFormat
+import android.media.MediaCodec
+import android.media.MediaExtractor
+import android.media.MediaFormat
+import android.util.Log
+import com.helpofai.mymmusic.data.local.LoudnessDao
+import com.helpofai.mymmusic.data.local.TrackLoudness
+import com.helpofai.mymmusic.data.model.AudioFile
+import com.helpofai.mymmusic.dsp.LoudnessMeter
+import com.helpofai.mymmusic.dsp.PcmEncoding
+import com.helpofai.mymmusic.dsp.SilenceScan
+import dagger.hilt.android.qualifiers.ApplicationContext
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.ensureActive
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.asStateFlow
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
+import java.io.File
+import javax.inject.Inject
+import javax.inject.Singleton
+import kotlin.coroutines.coroutineContext
+
+/**
+ * Measures EBU R128 loudness of the library in the background and stores it per track,
+ * together with the track's leading and trailing silence.
+ *
+ * Tracks are decoded one per core. Each result is written as soon as its track finishes,
+ * so a cancelled scan resumes where it stopped: tracks whose file size and modification
+ * time match the stored row are skipped.
+ */
+@Singleton
+class LoudnessScanner @Inject constructor(
+    @ApplicationContext private val context: Context,
+    private val loudnessDao: LoudnessDao
+) {
+    companion object {
+        private const val TAG = "LoudnessScanner"
+        private const val TIMEOUT_US = 10_000L
+    }
+
+    private val scanLock = Mutex()
+
+    // Tracks measured or skipped so far / tracks in the current scan
+    private val _progress = MutableStateFlow(0 to 0)
+    val progress = _progress.asStateFlow()
+
+    /** Scans [tracks]; returns at once if a scan is already running. */
+    suspend fun scan(tracks: List<AudioFile>) {
+        if (!scanLock.tryLock()) return
+        try {
+            val known = loudnessDao.getAll().associateBy { it.trackId }
+            val parallelism = Semaphore(Runtime.getRuntime().availableProcessors().coerceAtLeast(1))
+            var done = 0
+            _progress.value = 0 to tracks.size
+            coroutineScope {
+                for (track in tracks) {
+                    launch(Dispatchers.Default) {
+                        parallelism.withPermit {
+                            val file = File(track.path)
+                            val size = file.length()
+                            val modified = file.lastModified()
+                            val stored = known[track.id]
+                            if (stored == null || stored.fileSize != size || stored.lastModified != modified) {
+                                measure(track)?.let { (meter, silence) ->
+                                    loudnessDao.insertOrUpdate(
+                                        TrackLoudness(
+                                            trackId = track.id,
+                                            path = track.path,
+                                            fileSize = size,
+                                            lastModified = modified,
+                                            album = track.album,
+                                            durationMs = track.duration,
+                                            integratedLufs = meter.integratedLufs,
+                                            loudnessRange = meter.loudnessRange,
+                                            truePeakDb = meter.truePeakDb,
+                                            leadingSilenceMs = silence.leadingMs,
+                                            trailingSilenceMs = silence.trailingMs
+                                        )
+                                    )
+                                }
+                            }
+                        }
+                        synchronized(this@LoudnessScanner) {
+                            done++
+                            _progress.value = done to tracks.size
+                        }
+                    }
+                }
+            }
+        } finally {
+            scanLock.unlock()
+        }
+    }
+
+    // Decodes the first audio track of [track] through a meter and a silence scan; null if it
+    // can't be decoded
+    private suspend fun measure(track: AudioFile): Pair<LoudnessMeter, SilenceScan>? {
+        val extractor = MediaExtractor()
+        var codec: MediaCodec? = null
+        try {
+            extractor.setDataSource(context, track.uri, null)
+            val trackIndex = (0 until extractor.trackCount).firstOrNull {
+                extractor.getTrackFormat(it).getString(MediaFormat.KEY_MIME)?.startsWith("audio/") == true
+            } ?: return null
+            val inputFormat = extractor.getTrackFormat(trackIndex)
+            extractor.selectTrack(trackIndex)
+
+            val decoder = MediaCodec.createDecoderByType(inputFormat.getString(MediaFormat.KEY_MIME)!!)
+            codec = decoder
+            decoder.configure(inputFormat, null, null, 0)
+            decoder.start()
+
+            val info = MediaCodec.BufferInfo()
+            var meter: LoudnessMeter? = null
+            var silence: SilenceScan? = null
+            var encoding = PcmEncoding.PCM_16BIT
+            var channelCount = 2
+            var inputDone = false
+            while (true) {
+                coroutineContext.ensureActive()
+                if (!inputDone) {
+                    val inIndex = decoder.dequeueInputBuffer(TIMEOUT_US)
+                    if (inIndex >= 0) {
+                        val size = extractor.readSampleData(decoder.getInputBuffer(inIndex)!!, 0)
+                        if (size < 0) {
+                            decoder.queueInputBuffer(inIndex, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM)
+                            inputDone = true
+                        } else {
+                            decoder.queueInputBuffer(inIndex, 0, size, extractor.sampleTime, 0)
+                            extractor.advance()
+                        }
+                    }
+                }
+
+                val outIndex = decoder.dequeueOutputBuffer(info, TIMEOUT_US)
+                if (outIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                    val format = decoder.outputFormat
+                    channelCount = format.getInteger(MediaFormat.KEY_CHANNEL_COUNT)
+                    encoding = if (format.containsKey(MediaFormat.KEY_PCM_ENCODING) &&
+                        format.getInteger(MediaFormat.KEY_PCM_ENCODING) == AudioFormat.ENCODING_PCM_FLOAT
+                    ) PcmEncoding.PCM_FLOAT else PcmEncoding.PCM_16BIT
+                    val sampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE)
+                    meter = LoudnessMeter(sampleRate, minOf(channelCount, 2))
+                    silence = SilenceScan(sampleRate)
+                } else if (outIndex >= 0) {
+                    if (info.size > 0) {
+                        val pcm = decoder.getOutputBuffer(outIndex)!!
+                        pcm.position(info.offset)
+                        pcm.limit(info.offset + info.size)
+                        silence?.processInterleaved(pcm.duplicate(), encoding, channelCount)
+                        meter?.processInterleaved(pcm, encoding, channelCount)
+                    }
+                    decoder.releaseOutputBuffer(outIndex, false)
+                    if (info.flags and MediaCodec.BUFFER_FLAG_END_OF_STREAM != 0) {
+                        return if (meter != null && silence != null) meter to silence else null
+                    }
+                }
+            }
+        } catch (e: Exception) {
+            if (e is CancellationException) throw e
+            Log.e(TAG, "Could not measure ${track.path}", e)
+            return null
+        } finally {
+            codec?.run {
+                // stop() throws if configure() failed; release() is always safe
+                runCatching { stop() }
+                release()
+            }
+            extractor.release()
+        }
+    }
+}
@@ -4,22 +4,35 @@ import android.media.AudioManager
 import android.content.Context
 import androidx.media3.common.AudioAttributes
 import androidx.media3.common.C
+import androidx.media3.common.MediaItem
+import androidx.media3.common.Player
+import androidx.media3.common.Timeline
 import androidx.media3.exoplayer.ExoPlayer
 import androidx.media3.session.MediaSession
 import androidx.media3.session.MediaSessionService
 import com.helpofai.mymmusic.data.repository.AudioOutputRepository
+import com.helpofai.mymmusic.data.repository.AudioRepository
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.launch
+import kotlinx.coroutines.Job
 import javax.inject.Inject
 import dagger.hilt.android.AndroidEntryPoint
 import androidx.media3.exoplayer.DefaultRenderersFactory
 import androidx.media3.exoplayer.audio.AudioSink
 import androidx.media3.exoplayer.audio.DefaultAudioSink
+import com.google.common.util.concurrent.ListenableFuture
+import com.google.common.util.concurrent.SettableFuture
+import com.helpofai.mymmusic.data.local.LoudnessDao
 
 @AndroidEntryPoint
 class MediaPlaybackService : MediaSessionService() {
 
+    companion object {
+        // Kept on each side of clipped silence, so soft fades into the first note survive
+        private const val SILENCE_MARGIN_MS = 100L
+    }
+
     @Inject
     lateinit var audioEffectManager: AudioEffectManager
     
@@ -27,14 +40,24 @@ class MediaPlaybackService : MediaSessionService() {
     lateinit var audioOutputRepository: AudioOutputRepository
 
     @Inject
-    lateinit var visualizerManager: VisualizerManager
+    lateinit var stereoAudioProcessor: StereoAudioProcessor
 
     @Inject
-    lateinit var stereoAudioProcessor: StereoAudioProcessor
+    lateinit var audioRepository: AudioRepository
+
+    @Inject
+    lateinit var loudnessScanner: LoudnessScanner
+
+    @Inject
+    lateinit var loudnessNormalizer: LoudnessNormalizer
+
+    @Inject
+    lateinit var loudnessDao: LoudnessDao
 
     private var mediaSession: MediaSession? = null
     private lateinit var player: ExoPlayer
     private val serviceScope = CoroutineScope(Dispatchers.Main)
+    private var scanJob: Job? = null
 
     override fun onCreate() {
         super.onCreate()
@@ -50,8 +73,9 @@ class MediaPlaybackService : MediaSessionService() {
                 enableFloatOutput: Boolean,
                 enableAudioTrackPlaybackParams: Boolean
             ): AudioSink {
+                // The custom chain reports the frames the DSP's silence gate skips
                 return DefaultAudioSink.Builder(context)
-                    .setAudioProcessors(arrayOf(stereoAudioProcessor))
+                    .setAudioProcessorChain(DspAudioProcessorChain(stereoAudioProcessor))
                     .build()
             }
         }
@@ -61,10 +85,38 @@ class MediaPlaybackService : MediaSessionService() {
             .setHandleAudioBecomingNoisy(true)
             .build()
 
-        mediaSession = MediaSession.Builder(this, player).build()
+        mediaSession = MediaSession.Builder(this, player)
+            .setCallback(object : MediaSession.Callback {
+                override fun onAddMediaItems(
+                    mediaSession: MediaSession,
+                    controller: MediaSession.ControllerInfo,
+                    mediaItems: MutableList<MediaItem>
+                ): ListenableFuture<MutableList<MediaItem>> {
+                    val result = SettableFuture.create<MutableList<MediaItem>>()
+                    serviceScope.launch {
+                        result.set(mediaItems.mapTo(mutableListOf()) { clipSilence(it) })
+                    }
+                    return result
+                }
+            })
+            .build()
         
-        // Observe output device changes
         val audioManager = getSystemService(Context.AUDIO_SERVICE) as AudioManager
+
+        // Let 5.1/7.1 through untouched when the chosen output can play it; downmix otherwise
+        serviceScope.launch {
+            audioOutputRepository.selectedDevice.collect { device ->
+                stereoAudioProcessor.setMultichannelPassthrough(device?.channelCounts?.maxOrNull() ?: 2)
+            }
+        }
+
+        // The mixer's native rate, for the optional conversion ahead of the platform's
+        // lower-quality resampler
+        stereoAudioProcessor.setDeviceSampleRate(
+            audioManager.getProperty(AudioManager.PROPERTY_OUTPUT_SAMPLE_RATE)?.toIntOrNull()
+        )
+
+        // Observe output device changes
         if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.S) {
             serviceScope.launch {
                 audioOutputRepository.selectedDevice.collect { device ->
@@ -77,20 +129,72 @@ class MediaPlaybackService : MediaSessionService() {
             }
         }
         
-        // Initialize effects and visualizer
+        // Initialize effects
         player.addListener(object : androidx.media3.common.Player.Listener {
             override fun onAudioSessionIdChanged(audioSessionId: Int) {
                  if (audioSessionId != C.AUDIO_SESSION_ID_UNSET) {
                      audioEffectManager.initialize(audioSessionId)
-                     visualizerManager.initialize(audioSessionId)
                  }
             }
+
+            override fun onMediaItemTransition(mediaItem: MediaItem?, reason: Int) {
+                // Played on from the previous item: the chain switched gains at the stream boundary
+                val atBoundary = reason == Player.MEDIA_ITEM_TRANSITION_REASON_AUTO ||
+                    reason == Player.MEDIA_ITEM_TRANSITION_REASON_REPEAT
+                val trackId = mediaItem?.mediaId?.toLongOrNull()
+                val nextTrackId = nextTrackId()
+                serviceScope.launch {
+                    loudnessNormalizer.onTrackChanged(trackId, nextTrackId, atBoundary)
+                }
+                stereoAudioProcessor.setHasNextTrack(player.hasNextMediaItem())
+            }
+
+            // Anything that changes which item plays next
+            override fun onTimelineChanged(timeline: Timeline, reason: Int) = updateNextTrack()
+            override fun onRepeatModeChanged(repeatMode: Int) = updateNextTrack()
+            override fun onShuffleModeEnabledChanged(shuffleModeEnabled: Boolean) = updateNextTrack()
         })
         
         if (player.audioSessionId != C.AUDIO_SESSION_ID_UNSET) {
             audioEffectManager.initialize(player.audioSessionId)
-            visualizerManager.initialize(player.audioSessionId)
         }
+
+        // Measure new or changed tracks; finished tracks are kept if the service dies mid-scan
+        scanJob = serviceScope.launch {
+            // Without storage permission there is nothing to scan yet
+            val tracks = runCatching { audioRepository.getLocalAudioFiles() }.getOrDefault(emptyList())
+            loudnessScanner.scan(tracks)
+        }
+    }
+
+    private fun nextTrackId(): Long? {
+        val index = player.nextMediaItemIndex
+        if (index == C.INDEX_UNSET) return null
+        return player.getMediaItemAt(index).mediaId.toLongOrNull()
+    }
+
+    // The next item's gain, and whether the crossfader holds the end of the current track for it
+    private fun updateNextTrack() {
+        stereoAudioProcessor.setHasNextTrack(player.hasNextMediaItem())
+        val nextTrackId = nextTrackId()
+        serviceScope.launch { loudnessNormalizer.onNextTrackChanged(nextTrackId) }
+    }
+
+    // With skip-silence on, a scanned track starts after its leading silence and ends before
+    // its trailing silence, so the player seeks past them instead of decoding through them.
+    // The processor's gate still catches silence inside tracks and in unscanned ones.
+    private suspend fun clipSilence(item: MediaItem): MediaItem {
+        if (stereoAudioProcessor.silenceSkipping == null) return item
+        val row = item.mediaId.toLongOrNull()?.let { loudnessDao.get(it) } ?: return item
+        val leading = row.leadingSilenceMs ?: return item
+        val trailing = row.trailingSilenceMs ?: return item
+        val start = (leading - SILENCE_MARGIN_MS).coerceAtLeast(0L)
+        val end = row.durationMs - trailing + SILENCE_MARGIN_MS
+        val clipEnd = end < row.durationMs && end > start
+        if (start == 0L && !clipEnd) return item
+        val clipping = MediaItem.ClippingConfiguration.Builder().setStartPositionMs(start)
+        if (clipEnd) clipping.setEndPositionMs(end)
+        return item.buildUpon().setClippingConfiguration(clipping.build()).build()
     }
 
     override fun onGetSession(controllerInfo: MediaSession.ControllerInfo): MediaSession? {
@@ -98,8 +202,8 @@ class MediaPlaybackService : MediaSessionService() {
     }
 
     override fun onDestroy() {
+        scanJob?.cancel()
         audioEffectManager.release()
-        visualizerManager.release()
         mediaSession?.run {
             player.release()
             release()
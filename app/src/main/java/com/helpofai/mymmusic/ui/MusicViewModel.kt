@@ -8,9 +8,19 @@ import com.helpofai.mymmusic.data.local.HistoryDao
 import com.helpofai.mymmusic.data.local.RecentTrack
 import com.helpofai.mymmusic.data.model.*
 import com.helpofai.mymmusic.data.repository.*
+import com.helpofai.mymmusic.dsp.CrossfadeSettings
+import com.helpofai.mymmusic.dsp.DspLoadReport
+import com.helpofai.mymmusic.dsp.DspPreset
+import com.helpofai.mymmusic.dsp.EightDPath
+import com.helpofai.mymmusic.dsp.MeterReading
+import com.helpofai.mymmusic.dsp.MultibandSettings
+import com.helpofai.mymmusic.dsp.ProcessingPrecision
+import com.helpofai.mymmusic.dsp.SilenceSettings
+import com.helpofai.mymmusic.dsp.SpectrumAnalyzer
 import com.helpofai.mymmusic.media.*
 import dagger.hilt.android.lifecycle.HiltViewModel
 import kotlinx.coroutines.flow.*
+import kotlinx.coroutines.delay
 import kotlinx.coroutines.launch
 import java.io.File
 import javax.inject.Inject
@@ -23,8 +33,9 @@ class MusicViewModel @Inject constructor(
     private val smartPlaylistRepository: SmartPlaylistRepository,
     private val lyricsRepository: LyricsRepository,
     private val audioOutputRepository: AudioOutputRepository,
-    private val visualizerManager: VisualizerManager,
     private val stereoAudioProcessor: StereoAudioProcessor,
+    private val loudnessNormalizer: LoudnessNormalizer,
+    private val presetRepository: PresetRepository,
     private val historyDao: HistoryDao
 ) : ViewModel() {
 
@@ -103,12 +114,62 @@ class MusicViewModel @Inject constructor(
     val currentPlaylist = musicController.currentPlaylist
     val playbackState = musicController.playbackState
     
-    // Visualizer State
-    val fftData = visualizerManager.fftData
+    // Visualizer State: spectrum frames from the in-chain analyzer, polled at display rate
+    val fftData = flow {
+        val frame = FloatArray(SpectrumAnalyzer.BINS)
+        var lastSequence = -1L
+        var lastUpdate = 0L
+        while (true) {
+            val sequence = stereoAudioProcessor.analyzer.read(frame)
+            val now = System.nanoTime()
+            if (sequence >= 0 && sequence != lastSequence) {
+                lastSequence = sequence
+                lastUpdate = now
+                emit(frame.copyOf())
+            } else if (now - lastUpdate > TAP_STALE_NANOS) {
+                emit(EMPTY_SPECTRUM)
+            }
+            delay(TAP_POLL_MS)
+        }
+    }.stateIn(viewModelScope, SharingStarted.WhileSubscribed(5000), EMPTY_SPECTRUM)
     
+    // Output meters, polled at display rate; they fall back to silence once the audio
+    // thread stops publishing (paused or stopped)
+    val meterReading = flow {
+        var lastSequence = -1L
+        var lastUpdate = 0L
+        while (true) {
+            val reading = stereoAudioProcessor.meter.poll()
+            val now = System.nanoTime()
+            if (reading != null && reading.sequence != lastSequence) {
+                lastSequence = reading.sequence
+                lastUpdate = now
+                emit(reading)
+            } else if (now - lastUpdate > TAP_STALE_NANOS) {
+                emit(MeterReading.SILENT)
+            }
+            delay(TAP_POLL_MS)
+        }
+    }.stateIn(viewModelScope, SharingStarted.WhileSubscribed(5000), MeterReading.SILENT)
+
+    // DSP load for the diagnostics panel; polling it is what switches the timing on
+    val dspLoad = flow {
+        while (true) {
+            emit(stereoAudioProcessor.loadMonitor.snapshot())
+            delay(LOAD_POLL_MS)
+        }
+    }.stateIn(viewModelScope, SharingStarted.WhileSubscribed(5000), DspLoadReport.EMPTY)
+
+    fun clearDspLoad() = stereoAudioProcessor.loadMonitor.clear()
+
+    /** Current load statistics as JSON, for bug reports and device-tier tables. */
+    fun dspLoadJson(): String = stereoAudioProcessor.loadMonitor.snapshot().toJson()
+
     // Stereo Visualizer Levels
-    val leftLevel = stereoAudioProcessor.leftLevel
-    val rightLevel = stereoAudioProcessor.rightLevel
+    val leftLevel = meterReading.map { it.peakLeft.toFloat().coerceIn(0f, 1f) }
+        .stateIn(viewModelScope, SharingStarted.WhileSubscribed(5000), 0f)
+    val rightLevel = meterReading.map { it.peakRight.toFloat().coerceIn(0f, 1f) }
+        .stateIn(viewModelScope, SharingStarted.WhileSubscribed(5000), 0f)
 
     // EQ & DSP State
     val eqBands = audioEffectManager.eqBands
@@ -142,6 +203,25 @@ class MusicViewModel @Inject constructor(
     private val _adaptiveLoudness = MutableStateFlow(0f)
     val adaptiveLoudness = _adaptiveLoudness.asStateFlow()
 
+    // Loudness normalization (from the background loudness scan)
+    val normalizationMode = loudnessNormalizer.mode
+
+    // Noise-shaped dither for 16-bit output
+    private val _noiseShaping = MutableStateFlow(false)
+    val noiseShaping = _noiseShaping.asStateFlow()
+
+    // Conversion to the output device's native rate, off by default
+    private val _resampleToDevice = MutableStateFlow(false)
+    val resampleToDevice = _resampleToDevice.asStateFlow()
+
+    // Single-precision EQ/crossover filters; starts at the processor's device-tier default
+    private val _float32Filters = MutableStateFlow(stereoAudioProcessor.processingPrecision == ProcessingPrecision.FLOAT32)
+    val float32Filters = _float32Filters.asStateFlow()
+
+    // Commute mode: multiband levelling for noisy surroundings
+    private val _commuteMode = MutableStateFlow(false)
+    val commuteMode = _commuteMode.asStateFlow()
+
     // 8D Audio State
     private val _is8DEnabled = MutableStateFlow(false)
     val is8DEnabled = _is8DEnabled.asStateFlow()
@@ -149,6 +229,22 @@ class MusicViewModel @Inject constructor(
     private val _rotationSpeed = MutableStateFlow(0.12f)
     val rotationSpeed = _rotationSpeed.asStateFlow()
 
+    private val _eightDPath = MutableStateFlow(EightDPath.CIRCLE)
+    val eightDPath = _eightDPath.asStateFlow()
+
+    // Track crossfade
+    private val _crossfade = MutableStateFlow(CrossfadeSettings())
+    val crossfade = _crossfade.asStateFlow()
+
+    // Skip silence
+    private val _skipSilence = MutableStateFlow(false)
+    val skipSilence = _skipSilence.asStateFlow()
+
+    // DSP presets: built-ins first, then the user's saved ones
+    private val _savedPresets = MutableStateFlow<List<DspPreset>>(emptyList())
+    val presets = _savedPresets.map { DspPreset.BUILT_IN + it }
+        .stateIn(viewModelScope, SharingStarted.WhileSubscribed(5000), DspPreset.BUILT_IN)
+
     // Audio Output State
     val availableOutputs = if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
         audioOutputRepository.getAvailableDevices()
@@ -161,6 +257,7 @@ class MusicViewModel @Inject constructor(
 
     init {
         loadAudioFiles()
+        loadPresets()
         
         // Listen for track changes to load lyrics
         viewModelScope.launch {
@@ -282,6 +379,35 @@ class MusicViewModel @Inject constructor(
         _adaptiveLoudness.value = value
         stereoAudioProcessor.setAdaptiveLoudness(value)
     }
+
+    fun setNormalizationMode(mode: NormalizationMode) {
+        viewModelScope.launch { loudnessNormalizer.setMode(mode) }
+    }
+
+    /** F-weighted noise shaping of the 16-bit dither; float output is not dithered. */
+    fun setNoiseShaping(enabled: Boolean) {
+        _noiseShaping.value = enabled
+        stereoAudioProcessor.setNoiseShaping(enabled)
+    }
+
+    /** Polyphase conversion to the device's native rate, applied from the next track. */
+    fun setResampleToDevice(enabled: Boolean) {
+        _resampleToDevice.value = enabled
+        stereoAudioProcessor.setResampleToDevice(enabled)
+    }
+
+    /** Runs the EQ and crossover filters in 32-bit float, from the next track. */
+    fun setFloat32Filters(enabled: Boolean) {
+        _float32Filters.value = enabled
+        stereoAudioProcessor.setProcessingPrecision(
+            if (enabled) ProcessingPrecision.FLOAT32 else ProcessingPrecision.FLOAT64
+        )
+    }
+
+    fun setCommuteMode(enabled: Boolean) {
+        _commuteMode.value = enabled
+        stereoAudioProcessor.setMultiband(MultibandSettings.COMMUTE.copy(enabled = enabled))
+    }
     
     fun set8DMode(enabled: Boolean) {
         _is8DEnabled.value = enabled
@@ -292,6 +418,72 @@ class MusicViewModel @Inject constructor(
         _rotationSpeed.value = speed
         stereoAudioProcessor.set8DSpeed(speed)
     }
+
+    fun set8DPath(path: EightDPath) {
+        _eightDPath.value = path
+        stereoAudioProcessor.set8DPath(path)
+    }
+
+    /** Overlap between tracks in seconds (0 = gapless); applies from the next track. */
+    fun setCrossfade(seconds: Float, beatAware: Boolean) {
+        val settings = CrossfadeSettings(seconds.toDouble(), beatAware)
+        if (settings == _crossfade.value) return
+        _crossfade.value = settings
+        stereoAudioProcessor.setCrossfade(settings)
+    }
+
+    /** Skips sustained silence; scanned tracks are clipped from the next queue on. */
+    fun setSkipSilence(enabled: Boolean) {
+        _skipSilence.value = enabled
+        stereoAudioProcessor.setSilenceSkipping(if (enabled) SilenceSettings() else null)
+    }
+
+    // Presets
+    private fun loadPresets() {
+        viewModelScope.launch {
+            _savedPresets.value = presetRepository.getSavedPresets()
+        }
+    }
+
+    /** Switches every control to [preset] at once, morphing over [morphMs]. */
+    fun applyPreset(preset: DspPreset, morphMs: Double = PRESET_MORPH_MS) {
+        val params = preset.params
+        _preAmp.value = params.preGain.toFloat()
+        _stereoBalance.value = params.balance.toFloat()
+        _stereoWidth.value = params.width.toFloat()
+        _crossfeed.value = params.crossfeed.toFloat()
+        _clarity.value = params.clarity.toFloat()
+        _warmth.value = params.warmth.toFloat()
+        _subBass.value = params.subBass.toFloat()
+        _hiFiAir.value = params.hiFiAir.toFloat()
+        _adaptiveLoudness.value = params.adaptiveLoudness.toFloat()
+        _is8DEnabled.value = params.is8DEnabled
+        _rotationSpeed.value = params.rotationSpeed.toFloat()
+        _eightDPath.value = params.eightDPath
+        _noiseShaping.value = params.noiseShaping
+        _commuteMode.value = preset.multiband.enabled
+        stereoAudioProcessor.applyPreset(preset, morphMs)
+    }
+
+    /** Saves the current controls as [name]. */
+    fun savePreset(name: String) {
+        val preset = DspPreset(
+            name,
+            stereoAudioProcessor.currentParams,
+            MultibandSettings.COMMUTE.copy(enabled = _commuteMode.value)
+        )
+        viewModelScope.launch {
+            presetRepository.savePreset(preset)
+            _savedPresets.value = presetRepository.getSavedPresets()
+        }
+    }
+
+    fun deletePreset(preset: DspPreset) {
+        viewModelScope.launch {
+            presetRepository.deletePreset(preset.name)
+            _savedPresets.value = presetRepository.getSavedPresets()
+        }
+    }
     
     fun onSearchQueryChanged(query: String) {
         _searchQuery.value = query
@@ -316,4 +508,12 @@ class MusicViewModel @Inject constructor(
     override fun onCleared() {
         super.onCleared()
     }
+
+    companion object {
+        private const val TAP_POLL_MS = 16L
+        private const val TAP_STALE_NANOS = 250_000_000L
+        private const val LOAD_POLL_MS = 500L
+        private const val PRESET_MORPH_MS = 400.0
+        private val EMPTY_SPECTRUM = FloatArray(0)
+    }
 }
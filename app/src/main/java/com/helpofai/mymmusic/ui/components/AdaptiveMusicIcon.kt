@@ -18,7 +18,7 @@ import androidx.compose.ui.unit.dp
 @Composable
 fun AdaptiveMusicIcon(
     isPlaying: Boolean,
-    fftData: ByteArray,
+    fftData: FloatArray,
     leftLevel: Float = 0f,
     rightLevel: Float = 0f,
     size: Dp = 48.dp,
@@ -31,7 +31,7 @@ fun AdvancedMiniPlayer(
     isPlaying: Boolean,
     currentPosition: Long,
     duration: Long,
-    fftData: ByteArray,
+    fftData: FloatArray,
     onTogglePlayPause: () -> Unit,
     onSkipNext: () -> Unit,
     onSkipPrevious: () -> Unit,
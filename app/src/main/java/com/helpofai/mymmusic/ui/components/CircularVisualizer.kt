@@ -17,29 +17,22 @@ import androidx.compose.ui.unit.dp
 import kotlin.math.PI
 import kotlin.math.cos
 import kotlin.math.sin
-import kotlin.math.sqrt
+
+// Spectrum magnitude of a full-scale sine in the platform Visualizer's 8-bit FFT
+internal const val FFT_BYTE_SCALE = 128f
 
 @Composable
 fun CircularVisualizer(
-    fftData: ByteArray,
+    fftData: FloatArray,
     modifier: Modifier = Modifier,
     primaryColor: Color = MaterialTheme.colorScheme.primary,
     secondaryColor: Color = MaterialTheme.colorScheme.secondary,
     tertiaryColor: Color = MaterialTheme.colorScheme.tertiary
 ) {
-    // Process FFT Data
+    // Spectrum frames are normalized (1.0 = full-scale sine); the drawing constants below
+    // were tuned for the 8-bit platform FFT, so scale back to that range
     val magnitudes = remember(fftData) {
-        if (fftData.isEmpty()) FloatArray(0)
-        else {
-            val n = fftData.size / 2
-            val m = FloatArray(n)
-            for (i in 0 until n) {
-                val r = fftData[2 * i].toInt()
-                val im = fftData[2 * i + 1].toInt()
-                m[i] = sqrt((r * r + im * im).toFloat())
-            }
-            m
-        }
+        FloatArray(fftData.size) { fftData[it] * FFT_BYTE_SCALE }
     }
 
     // Frequency Bins (Approximate)
@@ -26,7 +26,7 @@ import com.helpofai.mymmusic.ui.theme.AppTheme
 @Composable
 fun FlagshipTopBar(
     isPlaying: Boolean = false,
-    fftData: ByteArray = ByteArray(0),
+    fftData: FloatArray = FloatArray(0),
     leftLevel: Float = 0f,
     rightLevel: Float = 0f,
     showBackButton: Boolean = false,
@@ -89,7 +89,7 @@ fun FlagshipTopBar(
 fun HeroCard(
     currentItem: AudioFile?,
     isPlaying: Boolean,
-    fftData: ByteArray = ByteArray(0),
+    fftData: FloatArray = FloatArray(0),
     leftLevel: Float = 0f,
     rightLevel: Float = 0f,
     onPlayClick: () -> Unit,
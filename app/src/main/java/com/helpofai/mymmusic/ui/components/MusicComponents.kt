@@ -22,7 +22,7 @@ fun AudioFileItem(
     audioFile: AudioFile,
     isCurrentTrack: Boolean = false,
     isPlaying: Boolean = false,
-    fftData: ByteArray = ByteArray(0),
+    fftData: FloatArray = FloatArray(0),
     leftLevel: Float = 0f,
     rightLevel: Float = 0f,
     onClick: () -> Unit
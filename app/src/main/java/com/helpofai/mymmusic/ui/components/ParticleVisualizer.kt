@@ -12,7 +12,6 @@ import kotlinx.coroutines.isActive
 import kotlin.math.PI
 import kotlin.math.cos
 import kotlin.math.sin
-import kotlin.math.sqrt
 import kotlin.random.Random
 
 private data class Particle(
@@ -28,7 +27,7 @@ private data class Particle(
 
 fun ParticleVisualizer(
 
-    fftData: ByteArray,
+    fftData: FloatArray,
 
     leftLevel: Float = 0f,
 
@@ -44,29 +43,13 @@ fun ParticleVisualizer(
 
     // Audio processing
 
-    val magnitudes = remember(fftData) {
-
-        if (fftData.isEmpty()) FloatArray(0)
-
-        else {
-
-            val n = fftData.size / 2
-
-            val m = FloatArray(n)
-
-            for (i in 0 until n) {
+    // Spectrum frames are normalized (1.0 = full-scale sine); the drawing constants below
 
-                val r = fftData[2 * i].toInt()
+    // were tuned for the 8-bit platform FFT, so scale back to that range
 
-                val im = fftData[2 * i + 1].toInt()
-
-                m[i] = sqrt((r * r + im * im).toFloat())
-
-            }
-
-            m
+    val magnitudes = remember(fftData) {
 
-        }
+        FloatArray(fftData.size) { fftData[it] * FFT_BYTE_SCALE }
 
     }
 
@@ -2,12 +2,16 @@ package com.helpofai.mymmusic.ui.screens
 
 import androidx.compose.animation.core.animateFloatAsState
 import androidx.compose.foundation.background
+import androidx.compose.foundation.clickable
+import androidx.compose.foundation.horizontalScroll
 import androidx.compose.foundation.layout.*
 import androidx.compose.foundation.rememberScrollState
 import androidx.compose.foundation.shape.RoundedCornerShape
 import androidx.compose.foundation.verticalScroll
 import androidx.compose.material.icons.Icons
 import androidx.compose.material.icons.automirrored.filled.ArrowBack
+import androidx.compose.material.icons.filled.Add
+import androidx.compose.material.icons.filled.Close
 import androidx.compose.material.icons.filled.Tune
 import androidx.compose.material3.*
 import androidx.compose.runtime.*
@@ -16,12 +20,17 @@ import androidx.compose.ui.Modifier
 import androidx.compose.ui.draw.clip
 import androidx.compose.ui.graphics.Brush
 import androidx.compose.ui.graphics.Color
+import androidx.compose.ui.platform.LocalClipboardManager
+import androidx.compose.ui.text.AnnotatedString
 import androidx.compose.ui.text.font.FontWeight
 import androidx.compose.ui.unit.dp
 import androidx.compose.ui.unit.sp
 import androidx.compose.ui.res.stringResource
 import com.helpofai.mymmusic.R
+import com.helpofai.mymmusic.dsp.DspPreset
+import com.helpofai.mymmusic.dsp.EightDPath
 import com.helpofai.mymmusic.media.EqBand
+import com.helpofai.mymmusic.media.NormalizationMode
 import com.helpofai.mymmusic.ui.MusicViewModel
 import com.helpofai.mymmusic.ui.components.GlassySurface
 import androidx.compose.material3.TabRowDefaults.tabIndicatorOffset
@@ -62,6 +71,8 @@ fun EqScreen(
         ) {
             HeaderWithMeters(viewModel, onBackClick)
 
+            PresetBar(viewModel)
+
             TabRow(
                 selectedTabIndex = selectedTab,
                 containerColor = Color.Transparent,
@@ -100,10 +111,79 @@ fun EqScreen(
     }
 }
 
+// Preset chips: tap to morph to a preset, + saves the current controls
+@Composable
+fun PresetBar(viewModel: MusicViewModel) {
+    val presets by viewModel.presets.collectAsState()
+    var selected by remember { mutableStateOf<String?>(null) }
+    var showSave by remember { mutableStateOf(false) }
+
+    Row(
+        modifier = Modifier
+            .fillMaxWidth()
+            .horizontalScroll(rememberScrollState())
+            .padding(horizontal = 20.dp, vertical = 8.dp),
+        horizontalArrangement = Arrangement.spacedBy(8.dp),
+        verticalAlignment = Alignment.CenterVertically
+    ) {
+        presets.forEach { preset ->
+            val builtIn = preset in DspPreset.BUILT_IN
+            FilterChip(
+                selected = selected == preset.name,
+                onClick = {
+                    selected = preset.name
+                    viewModel.applyPreset(preset)
+                },
+                label = { Text(preset.name) },
+                trailingIcon = if (builtIn) null else {
+                    {
+                        Icon(
+                            Icons.Default.Close,
+                            contentDescription = "Delete",
+                            modifier = Modifier.size(16.dp).clip(CircleShape).clickable {
+                                if (selected == preset.name) selected = null
+                                viewModel.deletePreset(preset)
+                            }
+                        )
+                    }
+                }
+            )
+        }
+        AssistChip(
+            onClick = { showSave = true },
+            label = { Text("Save") },
+            leadingIcon = { Icon(Icons.Default.Add, contentDescription = null, modifier = Modifier.size(16.dp)) }
+        )
+    }
+
+    if (showSave) {
+        var name by remember { mutableStateOf("") }
+        AlertDialog(
+            onDismissRequest = { showSave = false },
+            title = { Text("Save preset") },
+            text = {
+                OutlinedTextField(value = name, onValueChange = { name = it }, singleLine = true, label = { Text("Name") })
+            },
+            confirmButton = {
+                TextButton(
+                    enabled = name.isNotBlank(),
+                    onClick = {
+                        viewModel.savePreset(name.trim())
+                        selected = name.trim()
+                        showSave = false
+                    }
+                ) { Text("Save") }
+            },
+            dismissButton = {
+                TextButton(onClick = { showSave = false }) { Text("Cancel") }
+            }
+        )
+    }
+}
+
 @Composable
 fun HeaderWithMeters(viewModel: MusicViewModel, onBackClick: () -> Unit) {
-    val leftLevel by viewModel.leftLevel.collectAsState()
-    val rightLevel by viewModel.rightLevel.collectAsState()
+    val meter by viewModel.meterReading.collectAsState()
     val isEqEnabled by viewModel.isEqEnabled.collectAsState()
 
     GlassySurface(
@@ -123,9 +203,18 @@ fun HeaderWithMeters(viewModel: MusicViewModel, onBackClick: () -> Unit) {
                 Text(stringResource(R.string.dsp_32bit), style = MaterialTheme.typography.labelSmall, color = MaterialTheme.colorScheme.primary)
             }
 
-            Row(modifier = Modifier.height(40.dp).padding(horizontal = 8.dp), horizontalArrangement = Arrangement.spacedBy(4.dp)) {
-                VUMeter(level = leftLevel, label = "L")
-                VUMeter(level = rightLevel, label = "R")
+            Row(
+                modifier = Modifier.height(40.dp).padding(horizontal = 8.dp),
+                horizontalArrangement = Arrangement.spacedBy(4.dp),
+                verticalAlignment = Alignment.CenterVertically
+            ) {
+                VUMeter(level = meterFraction(meter.rmsLeft), hold = meterFraction(meter.holdLeft), label = "L")
+                VUMeter(level = meterFraction(meter.rmsRight), hold = meterFraction(meter.holdRight), label = "R")
+                Column(modifier = Modifier.padding(start = 4.dp)) {
+                    MeterText("M", formatLufs(meter.momentaryLufs))
+                    MeterText("S", formatLufs(meter.shortTermLufs))
+                    MeterText("φ", "%+.2f".format(meter.correlation))
+                }
             }
 
             Switch(
@@ -137,8 +226,19 @@ fun HeaderWithMeters(viewModel: MusicViewModel, onBackClick: () -> Unit) {
     }
 }
 
+// Meters span -60..0 dBFS
+private fun meterFraction(linear: Double): Float =
+    if (linear <= 0.0) 0f else ((20.0 * kotlin.math.log10(linear) + 60.0) / 60.0).toFloat().coerceIn(0f, 1f)
+
+private fun formatLufs(lufs: Double): String = if (lufs.isFinite()) "%.1f".format(lufs) else "--"
+
 @Composable
-fun VUMeter(level: Float, label: String) {
+private fun MeterText(label: String, value: String) {
+    Text("$label $value", fontSize = 8.sp, color = MaterialTheme.colorScheme.onSurfaceVariant)
+}
+
+@Composable
+fun VUMeter(level: Float, label: String, hold: Float = 0f) {
     val animatedLevel by animateFloatAsState(level, label = "meter")
     Column(horizontalAlignment = Alignment.CenterHorizontally) {
         Box(
@@ -159,6 +259,17 @@ fun VUMeter(level: Float, label: String) {
                         )
                     )
             )
+            // Peak-hold marker
+            if (hold > 0f) {
+                Box(
+                    modifier = Modifier
+                        .fillMaxWidth()
+                        .fillMaxHeight(hold.coerceIn(0f, 1f))
+                        .align(Alignment.BottomCenter)
+                ) {
+                    Box(Modifier.fillMaxWidth().height(2.dp).background(Color.White))
+                }
+            }
         }
         Text(label, fontSize = 8.sp, color = MaterialTheme.colorScheme.onSurfaceVariant)
     }
@@ -173,9 +284,10 @@ fun EqualizerTab(viewModel: MusicViewModel) {
         Spacer(Modifier.height(16.dp))
         
         GlassySurface(modifier = Modifier.fillMaxWidth().height(320.dp)) {
+            // Up to 31 bands: scroll sideways when they don't fit
             Row(
-                modifier = Modifier.fillMaxSize().padding(16.dp),
-                horizontalArrangement = Arrangement.SpaceEvenly
+                modifier = Modifier.fillMaxSize().padding(16.dp).horizontalScroll(rememberScrollState()),
+                horizontalArrangement = Arrangement.spacedBy(4.dp)
             ) {
                 eqBands.forEach { band ->
                     EqSlider(band = band) { viewModel.setEqBandLevel(band.id, it) }
@@ -222,6 +334,7 @@ fun SoundstageTab(viewModel: MusicViewModel) {
         val crossfeed by viewModel.crossfeed.collectAsState()
         val is8DEnabled by viewModel.is8DEnabled.collectAsState()
         val rotationSpeed by viewModel.rotationSpeed.collectAsState()
+        val eightDPath by viewModel.eightDPath.collectAsState()
 
         // 8D Audio Controls
         PremiumCard {
@@ -250,6 +363,22 @@ fun SoundstageTab(viewModel: MusicViewModel) {
                         valueRange = 0.05f..1.0f,
                         colors = SliderDefaults.colors(thumbColor = MaterialTheme.colorScheme.secondary, activeTrackColor = MaterialTheme.colorScheme.secondary)
                     )
+
+                    Spacer(modifier = Modifier.height(8.dp))
+                    Text("Path", style = MaterialTheme.typography.labelMedium)
+                    Row(horizontalArrangement = Arrangement.spacedBy(8.dp)) {
+                        listOf(
+                            EightDPath.CIRCLE to "Circle",
+                            EightDPath.FIGURE_EIGHT to "Figure 8",
+                            EightDPath.ELEVATION to "Overhead"
+                        ).forEach { (path, label) ->
+                            FilterChip(
+                                selected = eightDPath == path,
+                                onClick = { viewModel.set8DPath(path) },
+                                label = { Text(label) }
+                            )
+                        }
+                    }
                 }
             }
         }
@@ -276,6 +405,29 @@ fun FidelityTab(viewModel: MusicViewModel) {
         val subBass by viewModel.subBass.collectAsState()
         val air by viewModel.hiFiAir.collectAsState()
         val loudness by viewModel.adaptiveLoudness.collectAsState()
+        val normalizationMode by viewModel.normalizationMode.collectAsState()
+        val noiseShaping by viewModel.noiseShaping.collectAsState()
+        val resampleToDevice by viewModel.resampleToDevice.collectAsState()
+        val float32Filters by viewModel.float32Filters.collectAsState()
+        val commuteMode by viewModel.commuteMode.collectAsState()
+        val skipSilence by viewModel.skipSilence.collectAsState()
+
+        PremiumCard {
+            Row(
+                modifier = Modifier.fillMaxWidth().padding(16.dp),
+                horizontalArrangement = Arrangement.SpaceBetween,
+                verticalAlignment = Alignment.CenterVertically
+            ) {
+                Column {
+                    Text("Commute Mode", style = MaterialTheme.typography.labelLarge, fontWeight = FontWeight.Bold)
+                    Text("4-band levelling for noisy places", style = MaterialTheme.typography.labelSmall, color = MaterialTheme.colorScheme.onSurfaceVariant)
+                }
+                Switch(
+                    checked = commuteMode,
+                    onCheckedChange = { viewModel.setCommuteMode(it) }
+                )
+            }
+        }
 
         ProSliderRow(stringResource(R.string.pre_amp), preAmp, 0.5f..1.5f, Color(0xFF81C784)) { viewModel.setPreAmp(it) }
         ProSliderRow(stringResource(R.string.clarity_exciter), clarity, 0f..1f, Color(0xFF4FC3F7)) { viewModel.setClarity(it) }
@@ -283,6 +435,199 @@ fun FidelityTab(viewModel: MusicViewModel) {
         ProSliderRow(stringResource(R.string.virtual_sub), subBass, 0f..1f, Color(0xFFE57373)) { viewModel.setSubBass(it) }
         ProSliderRow(stringResource(R.string.hi_fi_air), air, 0f..1f, Color(0xFFAED581)) { viewModel.setHiFiAir(it) }
         ProSliderRow(stringResource(R.string.adaptive_loudness), loudness, 0f..1f, Color(0xFFF06292)) { viewModel.setAdaptiveLoudness(it) }
+
+        PremiumCard {
+            Column(modifier = Modifier.padding(16.dp)) {
+                Text("Loudness Normalization", style = MaterialTheme.typography.labelLarge, fontWeight = FontWeight.Bold)
+                Text("Levels scanned tracks to -18 LUFS", style = MaterialTheme.typography.labelSmall, color = MaterialTheme.colorScheme.onSurfaceVariant)
+                Spacer(modifier = Modifier.height(8.dp))
+                Row(horizontalArrangement = Arrangement.spacedBy(8.dp)) {
+                    listOf(
+                        NormalizationMode.OFF to "Off",
+                        NormalizationMode.TRACK to "Track",
+                        NormalizationMode.ALBUM to "Album"
+                    ).forEach { (mode, label) ->
+                        FilterChip(
+                            selected = normalizationMode == mode,
+                            onClick = { viewModel.setNormalizationMode(mode) },
+                            label = { Text(label) }
+                        )
+                    }
+                }
+            }
+        }
+
+        PremiumCard {
+            Row(
+                modifier = Modifier.fillMaxWidth().padding(16.dp),
+                horizontalArrangement = Arrangement.SpaceBetween,
+                verticalAlignment = Alignment.CenterVertically
+            ) {
+                Column {
+                    Text("Noise-Shaped Dither", style = MaterialTheme.typography.labelLarge, fontWeight = FontWeight.Bold)
+                    Text("Moves 16-bit dither noise to where hearing is least sensitive", style = MaterialTheme.typography.labelSmall, color = MaterialTheme.colorScheme.onSurfaceVariant)
+                }
+                Switch(
+                    checked = noiseShaping,
+                    onCheckedChange = { viewModel.setNoiseShaping(it) }
+                )
+            }
+        }
+
+        PremiumCard {
+            Row(
+                modifier = Modifier.fillMaxWidth().padding(16.dp),
+                horizontalArrangement = Arrangement.SpaceBetween,
+                verticalAlignment = Alignment.CenterVertically
+            ) {
+                Column {
+                    Text("Native-Rate Resampling", style = MaterialTheme.typography.labelLarge, fontWeight = FontWeight.Bold)
+                    Text("Converts to the device's own sample rate from the next track", style = MaterialTheme.typography.labelSmall, color = MaterialTheme.colorScheme.onSurfaceVariant)
+                }
+                Switch(
+                    checked = resampleToDevice,
+                    onCheckedChange = { viewModel.setResampleToDevice(it) }
+                )
+            }
+        }
+
+        PremiumCard {
+            Row(
+                modifier = Modifier.fillMaxWidth().padding(16.dp),
+                horizontalArrangement = Arrangement.SpaceBetween,
+                verticalAlignment = Alignment.CenterVertically
+            ) {
+                Column {
+                    Text("Low-Power Filters", style = MaterialTheme.typography.labelLarge, fontWeight = FontWeight.Bold)
+                    Text("Runs the EQ and crossover in 32-bit float from the next track", style = MaterialTheme.typography.labelSmall, color = MaterialTheme.colorScheme.onSurfaceVariant)
+                }
+                Switch(
+                    checked = float32Filters,
+                    onCheckedChange = { viewModel.setFloat32Filters(it) }
+                )
+            }
+        }
+
+        CrossfadeCard(viewModel)
+
+        PremiumCard {
+            Row(
+                modifier = Modifier.fillMaxWidth().padding(16.dp),
+                horizontalArrangement = Arrangement.SpaceBetween,
+                verticalAlignment = Alignment.CenterVertically
+            ) {
+                Column {
+                    Text("Skip Silence", style = MaterialTheme.typography.labelLarge, fontWeight = FontWeight.Bold)
+                    Text("Jump over silent intros, outros and gaps", style = MaterialTheme.typography.labelSmall, color = MaterialTheme.colorScheme.onSurfaceVariant)
+                }
+                Switch(
+                    checked = skipSilence,
+                    onCheckedChange = { viewModel.setSkipSilence(it) }
+                )
+            }
+        }
+
+        DspLoadPanel(viewModel)
+    }
+}
+
+// Track crossfade; applied when the slider is released, since every change reallocates
+// the crossfader's buffers
+@Composable
+fun CrossfadeCard(viewModel: MusicViewModel) {
+    val crossfade by viewModel.crossfade.collectAsState()
+    var seconds by remember(crossfade) { mutableFloatStateOf(crossfade.seconds.toFloat()) }
+
+    PremiumCard {
+        Column(modifier = Modifier.padding(16.dp)) {
+            Row(modifier = Modifier.fillMaxWidth(), horizontalArrangement = Arrangement.SpaceBetween) {
+                Text("Crossfade", style = MaterialTheme.typography.labelLarge, fontWeight = FontWeight.Bold)
+                Text(
+                    if (seconds == 0f) "Gapless" else "%.0f s".format(seconds),
+                    style = MaterialTheme.typography.labelSmall,
+                    color = MaterialTheme.colorScheme.primary
+                )
+            }
+            Slider(
+                value = seconds,
+                onValueChange = { seconds = it },
+                onValueChangeFinished = { viewModel.setCrossfade(seconds, crossfade.beatAware) },
+                valueRange = 0f..12f,
+                steps = 11
+            )
+            Row(
+                modifier = Modifier.fillMaxWidth(),
+                horizontalArrangement = Arrangement.SpaceBetween,
+                verticalAlignment = Alignment.CenterVertically
+            ) {
+                Column {
+                    Text("Beat-aware", style = MaterialTheme.typography.labelLarge)
+                    Text("Start the fade on a beat", style = MaterialTheme.typography.labelSmall, color = MaterialTheme.colorScheme.onSurfaceVariant)
+                }
+                Switch(
+                    checked = crossfade.beatAware,
+                    enabled = crossfade.enabled,
+                    onCheckedChange = { viewModel.setCrossfade(crossfade.seconds.toFloat(), it) }
+                )
+            }
+        }
+    }
+}
+
+// Diagnostics: how much of each buffer's deadline the chain uses, and where
+@Composable
+fun DspLoadPanel(viewModel: MusicViewModel) {
+    val load by viewModel.dspLoad.collectAsState()
+    val clipboard = LocalClipboardManager.current
+
+    PremiumCard {
+        Column(
+            modifier = Modifier.fillMaxWidth().padding(16.dp),
+            verticalArrangement = Arrangement.spacedBy(8.dp)
+        ) {
+            Row(
+                modifier = Modifier.fillMaxWidth(),
+                horizontalArrangement = Arrangement.SpaceBetween,
+                verticalAlignment = Alignment.CenterVertically
+            ) {
+                Text("DSP Load", style = MaterialTheme.typography.labelLarge, fontWeight = FontWeight.Bold)
+                if (load.overrunRisk) {
+                    Text("Overrun risk", style = MaterialTheme.typography.labelSmall, color = MaterialTheme.colorScheme.error)
+                }
+            }
+            if (load.buffers == 0L) {
+                Text("Waiting for audio…", style = MaterialTheme.typography.labelSmall, color = MaterialTheme.colorScheme.onSurfaceVariant)
+            } else {
+                Text(
+                    "p50 %.1f%%   p99 %.1f%%   worst %.1f%%".format(load.p50Load * 100, load.p99Load * 100, load.worstLoad * 100),
+                    style = MaterialTheme.typography.bodyMedium
+                )
+                Text(
+                    "p99 %.2f ms per buffer · %d buffers · %d overruns".format(load.p99Nanos / 1e6, load.buffers, load.overruns),
+                    style = MaterialTheme.typography.labelSmall,
+                    color = MaterialTheme.colorScheme.onSurfaceVariant
+                )
+                load.stages.sortedByDescending { it.share }.forEach { stage ->
+                    Row(verticalAlignment = Alignment.CenterVertically) {
+                        Text(stage.stage.label, style = MaterialTheme.typography.labelSmall, modifier = Modifier.weight(1f))
+                        LinearProgressIndicator(
+                            progress = { stage.share.toFloat() },
+                            modifier = Modifier.width(96.dp).height(4.dp),
+                            trackColor = MaterialTheme.colorScheme.surfaceVariant
+                        )
+                        Text(
+                            "%3.0f%%".format(stage.share * 100),
+                            style = MaterialTheme.typography.labelSmall,
+                            modifier = Modifier.padding(start = 8.dp).width(36.dp)
+                        )
+                    }
+                }
+            }
+            Row(horizontalArrangement = Arrangement.spacedBy(8.dp)) {
+                TextButton(onClick = { viewModel.clearDspLoad() }) { Text("Reset") }
+                TextButton(onClick = { clipboard.setText(AnnotatedString(viewModel.dspLoadJson())) }) { Text("Copy JSON") }
+            }
+        }
     }
 }
 
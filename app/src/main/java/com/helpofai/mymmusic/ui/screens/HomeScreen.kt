@@ -198,7 +198,7 @@ fun RecentlyPlayedItem(
     audioFile: AudioFile,
     isCurrentTrack: Boolean,
     isPlaying: Boolean,
-    fftData: ByteArray,
+    fftData: FloatArray,
     leftLevel: Float,
     rightLevel: Float,
     onClick: () -> Unit
@@ -0,0 +1,39 @@
+import org.jetbrains.kotlin.gradle.dsl.JvmTarget
+
+// Pure-JVM DSP core: sample-processing kernels with no Android or Media3 dependencies,
+// so they can be unit tested and benchmarked (JMH) on any machine.
+plugins {
+    alias(libs.plugins.kotlin.jvm)
+    alias(libs.plugins.jmh)
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_11
+    targetCompatibility = JavaVersion.VERSION_11
+}
+
+kotlin {
+    compilerOptions {
+        jvmTarget.set(JvmTarget.JVM_11)
+    }
+}
+
+dependencies {
+    testImplementation(libs.junit)
+}
+
+// ./gradlew :dsp:jmh  (narrow with -Pjmh.includes=<regex>)
+jmh {
+    jmhVersion.set(libs.versions.jmh)
+    resultFormat.set("JSON")
+    providers.gradleProperty("jmh.includes").orNull?.let { includes.add(it) }
+}
+
+// Offline WAV renderer, see render/RenderCli.kt
+tasks.register<JavaExec>("render") {
+    group = "application"
+    description = "Renders WAV files through the DSP chain (pass options with --args)."
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass.set("com.helpofai.mymmusic.dsp.render.RenderCliKt")
+    workingDir = rootDir
+}
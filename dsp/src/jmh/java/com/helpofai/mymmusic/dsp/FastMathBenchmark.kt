@@ -0,0 +1,74 @@
+package com.helpofai.mymmusic.dsp
+
+import org.openjdk.jmh.annotations.*
+import java.util.concurrent.TimeUnit
+
+/**
+ * [FastMath] against `kotlin.math` over one block of typical arguments. Scores are ns/call.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+open class FastMathBenchmark {
+
+    companion object {
+        private const val SIZE = 4096
+    }
+
+    private val tanhArgs = DoubleArray(SIZE) { (it - SIZE / 2) * (8.0 / SIZE) }
+    private val phaseArgs = DoubleArray(SIZE) { it * (2.0 * Math.PI / SIZE) }
+    // Signal levels from -120 dBFS to full scale, and gains in log2 units over the same span
+    private val levelArgs = DoubleArray(SIZE) { Math.pow(10.0, -6.0 * it / SIZE) }
+    private val log2Args = DoubleArray(SIZE) { -20.0 * it / SIZE }
+
+    @Benchmark
+    @OperationsPerInvocation(SIZE)
+    fun tanhKotlin(): Double {
+        var sum = 0.0
+        for (x in tanhArgs) sum += kotlin.math.tanh(x)
+        return sum
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SIZE)
+    fun tanhFast(): Double {
+        var sum = 0.0
+        for (x in tanhArgs) sum += FastMath.tanh(x)
+        return sum
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SIZE)
+    fun sinCosKotlin(): Double {
+        var sum = 0.0
+        for (x in phaseArgs) sum += kotlin.math.sin(x) + kotlin.math.cos(x)
+        return sum
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SIZE)
+    fun sinCosFast(): Double {
+        var sum = 0.0
+        for (x in phaseArgs) sum += FastMath.sin(x) + FastMath.cos(x)
+        return sum
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SIZE)
+    fun log2Exp2Kotlin(): Double {
+        var sum = 0.0
+        for (i in 0 until SIZE) sum += kotlin.math.log2(levelArgs[i]) + Math.pow(2.0, log2Args[i])
+        return sum
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SIZE)
+    fun log2Exp2Fast(): Double {
+        var sum = 0.0
+        for (i in 0 until SIZE) sum += FastMath.log2(levelArgs[i]) + FastMath.exp2(log2Args[i])
+        return sum
+    }
+}
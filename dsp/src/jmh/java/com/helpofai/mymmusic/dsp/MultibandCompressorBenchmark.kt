@@ -0,0 +1,54 @@
+package com.helpofai.mymmusic.dsp
+
+import org.openjdk.jmh.annotations.*
+import java.util.concurrent.TimeUnit
+import kotlin.random.Random
+
+/**
+ * Cost of the multiband compressor per stereo frame with 3 and 4 bands. Scores are ns/frame.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+open class MultibandCompressorBenchmark {
+
+    companion object {
+        // One chain block
+        private const val FRAMES = 512
+    }
+
+    @Param("3", "4")
+    var bands = 4
+
+    private val compressor = MultibandCompressor(FRAMES)
+    private val sourceL = DoubleArray(FRAMES)
+    private val sourceR = DoubleArray(FRAMES)
+    private val left = DoubleArray(FRAMES)
+    private val right = DoubleArray(FRAMES)
+
+    @Setup
+    fun setUp() {
+        compressor.configure(48000)
+        compressor.setSettings(
+            if (bands == 4) MultibandSettings.COMMUTE
+            else MultibandSettings(enabled = true, crossovers = listOf(200.0, 2500.0), bands = List(3) { CompressorBand(ratio = 3.0) })
+        )
+        val random = Random(42)
+        for (i in 0 until FRAMES) {
+            sourceL[i] = random.nextDouble(-0.5, 0.5)
+            sourceR[i] = random.nextDouble(-0.5, 0.5)
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    fun process(): DoubleArray {
+        sourceL.copyInto(left)
+        sourceR.copyInto(right)
+        compressor.process(left, right, FRAMES)
+        return left
+    }
+}
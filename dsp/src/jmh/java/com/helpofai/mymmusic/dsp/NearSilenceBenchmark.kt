@@ -0,0 +1,72 @@
+package com.helpofai.mymmusic.dsp
+
+import org.openjdk.jmh.annotations.*
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.util.concurrent.TimeUnit
+
+/**
+ * Cost of the chain on program material against the silence after it. In "silence" the
+ * chain first plays program, then long enough of digital silence for every recursive
+ * stage to ring out to where its state would turn subnormal; scores should match
+ * "program" or beat it. Scores are ns/frame.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+open class NearSilenceBenchmark {
+
+    @Param("program", "silence")
+    lateinit var signal: String
+
+    @Param("fidelity", "8d", "commute", "eq31", "all")
+    lateinit var effects: String
+
+    @Param("FLOAT64", "FLOAT32")
+    lateinit var precision: String
+
+    private val chain = StereoDspChain()
+    private lateinit var input: ByteBuffer
+    private lateinit var output: ByteBuffer
+
+    @Setup
+    fun setUp() {
+        chain.configure(SAMPLE_RATE, 2, PcmEncoding.PCM_FLOAT, precision = ProcessingPrecision.valueOf(precision))
+        chain.setParams(StereoDspChainBenchmark.preset(effects))
+        if (effects == "commute") chain.setMultiband(MultibandSettings.COMMUTE)
+        if (effects == "eq31") chain.setEqBands(StereoDspChainBenchmark.GRAPHIC_EQ)
+        chain.settleParams()
+
+        input = ByteBuffer.allocateDirect(FRAMES * 2 * 4).order(ByteOrder.nativeOrder())
+        StereoDspChainBenchmark.fillNoise(input, PcmEncoding.PCM_FLOAT)
+        output = ByteBuffer.allocateDirect(chain.outputSize(input.capacity())).order(ByteOrder.nativeOrder())
+        repeat(SAMPLE_RATE / FRAMES) { process() }
+
+        if (signal == "silence") {
+            input.clear()
+            while (input.hasRemaining()) input.putFloat(0f)
+            input.flip()
+            repeat(RING_OUT_SECONDS * SAMPLE_RATE / FRAMES) { process() }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    fun process(): ByteBuffer {
+        input.rewind()
+        output.clear()
+        chain.process(input, output)
+        return output
+    }
+
+    companion object {
+        const val FRAMES = 4096
+        const val SAMPLE_RATE = 48000
+        // The slowest pole (the 0.995 DC blocker) needs about 3 s to fall from full scale
+        // to the subnormal range of a double
+        const val RING_OUT_SECONDS = 20
+    }
+}
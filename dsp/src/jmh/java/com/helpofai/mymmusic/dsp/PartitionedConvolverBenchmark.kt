@@ -0,0 +1,55 @@
+package com.helpofai.mymmusic.dsp
+
+import org.openjdk.jmh.annotations.*
+import java.util.concurrent.TimeUnit
+import kotlin.random.Random
+
+/**
+ * Cost of true-stereo (4-path) partitioned convolution per stereo frame, across IR length
+ * and partition size. Scores are ns/frame.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+open class PartitionedConvolverBenchmark {
+
+    companion object {
+        // One chain block
+        private const val FRAMES = 512
+    }
+
+    @Param("256", "1024", "4096", "16384")
+    var irLength = 1024
+
+    @Param("64", "256", "1024")
+    var partitionSize = 256
+
+    private lateinit var convolver: PartitionedConvolver
+    private val sourceL = DoubleArray(FRAMES)
+    private val sourceR = DoubleArray(FRAMES)
+    private val left = DoubleArray(FRAMES)
+    private val right = DoubleArray(FRAMES)
+
+    @Setup
+    fun setUp() {
+        val random = Random(42)
+        val ir = ImpulseResponse(48000, List(4) { DoubleArray(irLength) { random.nextDouble(-0.1, 0.1) } })
+        convolver = PartitionedConvolver(ir, partitionSize)
+        for (i in 0 until FRAMES) {
+            sourceL[i] = random.nextDouble(-1.0, 1.0)
+            sourceR[i] = random.nextDouble(-1.0, 1.0)
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    fun process(): DoubleArray {
+        sourceL.copyInto(left)
+        sourceR.copyInto(right)
+        convolver.process(left, right, FRAMES)
+        return left
+    }
+}
@@ -0,0 +1,54 @@
+package com.helpofai.mymmusic.dsp
+
+import org.openjdk.jmh.annotations.*
+import java.util.concurrent.TimeUnit
+import kotlin.random.Random
+
+/**
+ * Cost of stereo sample-rate conversion per input frame, for each quality and common rate
+ * pair. Scores are ns/frame; realtime at the input rate allows 1e9 / inputRate ns per frame
+ * (22676 ns at 44.1 kHz), so the realtime factor is that budget divided by the score.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+open class PolyphaseResamplerBenchmark {
+
+    companion object {
+        // One chain block
+        private const val FRAMES = 512
+    }
+
+    @Param("LOW", "MEDIUM", "HIGH", "BEST")
+    var quality = ResamplerQuality.HIGH
+
+    // inputRate:outputRate
+    @Param("44100:48000", "48000:44100", "44100:96000", "96000:48000")
+    var rates = "44100:48000"
+
+    private lateinit var resampler: PolyphaseResampler
+    private val left = DoubleArray(FRAMES)
+    private val right = DoubleArray(FRAMES)
+    private lateinit var outL: DoubleArray
+    private lateinit var outR: DoubleArray
+
+    @Setup
+    fun setUp() {
+        val (input, output) = rates.split(':').map { it.toInt() }
+        resampler = PolyphaseResampler(input, output, quality)
+        outL = DoubleArray(resampler.maxOutputFrames(FRAMES))
+        outR = DoubleArray(outL.size)
+        val random = Random(42)
+        for (i in 0 until FRAMES) {
+            left[i] = random.nextDouble(-1.0, 1.0)
+            right[i] = random.nextDouble(-1.0, 1.0)
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    fun process(): Int = resampler.process(left, right, FRAMES, outL, outR)
+}
@@ -0,0 +1,45 @@
+package com.helpofai.mymmusic.dsp
+
+import org.openjdk.jmh.annotations.*
+import java.util.concurrent.TimeUnit
+import kotlin.random.Random
+
+/**
+ * Cost of the spectrum tap per stereo frame, including one 1024-point real FFT every
+ * 512 frames. Scores are ns/frame.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+open class SpectrumAnalyzerBenchmark {
+
+    companion object {
+        // One chain block
+        private const val FRAMES = 512
+    }
+
+    private val analyzer = SpectrumAnalyzer()
+    private val left = DoubleArray(FRAMES)
+    private val right = DoubleArray(FRAMES)
+    private val frame = FloatArray(SpectrumAnalyzer.BINS)
+
+    @Setup
+    fun setUp() {
+        val random = Random(42)
+        for (i in 0 until FRAMES) {
+            left[i] = random.nextDouble(-1.0, 1.0)
+            right[i] = random.nextDouble(-1.0, 1.0)
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    fun process(): FloatArray {
+        analyzer.process(left, right, FRAMES)
+        analyzer.read(frame)
+        return frame
+    }
+}
@@ -0,0 +1,104 @@
+package com.helpofai.mymmusic.dsp
+
+import org.openjdk.jmh.annotations.*
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.util.concurrent.TimeUnit
+import kotlin.random.Random
+
+/**
+ * Cost of the full chain per frame, across input formats, rates, effect combinations and
+ * filter precisions. Scores are ns/frame (one invocation processes [FRAMES] frames).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+open class StereoDspChainBenchmark {
+
+    @Param("PCM_16BIT", "PCM_24BIT", "PCM_32BIT", "PCM_FLOAT")
+    lateinit var encoding: String
+
+    @Param("1", "2", "6")
+    var channels = 2
+
+    @Param("44100", "48000", "96000", "192000")
+    var sampleRate = 48000
+
+    @Param("neutral", "fidelity", "soundstage", "8d", "commute", "eq31", "all")
+    lateinit var effects: String
+
+    @Param("FLOAT64", "FLOAT32")
+    lateinit var precision: String
+
+    private val chain = StereoDspChain()
+    private lateinit var input: ByteBuffer
+    private lateinit var output: ByteBuffer
+
+    @Setup
+    fun setUp() {
+        val pcm = PcmEncoding.valueOf(encoding)
+        chain.configure(sampleRate, channels, pcm, precision = ProcessingPrecision.valueOf(precision))
+        chain.setParams(preset(effects))
+        if (effects == "commute") chain.setMultiband(MultibandSettings.COMMUTE)
+        if (effects == "eq31") chain.setEqBands(GRAPHIC_EQ)
+
+        input = ByteBuffer.allocateDirect(FRAMES * channels * pcm.bytesPerSample).order(ByteOrder.nativeOrder())
+        fillNoise(input, pcm)
+        output = ByteBuffer.allocateDirect(chain.outputSize(input.capacity())).order(ByteOrder.nativeOrder())
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    fun process(): ByteBuffer {
+        input.rewind()
+        output.clear()
+        chain.process(input, output)
+        return output
+    }
+
+    companion object {
+        const val FRAMES = 4096
+
+        fun preset(name: String): DspParams = when (name) {
+            "neutral" -> DspParams()
+            "fidelity" -> DspParams(preGain = 0.9, clarity = 0.6, warmth = 0.4, subBass = 0.5, hiFiAir = 0.3, adaptiveLoudness = 0.5)
+            "soundstage" -> DspParams(width = 1.5, balance = 0.1, crossfeed = 0.4)
+            "8d" -> DspParams(is8DEnabled = true, rotationSpeed = 0.2)
+            // Multiband stage or EQ only; both have their own settings objects
+            "commute", "eq31" -> DspParams()
+            "all" -> DspParams(
+                preGain = 0.9, balance = 0.1, width = 1.5, crossfeed = 0.4, clarity = 0.6, warmth = 0.4,
+                subBass = 0.5, hiFiAir = 0.3, adaptiveLoudness = 0.5, is8DEnabled = true, rotationSpeed = 0.2
+            )
+            else -> throw IllegalArgumentException("Unknown effect set: $name")
+        }
+
+        // Every band of the 31-band graphic EQ active, alternating boost and cut
+        val GRAPHIC_EQ = ParametricEq.THIRD_OCTAVE_CENTERS.mapIndexed { i, f ->
+            EqBandSpec(f, if (i % 2 == 0) 3.0 else -3.0, 4.3)
+        }
+
+        // Pink-ish program material at about -6 dBFS so the saturation and limiter stages do real work
+        fun fillNoise(buffer: ByteBuffer, encoding: PcmEncoding) {
+            val random = Random(42)
+            var lp = 0.0
+            while (buffer.hasRemaining()) {
+                lp = lp * 0.9 + random.nextDouble(-1.0, 1.0) * 0.1
+                val x = (lp * 2.5).coerceIn(-0.5, 0.5)
+                when (encoding) {
+                    PcmEncoding.PCM_16BIT -> buffer.putShort((x * 32767).toInt().toShort())
+                    PcmEncoding.PCM_24BIT -> {
+                        val v = (x * 8388607).toInt()
+                        buffer.put(v.toByte()); buffer.put((v shr 8).toByte()); buffer.put((v shr 16).toByte())
+                    }
+                    PcmEncoding.PCM_32BIT -> buffer.putInt((x * 2147483647).toInt())
+                    PcmEncoding.PCM_FLOAT -> buffer.putFloat(x.toFloat())
+                }
+            }
+            buffer.flip()
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.helpofai.mymmusic.dsp
+
+import org.openjdk.jmh.annotations.*
+import java.util.concurrent.TimeUnit
+import kotlin.random.Random
+
+/**
+ * Cost of the lookahead true-peak limiter per stereo frame. "hot" material keeps it limiting
+ * all the time; "quiet" material never gets near the ceiling. Scores are ns/frame.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+open class TruePeakLimiterBenchmark {
+
+    companion object {
+        // One chain block
+        private const val FRAMES = 512
+    }
+
+    @Param("44100", "48000", "96000", "192000")
+    var sampleRate = 48000
+
+    @Param("hot", "quiet")
+    lateinit var level: String
+
+    private val limiter = TruePeakLimiter()
+    private val sourceL = DoubleArray(FRAMES)
+    private val sourceR = DoubleArray(FRAMES)
+    private val left = DoubleArray(FRAMES)
+    private val right = DoubleArray(FRAMES)
+
+    @Setup
+    fun setUp() {
+        limiter.configure(sampleRate)
+        val random = Random(42)
+        val peak = if (level == "hot") 1.5 else 0.5
+        for (i in 0 until FRAMES) {
+            sourceL[i] = random.nextDouble(-peak, peak)
+            sourceR[i] = random.nextDouble(-peak, peak)
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    fun process(): DoubleArray {
+        sourceL.copyInto(left)
+        sourceR.copyInto(right)
+        limiter.process(left, right, FRAMES)
+        return left
+    }
+}
@@ -0,0 +1,179 @@
+package com.helpofai.mymmusic.dsp
+
+import kotlin.math.PI
+import kotlin.math.cos
+import kotlin.math.pow
+import kotlin.math.sin
+import kotlin.math.sqrt
+
+enum class FilterType { PEAKING, LOW_SHELF, HIGH_SHELF, LOW_PASS, HIGH_PASS, ALL_PASS }
+
+/**
+ * Normalized (a0 = 1) biquad coefficients. Immutable, so one design can be shared by any
+ * number of filters and handed across threads without copying.
+ */
+class BiquadCoefficients(
+    val b0: Double,
+    val b1: Double,
+    val b2: Double,
+    val a1: Double,
+    val a2: Double
+) {
+    /** True when the filter passes the signal unchanged. */
+    val isIdentity: Boolean get() = b0 == 1.0 && b1 == 0.0 && b2 == 0.0 && a1 == 0.0 && a2 == 0.0
+
+    /**
+     * Writes this transfer function as a trapezoidal state-variable filter into [out] at
+     * [offset]: the integrator gains g1 g2 g3 and the output mix m0 m1 m2, see
+     * [SVF_COEFFICIENTS]. Any stable biquad has this form. The single-precision kernels
+     * run it instead of the direct form, whose states nearly cancel for poles close to
+     * z = 1 and lose 40 to 80 dB of noise floor in float at low frequencies.
+     */
+    fun toSvf(out: FloatArray, offset: Int) {
+        // Analog prototype s^2 + k s + 1 warped by g = tan(w/2), recovered from the poles
+        val g = sqrt((1.0 + a1 + a2) / (1.0 - a1 + a2))
+        val a0 = 4.0 / (1.0 - a1 + a2)
+        val gk = a0 * (1.0 - a2) / 2.0
+        // Numerator scaled back to the un-normalized denominator, then split into
+        // input, band-pass and low-pass shares
+        val n0 = b0 * a0; val n1 = b1 * a0; val n2 = b2 * a0
+        val m0 = (n0 - n1 + n2) / 4.0
+        val m1 = (n0 - n2 - 2.0 * m0 * gk) / (2.0 * g)
+        val m2 = (n1 - m0 * (2.0 * g * g - 2.0)) / (2.0 * g * g)
+        val g1 = 1.0 / (1.0 + g * g + gk)
+        out[offset] = g1.toFloat()
+        out[offset + 1] = (g * g1).toFloat()
+        out[offset + 2] = (g * g * g1).toFloat()
+        out[offset + 3] = m0.toFloat()
+        out[offset + 4] = m1.toFloat()
+        out[offset + 5] = m2.toFloat()
+    }
+
+    companion object {
+        val IDENTITY = BiquadCoefficients(1.0, 0.0, 0.0, 0.0, 0.0)
+
+        /** Floats per filter written by [toSvf]. */
+        const val SVF_COEFFICIENTS = 6
+
+        /**
+         * RBJ Audio EQ Cookbook designs. [gainDb] only applies to peaking and shelving
+         * filters; [q] is the shelf slope parameter for shelves.
+         */
+        fun design(type: FilterType, sampleRate: Int, frequency: Double, q: Double, gainDb: Double): BiquadCoefficients {
+            if ((type == FilterType.PEAKING || type == FilterType.LOW_SHELF || type == FilterType.HIGH_SHELF) &&
+                gainDb == 0.0
+            ) return IDENTITY
+
+            val w0 = 2.0 * PI * frequency.coerceIn(1.0, sampleRate * 0.49) / sampleRate
+            val cosW0 = cos(w0)
+            val alpha = sin(w0) / (2.0 * q)
+            val a = 10.0.pow(gainDb / 40.0)
+
+            val b0: Double; val b1: Double; val b2: Double
+            val a0: Double; val a1: Double; val a2: Double
+            when (type) {
+                FilterType.PEAKING -> {
+                    b0 = 1.0 + alpha * a; b1 = -2.0 * cosW0; b2 = 1.0 - alpha * a
+                    a0 = 1.0 + alpha / a; a1 = -2.0 * cosW0; a2 = 1.0 - alpha / a
+                }
+                FilterType.LOW_SHELF -> {
+                    val k = 2.0 * sqrt(a) * alpha
+                    b0 = a * ((a + 1) - (a - 1) * cosW0 + k)
+                    b1 = 2.0 * a * ((a - 1) - (a + 1) * cosW0)
+                    b2 = a * ((a + 1) - (a - 1) * cosW0 - k)
+                    a0 = (a + 1) + (a - 1) * cosW0 + k
+                    a1 = -2.0 * ((a - 1) + (a + 1) * cosW0)
+                    a2 = (a + 1) + (a - 1) * cosW0 - k
+                }
+                FilterType.HIGH_SHELF -> {
+                    val k = 2.0 * sqrt(a) * alpha
+                    b0 = a * ((a + 1) + (a - 1) * cosW0 + k)
+                    b1 = -2.0 * a * ((a - 1) + (a + 1) * cosW0)
+                    b2 = a * ((a + 1) + (a - 1) * cosW0 - k)
+                    a0 = (a + 1) - (a - 1) * cosW0 + k
+                    a1 = 2.0 * ((a - 1) - (a + 1) * cosW0)
+                    a2 = (a + 1) - (a - 1) * cosW0 - k
+                }
+                FilterType.LOW_PASS -> {
+                    b0 = (1.0 - cosW0) / 2.0; b1 = 1.0 - cosW0; b2 = (1.0 - cosW0) / 2.0
+                    a0 = 1.0 + alpha; a1 = -2.0 * cosW0; a2 = 1.0 - alpha
+                }
+                FilterType.HIGH_PASS -> {
+                    b0 = (1.0 + cosW0) / 2.0; b1 = -(1.0 + cosW0); b2 = (1.0 + cosW0) / 2.0
+                    a0 = 1.0 + alpha; a1 = -2.0 * cosW0; a2 = 1.0 - alpha
+                }
+                FilterType.ALL_PASS -> {
+                    b0 = 1.0 - alpha; b1 = -2.0 * cosW0; b2 = 1.0 + alpha
+                    a0 = 1.0 + alpha; a1 = -2.0 * cosW0; a2 = 1.0 - alpha
+                }
+            }
+            return BiquadCoefficients(b0 / a0, b1 / a0, b2 / a0, a1 / a0, a2 / a0)
+        }
+    }
+}
+
+// Transposed direct form II section: coefficients plus its own two state variables.
+// The FloatArray overload runs the state-variable form instead, with states of its own.
+internal class Biquad {
+    var b0 = 1.0; var b1 = 0.0; var b2 = 0.0
+    var a1 = 0.0; var a2 = 0.0
+    var z1 = 0.0; var z2 = 0.0
+
+    private val svf = FloatArray(BiquadCoefficients.SVF_COEFFICIENTS).also { BiquadCoefficients.IDENTITY.toSvf(it, 0) }
+    private var ic1 = 0f; private var ic2 = 0f
+
+    fun set(c: BiquadCoefficients) {
+        b0 = c.b0; b1 = c.b1; b2 = c.b2
+        a1 = c.a1; a2 = c.a2
+        c.toSvf(svf, 0)
+    }
+
+    fun reset() {
+        z1 = 0.0; z2 = 0.0
+        ic1 = 0f; ic2 = 0f
+    }
+
+    // Per-sample callers call this once per block
+    fun flushDenormals() {
+        z1 = Denormals.flush(z1); z2 = Denormals.flush(z2)
+    }
+
+    fun process(input: Double): Double {
+        val out = input * b0 + z1
+        z1 = input * b1 + z2 - out * a1
+        z2 = input * b2 - out * a2
+        return out
+    }
+
+    // In-place over a whole block; state lives in locals for the duration of the loop
+    fun process(buf: DoubleArray, frames: Int) {
+        val b0 = b0; val b1 = b1; val b2 = b2
+        val a1 = a1; val a2 = a2
+        var z1 = z1; var z2 = z2
+        for (i in 0 until frames) {
+            val input = buf[i]
+            val out = input * b0 + z1
+            z1 = input * b1 + z2 - out * a1
+            z2 = input * b2 - out * a2
+            buf[i] = out
+        }
+        this.z1 = Denormals.flush(z1); this.z2 = Denormals.flush(z2)
+    }
+
+    // Single precision, in place, as a trapezoidal SVF (Simper's linear form)
+    fun process(buf: FloatArray, frames: Int) {
+        val g1 = svf[0]; val g2 = svf[1]; val g3 = svf[2]
+        val m0 = svf[3]; val m1 = svf[4]; val m2 = svf[5]
+        var ic1 = ic1; var ic2 = ic2
+        for (i in 0 until frames) {
+            val v0 = buf[i]
+            val v3 = v0 - ic2
+            val v1 = g1 * ic1 + g2 * v3
+            val v2 = ic2 + g2 * ic1 + g3 * v3
+            ic1 = 2f * v1 - ic1
+            ic2 = 2f * v2 - ic2
+            buf[i] = m0 * v0 + m1 * v1 + m2 * v2
+        }
+        this.ic1 = Denormals.flush(ic1); this.ic2 = Denormals.flush(ic2)
+    }
+}
@@ -0,0 +1,65 @@
+package com.helpofai.mymmusic.dsp
+
+import java.util.concurrent.Executors
+
+/**
+ * Process-wide memo of biquad designs keyed by (type, sample rate, frequency, Q, gain).
+ *
+ * Designs are immutable [BiquadCoefficients], so one instance is shared by every filter
+ * that asks for it. The map is a bounded LRU. Filters in use are designed ahead of time
+ * for every rate in [COMMON_SAMPLE_RATES] on a background thread, so a format switch
+ * between tracks usually only does lookups.
+ */
+object BiquadCache {
+
+    val COMMON_SAMPLE_RATES = intArrayOf(44100, 48000, 88200, 96000, 192000)
+
+    private const val CAPACITY = 1024
+
+    private data class Key(
+        val type: FilterType,
+        val sampleRate: Int,
+        val frequency: Double,
+        val q: Double,
+        val gainDb: Double
+    )
+
+    private val designs = object : LinkedHashMap<Key, BiquadCoefficients>(CAPACITY, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<Key, BiquadCoefficients>) = size > CAPACITY
+    }
+
+    // Single daemon worker; each run designs every band queued since the previous one
+    private val executor = Executors.newSingleThreadExecutor { runnable ->
+        Thread(runnable, "BiquadCache-prewarm").apply { isDaemon = true }
+    }
+    // Bands waiting for the worker, without duplicates; its lock also guards `scheduled`
+    private val pending = LinkedHashSet<EqBandSpec>()
+    private var scheduled = false
+
+    fun get(type: FilterType, sampleRate: Int, frequency: Double, q: Double, gainDb: Double): BiquadCoefficients {
+        val key = Key(type, sampleRate, frequency, q, gainDb)
+        synchronized(designs) { designs[key]?.let { return it } }
+        // Designed outside the lock; a racing duplicate design is harmless
+        val coefficients = BiquadCoefficients.design(type, sampleRate, frequency, q, gainDb)
+        synchronized(designs) { designs[key] = coefficients }
+        return coefficients
+    }
+
+    /** Designs [bands] at every common sample rate in the background. Returns immediately. */
+    fun prewarmAsync(bands: List<EqBandSpec>) {
+        synchronized(pending) {
+            pending.addAll(bands)
+            if (scheduled) return
+            scheduled = true
+        }
+        executor.execute {
+            val batch = synchronized(pending) {
+                scheduled = false
+                pending.toList().also { pending.clear() }
+            }
+            for (rate in COMMON_SAMPLE_RATES) {
+                for (band in batch) get(band.type, rate, band.frequency, band.q, band.gainDb)
+            }
+        }
+    }
+}
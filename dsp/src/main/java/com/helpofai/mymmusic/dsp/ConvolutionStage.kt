@@ -0,0 +1,142 @@
+package com.helpofai.mymmusic.dsp
+
+import java.util.concurrent.atomic.AtomicReference
+import kotlin.math.min
+
+/**
+ * The chain's convolution slot. Runs the current [PartitionedConvolver] with its [LATENCY]
+ * frames of delay; without one the signal passes straight through and the stage adds no
+ * latency at all.
+ *
+ * A convolver set from another thread (or its removal) is crossfaded in on the audio
+ * thread over [FADE_SECONDS], while the outgoing path keeps running until it is faded out.
+ * The incoming convolver is first fed the last partition of input, so its delayed dry
+ * signal carries straight on instead of starting a partition of silence.
+ */
+internal class ConvolutionStage(maxFrames: Int) {
+
+    companion object {
+        /** Delay of the stage in frames while a convolver runs. */
+        const val LATENCY = PartitionedConvolver.DEFAULT_PARTITION
+        private const val FADE_SECONDS = 0.05
+    }
+
+    // One set() call; a new instance even for the same convolver, compared by identity
+    private class Request(val convolver: PartitionedConvolver?)
+
+    private val requested = AtomicReference(Request(null))
+    private var applied = requested.get()
+    private var sampleRate = 0
+
+    // Audio-thread paths; null passes the input through
+    private var current: PartitionedConvolver? = null
+    private var outgoing: PartitionedConvolver? = null
+    // Share of the current path, ramping from 0 to 1 after each swap
+    private var fade = 1.0
+    private var fadeStep = 1.0 / (FADE_SECONDS * 48000)
+
+    // Recent input: what primes a new convolver, and the delay that stands in for one
+    // built for another rate
+    private val history = StereoDelayLine(LATENCY + maxFrames + 1)
+    private val outL = DoubleArray(maxFrames)
+    private val outR = DoubleArray(maxFrames)
+    private val primeL = DoubleArray(LATENCY)
+    private val primeR = DoubleArray(LATENCY)
+
+    /**
+     * Frames the stage delays its input by: [LATENCY] with a convolver, 0 without. Follows
+     * the path that was faded to, once its fade completes. Audio thread.
+     */
+    var latencyFrames = 0
+        private set
+
+    /** The convolver last set, whether or not the audio thread has picked it up. */
+    val convolver: PartitionedConvolver? get() = requested.get().convolver
+
+    /** True while a convolver is set, running or still fading out. Audio thread. */
+    val isActive: Boolean get() = requested.get().convolver != null || current != null || fade < 1.0
+
+    /** Fades to [convolver], or back to pass-through when null. Any thread. */
+    fun set(convolver: PartitionedConvolver?) {
+        require(convolver == null || convolver.partitionSize == LATENCY) {
+            "Convolver partition must be $LATENCY frames, got ${convolver?.partitionSize}"
+        }
+        requested.set(Request(convolver))
+    }
+
+    /** Sets the fade rate; called from the chain's configure. */
+    fun configure(sampleRate: Int) {
+        if (sampleRate == this.sampleRate) return
+        this.sampleRate = sampleRate
+        fadeStep = 1.0 / (FADE_SECONDS * sampleRate)
+    }
+
+    /** Clears all signal history and completes any fade; the convolvers are kept. */
+    fun reset() {
+        outgoing = null
+        fade = 1.0
+        current?.reset()
+        history.clear()
+        latencyFrames = if (current != null) LATENCY else 0
+    }
+
+    /** Convolves [frames] samples of [left]/[right] in place, delayed by [latencyFrames]. */
+    fun process(left: DoubleArray, right: DoubleArray, frames: Int) {
+        pickUp()
+        val fading = fade < 1.0
+        if (fading) {
+            left.copyInto(outL, 0, 0, frames)
+            right.copyInto(outR, 0, 0, frames)
+        }
+        history.write(left, right, frames)
+        run(current, left, right, frames)
+        if (!fading) return
+
+        // Between a convolver and pass-through the two paths are a partition apart; the
+        // blend of two continuous signals moves the timeline without a click
+        run(outgoing, outL, outR, frames)
+        var g = fade
+        for (i in 0 until frames) {
+            g = min(g + fadeStep, 1.0)
+            left[i] = outL[i] + (left[i] - outL[i]) * g
+            right[i] = outR[i] + (right[i] - outR[i]) * g
+        }
+        fade = g
+        if (g >= 1.0) {
+            outgoing = null
+            latencyFrames = if (current != null) LATENCY else 0
+        }
+    }
+
+    // Starts a fade to the latest request. A swap during a fade drops the older outgoing path.
+    private fun pickUp() {
+        val request = requested.get()
+        if (request === applied) return
+        applied = request
+        val next = request.convolver
+        if (next != null) prime(next)
+        outgoing = current
+        current = next
+        fade = 0.0
+    }
+
+    // Feeds the last partition of input through a fresh convolver, so the dry half of its
+    // output window already holds the audio the outgoing path is playing
+    private fun prime(conv: PartitionedConvolver) {
+        conv.reset()
+        history.read(primeL, primeR, LATENCY, LATENCY)
+        conv.process(primeL, primeR, LATENCY)
+    }
+
+    // One path over the block: the convolver, or the input as it is. A convolver built for
+    // another rate only exists until configure replaces it; until then the input is delayed
+    // as far as it would be.
+    private fun run(conv: PartitionedConvolver?, left: DoubleArray, right: DoubleArray, frames: Int) {
+        if (conv == null) return
+        if (conv.sampleRate == sampleRate) {
+            conv.process(left, right, frames)
+        } else {
+            history.read(left, right, frames, LATENCY + frames)
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.helpofai.mymmusic.dsp
+
+import kotlin.math.abs
+
+/**
+ * Flush-to-zero for the state of recursive stages. The JVM can't switch the FPU into
+ * flush-to-zero mode, and a filter ringing out on digital silence decays into the
+ * subnormal range, where every multiply takes a slow path on many ARM and x86 cores and
+ * rounding can keep the state there indefinitely.
+ *
+ * Stages pass their state through [flush] once per block. Anything below [FLOOR]
+ * (-300 dBFS) becomes exactly zero, which a filter fed silence then holds. No audio pole
+ * decays the remaining ~290 decades within one block, so the state never gets near the
+ * subnormal range in between.
+ */
+internal object Denormals {
+
+    const val FLOOR = 1e-15
+    private const val FLOOR_F = 1e-15f
+
+    fun flush(x: Double): Double = if (abs(x) < FLOOR) 0.0 else x
+
+    fun flush(x: Float): Float = if (abs(x) < FLOOR_F) 0f else x
+}
@@ -0,0 +1,98 @@
+package com.helpofai.mymmusic.dsp
+
+import kotlin.math.abs
+import kotlin.math.sqrt
+
+/** Loudspeaker positions of a multichannel stream, in the order Android decoders emit them. */
+enum class Speaker {
+    FRONT_LEFT, FRONT_RIGHT, FRONT_CENTER, LFE,
+    BACK_LEFT, BACK_RIGHT, BACK_CENTER, SIDE_LEFT, SIDE_RIGHT
+}
+
+/**
+ * Stereo downmix of an N-channel stream: output left/right are weighted sums of every input
+ * channel, with weights [left] and [right] indexed by input channel. The PCM readers apply
+ * the matrix while deinterleaving, so a multichannel frame is folded to stereo in the same
+ * pass that decodes it.
+ */
+class DownmixMatrix(val left: DoubleArray, val right: DoubleArray) {
+
+    init {
+        require(left.size == right.size && left.size >= 1) {
+            "Downmix rows must be non-empty and of equal length, got ${left.size} and ${right.size}"
+        }
+    }
+
+    val channelCount: Int get() = left.size
+
+    /** This matrix scaled so no output can exceed the largest input sample. */
+    fun normalized(): DownmixMatrix {
+        val sum = maxOf(left.sumOf { abs(it) }, right.sumOf { abs(it) })
+        if (sum <= 1.0) return this
+        return DownmixMatrix(DoubleArray(left.size) { left[it] / sum }, DoubleArray(right.size) { right[it] / sum })
+    }
+
+    companion object {
+        // -3 dB, the ITU-R BS.775 weight of centre and surround channels
+        private val MINUS_3DB = 1.0 / sqrt(2.0)
+
+        /** Channel order per channel count, matching Android's default channel masks. */
+        fun layout(channelCount: Int): List<Speaker>? = when (channelCount) {
+            3 -> listOf(Speaker.FRONT_LEFT, Speaker.FRONT_RIGHT, Speaker.FRONT_CENTER)
+            4 -> listOf(Speaker.FRONT_LEFT, Speaker.FRONT_RIGHT, Speaker.BACK_LEFT, Speaker.BACK_RIGHT)
+            5 -> listOf(Speaker.FRONT_LEFT, Speaker.FRONT_RIGHT, Speaker.FRONT_CENTER, Speaker.BACK_LEFT, Speaker.BACK_RIGHT)
+            6 -> listOf(
+                Speaker.FRONT_LEFT, Speaker.FRONT_RIGHT, Speaker.FRONT_CENTER, Speaker.LFE,
+                Speaker.BACK_LEFT, Speaker.BACK_RIGHT
+            )
+            7 -> listOf(
+                Speaker.FRONT_LEFT, Speaker.FRONT_RIGHT, Speaker.FRONT_CENTER, Speaker.LFE,
+                Speaker.BACK_LEFT, Speaker.BACK_RIGHT, Speaker.BACK_CENTER
+            )
+            8 -> listOf(
+                Speaker.FRONT_LEFT, Speaker.FRONT_RIGHT, Speaker.FRONT_CENTER, Speaker.LFE,
+                Speaker.BACK_LEFT, Speaker.BACK_RIGHT, Speaker.SIDE_LEFT, Speaker.SIDE_RIGHT
+            )
+            else -> null
+        }
+
+        /**
+         * ITU-R BS.775 downmix of [speakers]: fronts at unity, centre and each surround at
+         * -3 dB into its side, back centre at -6 dB into both sides.
+         * The LFE is left out unless [lfeGain] is set.
+         */
+        fun itu(speakers: List<Speaker>, lfeGain: Double = 0.0): DownmixMatrix {
+            val left = DoubleArray(speakers.size)
+            val right = DoubleArray(speakers.size)
+            speakers.forEachIndexed { ch, speaker ->
+                when (speaker) {
+                    Speaker.FRONT_LEFT -> left[ch] = 1.0
+                    Speaker.FRONT_RIGHT -> right[ch] = 1.0
+                    Speaker.FRONT_CENTER -> { left[ch] = MINUS_3DB; right[ch] = MINUS_3DB }
+                    Speaker.LFE -> { left[ch] = lfeGain; right[ch] = lfeGain }
+                    Speaker.BACK_LEFT, Speaker.SIDE_LEFT -> left[ch] = MINUS_3DB
+                    Speaker.BACK_RIGHT, Speaker.SIDE_RIGHT -> right[ch] = MINUS_3DB
+                    Speaker.BACK_CENTER -> { left[ch] = 0.5; right[ch] = 0.5 }
+                }
+            }
+            return DownmixMatrix(left, right)
+        }
+
+        /**
+         * Default matrix for [channelCount] channels: [itu] for the standard layouts, else the
+         * first two channels as they are. The ITU weights sum to well above unity (2.41 per
+         * side for 5.1, about +7.7 dB), so they come [normalized]: a full-scale multichannel
+         * frame can't clip, at the cost of that much level against the source.
+         */
+        fun forChannelCount(channelCount: Int): DownmixMatrix =
+            DEFAULTS.getOrNull(channelCount) ?: build(channelCount)
+
+        private fun build(channelCount: Int): DownmixMatrix = layout(channelCount)?.let { itu(it).normalized() } ?: DownmixMatrix(
+            DoubleArray(channelCount).also { it[0] = 1.0 },
+            DoubleArray(channelCount).also { it[if (channelCount > 1) 1 else 0] = 1.0 }
+        )
+
+        // Precomputed for mono up to 7.1; declared last so the layouts above are initialised
+        private val DEFAULTS = Array(9) { if (it == 0) null else build(it) }
+    }
+}
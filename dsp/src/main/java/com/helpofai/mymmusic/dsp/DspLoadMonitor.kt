@@ -0,0 +1,250 @@
+package com.helpofai.mymmusic.dsp
+
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+import kotlin.math.ceil
+
+/** Sections of [StereoDspChain] that [DspLoadMonitor] times separately. */
+enum class DspStage(val label: String) {
+    INPUT("Decode / resample / normalize"),
+    CROSSFADE("Skip silence / crossfade"),
+    EQ("EQ"),
+    MULTIBAND("Multiband"),
+    TONE("Loudness / air / saturation"),
+    BANDS("Crossover / clarity / width / sub"),
+    SPATIAL("Crossfeed / balance"),
+    CONVOLUTION("Convolution"),
+    EIGHT_D("8D"),
+    LIMITER("DC blocker / limiter"),
+    OUTPUT("Taps / dither / encode"),
+    BYPASS("Bypass copy")
+}
+
+/** Time one [DspStage] takes per buffer. */
+data class StageLoad(
+    val stage: DspStage,
+    val p50Nanos: Long,
+    val p99Nanos: Long,
+    val worstNanos: Long,
+    /** Share of all processing time spent in this stage, 0..1. */
+    val share: Double
+)
+
+/**
+ * Processing time per buffer against the buffer's own duration, which is the deadline the
+ * audio sink gives the chain. Loads are fractions of that duration (1.0 = took as long as
+ * the audio lasts). Percentiles are bucket upper bounds, so they never flatter.
+ */
+data class DspLoadReport(
+    val buffers: Long,
+    val p50Nanos: Long,
+    val p99Nanos: Long,
+    val worstNanos: Long,
+    val p50Load: Double,
+    val p99Load: Double,
+    val worstLoad: Double,
+    /** Buffers that took longer than they last. */
+    val overruns: Long,
+    val stages: List<StageLoad>
+) {
+    /**
+     * True once the p99 load passes [RISK_LOAD]. The decoder and the rest of the pipeline share
+     * the same deadline, so the chain alone using half of it is where underruns start.
+     */
+    val overrunRisk: Boolean get() = p99Load > RISK_LOAD
+
+    fun toJson(): String = buildString {
+        append("{\"buffers\":").append(buffers)
+        append(",\"p50Nanos\":").append(p50Nanos)
+        append(",\"p99Nanos\":").append(p99Nanos)
+        append(",\"worstNanos\":").append(worstNanos)
+        append(",\"p50Load\":").append(p50Load)
+        append(",\"p99Load\":").append(p99Load)
+        append(",\"worstLoad\":").append(worstLoad)
+        append(",\"overruns\":").append(overruns)
+        append(",\"overrunRisk\":").append(overrunRisk)
+        append(",\"stages\":[")
+        stages.forEachIndexed { i, s ->
+            if (i > 0) append(',')
+            append("{\"stage\":\"").append(s.stage.name)
+            append("\",\"label\":\"").append(s.stage.label)
+            append("\",\"p50Nanos\":").append(s.p50Nanos)
+            append(",\"p99Nanos\":").append(s.p99Nanos)
+            append(",\"worstNanos\":").append(s.worstNanos)
+            append(",\"share\":").append(s.share)
+            append('}')
+        }
+        append("]}")
+    }
+
+    companion object {
+        const val RISK_LOAD = 0.5
+
+        val EMPTY = DspLoadReport(0, 0, 0, 0, 0.0, 0.0, 0.0, 0, emptyList())
+    }
+}
+
+/**
+ * CPU-load instrumentation of the chain: per-buffer [System.nanoTime] spans, split by
+ * [DspStage], aggregated into log-scale histograms.
+ *
+ * The audio thread is the only writer: it adds to plain per-buffer accumulators while
+ * processing and folds them into the histograms once per buffer with ordered stores, so it
+ * never locks, allocates or contends. Readers take a [snapshot] from any thread. Like
+ * [MeterTap], timing is skipped entirely while nobody has polled for a second.
+ */
+class DspLoadMonitor {
+
+    companion object {
+        private const val IDLE_NANOS = 1_000_000_000L
+    }
+
+    // Single-writer histogram of non-negative longs: 8 buckets per octave, ~9% resolution
+    private class Histogram {
+        companion object {
+            private const val SUB_BITS = 3
+            private const val SUB = 1 shl SUB_BITS
+            private const val BUCKETS = (63 - SUB_BITS) * SUB + SUB
+
+            private fun bucket(value: Long): Int {
+                if (value < SUB) return maxOf(value, 0L).toInt()
+                val msb = 63 - java.lang.Long.numberOfLeadingZeros(value)
+                val sub = (value ushr (msb - SUB_BITS)).toInt() and (SUB - 1)
+                return (msb - SUB_BITS + 1) * SUB + sub
+            }
+
+            // Largest value that lands in bucket b
+            private fun upperBound(b: Int): Long {
+                if (b < SUB) return b.toLong()
+                val shift = b / SUB - 1
+                val lower = (SUB + b % SUB).toLong() shl shift
+                return lower + (1L shl shift) - 1
+            }
+        }
+
+        private val counts = AtomicLongArray(BUCKETS)
+        val max = AtomicLong(0L)
+
+        // Audio thread only
+        fun record(value: Long) {
+            val b = bucket(value)
+            counts.lazySet(b, counts.get(b) + 1)
+            if (value > max.get()) max.lazySet(value)
+        }
+
+        fun clear() {
+            for (b in 0 until BUCKETS) counts.lazySet(b, 0L)
+            max.lazySet(0L)
+        }
+
+        /** Upper bounds of the [quantiles], in the same order; 0 when empty. */
+        fun quantiles(vararg quantiles: Double): LongArray {
+            val snapshot = LongArray(BUCKETS) { counts.get(it) }
+            val total = snapshot.sum()
+            val result = LongArray(quantiles.size)
+            if (total == 0L) return result
+            for ((q, quantile) in quantiles.withIndex()) {
+                val rank = maxOf(1L, ceil(quantile * total).toLong())
+                var seen = 0L
+                for (b in 0 until BUCKETS) {
+                    seen += snapshot[b]
+                    if (seen >= rank) {
+                        result[q] = minOf(upperBound(b), max.get())
+                        break
+                    }
+                }
+            }
+            return result
+        }
+    }
+
+    private val stages = DspStage.values()
+    private val total = Histogram()
+    // Load in parts per million of the buffer duration
+    private val load = Histogram()
+    private val stageHistograms = Array(stages.size) { Histogram() }
+    private val stageTotals = AtomicLongArray(stages.size)
+    private val buffers = AtomicLong(0L)
+    private val overruns = AtomicLong(0L)
+
+    @Volatile private var lastPollNanos = System.nanoTime() - IDLE_NANOS
+    @Volatile private var clearRequested = false
+
+    // Writer-side accumulators for the buffer in flight
+    private val stageNanos = LongArray(stages.size)
+    private var bufferStart = 0L
+    private var lastMark = 0L
+
+    /** True while somebody is reading the load; the chain skips timing otherwise. */
+    val isActive: Boolean get() = System.nanoTime() - lastPollNanos < IDLE_NANOS
+
+    /** Starts timing a buffer. Audio thread. */
+    fun begin() {
+        if (clearRequested) {
+            clearRequested = false
+            total.clear(); load.clear()
+            for (h in stageHistograms) h.clear()
+            for (s in stages.indices) stageTotals.lazySet(s, 0L)
+            buffers.lazySet(0L); overruns.lazySet(0L)
+        }
+        stageNanos.fill(0L)
+        bufferStart = System.nanoTime()
+        lastMark = bufferStart
+    }
+
+    /** Charges the time since the previous mark to [stage]. Audio thread. */
+    fun mark(stage: DspStage) {
+        val now = System.nanoTime()
+        stageNanos[stage.ordinal] += now - lastMark
+        lastMark = now
+    }
+
+    /** Ends the buffer begun by [begin], which held [frames] frames at [sampleRate]. Audio thread. */
+    fun end(frames: Int, sampleRate: Int) {
+        val elapsed = System.nanoTime() - bufferStart
+        if (frames <= 0 || sampleRate <= 0) return
+        val durationNanos = frames * 1_000_000_000L / sampleRate
+        total.record(elapsed)
+        load.record(elapsed * 1_000_000L / maxOf(durationNanos, 1L))
+        for (s in stages.indices) {
+            val nanos = stageNanos[s]
+            if (nanos == 0L) continue
+            stageHistograms[s].record(nanos)
+            stageTotals.lazySet(s, stageTotals.get(s) + nanos)
+        }
+        if (elapsed > durationNanos) overruns.lazySet(overruns.get() + 1)
+        buffers.lazySet(buffers.get() + 1)
+    }
+
+    /** Starts the statistics over from the next buffer. Any thread. */
+    fun clear() {
+        clearRequested = true
+    }
+
+    /** Current statistics; also keeps the monitor active. Any thread. */
+    fun snapshot(): DspLoadReport {
+        lastPollNanos = System.nanoTime()
+        val count = buffers.get()
+        if (count == 0L) return DspLoadReport.EMPTY
+        val (p50, p99) = total.quantiles(0.5, 0.99).let { it[0] to it[1] }
+        val (l50, l99) = load.quantiles(0.5, 0.99).let { it[0] to it[1] }
+        val totals = LongArray(stages.size) { stageTotals.get(it) }
+        val sum = totals.sum().coerceAtLeast(1L)
+        val stageLoads = stages.filter { totals[it.ordinal] > 0L }.map { stage ->
+            val h = stageHistograms[stage.ordinal]
+            val q = h.quantiles(0.5, 0.99)
+            StageLoad(stage, q[0], q[1], h.max.get(), totals[stage.ordinal].toDouble() / sum)
+        }
+        return DspLoadReport(
+            buffers = count,
+            p50Nanos = p50,
+            p99Nanos = p99,
+            worstNanos = total.max.get(),
+            p50Load = l50 / 1e6,
+            p99Load = l99 / 1e6,
+            worstLoad = load.max.get() / 1e6,
+            overruns = overruns.get(),
+            stages = stageLoads
+        )
+    }
+}
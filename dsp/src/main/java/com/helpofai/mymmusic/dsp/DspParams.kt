@@ -0,0 +1,83 @@
+package com.helpofai.mymmusic.dsp
+
+import java.util.Properties
+
+/**
+ * Immutable snapshot of every user-facing DSP control.
+ *
+ * The UI publishes a whole new snapshot per change; the audio thread picks up the latest
+ * one once per block and smooths towards it, so it never observes a half-applied update.
+ */
+data class DspParams(
+    val preGain: Double = 1.0,
+    val balance: Double = 0.0,
+    val width: Double = 1.0,
+    val crossfeed: Double = 0.0,
+    val clarity: Double = 0.0,
+    val warmth: Double = 0.0,
+    val subBass: Double = 0.0,
+    val hiFiAir: Double = 0.0,
+    val adaptiveLoudness: Double = 0.0,
+    val is8DEnabled: Boolean = false,
+    val rotationSpeed: Double = 0.12, // Hz
+    val eightDPath: EightDPath = EightDPath.CIRCLE,
+    // F-weighted noise shaping of the 16-bit dither; doesn't alter the signal itself
+    val noiseShaping: Boolean = false
+) {
+    /** True when the chain would leave the signal untouched. */
+    val isNeutral: Boolean
+        get() = preGain == 1.0 && balance == 0.0 && width == 1.0 &&
+            crossfeed == 0.0 && clarity == 0.0 && warmth == 0.0 &&
+            subBass == 0.0 && hiFiAir == 0.0 && adaptiveLoudness == 0.0 &&
+            !is8DEnabled
+
+    /** Serializes to `key=value` properties, the on-disk preset format. */
+    fun toProperties(): Properties = Properties().apply {
+        setProperty("preGain", preGain.toString())
+        setProperty("balance", balance.toString())
+        setProperty("width", width.toString())
+        setProperty("crossfeed", crossfeed.toString())
+        setProperty("clarity", clarity.toString())
+        setProperty("warmth", warmth.toString())
+        setProperty("subBass", subBass.toString())
+        setProperty("hiFiAir", hiFiAir.toString())
+        setProperty("adaptiveLoudness", adaptiveLoudness.toString())
+        setProperty("is8DEnabled", is8DEnabled.toString())
+        setProperty("rotationSpeed", rotationSpeed.toString())
+        setProperty("eightDPath", eightDPath.name)
+        setProperty("noiseShaping", noiseShaping.toString())
+    }
+
+    companion object {
+        /** Reads a preset written by [toProperties]; missing keys keep their defaults. */
+        fun fromProperties(props: Properties): DspParams {
+            val defaults = DspParams()
+            fun double(key: String, default: Double) = props.getProperty(key)?.toDouble() ?: default
+            return DspParams(
+                preGain = double("preGain", defaults.preGain),
+                balance = double("balance", defaults.balance),
+                width = double("width", defaults.width),
+                crossfeed = double("crossfeed", defaults.crossfeed),
+                clarity = double("clarity", defaults.clarity),
+                warmth = double("warmth", defaults.warmth),
+                subBass = double("subBass", defaults.subBass),
+                hiFiAir = double("hiFiAir", defaults.hiFiAir),
+                adaptiveLoudness = double("adaptiveLoudness", defaults.adaptiveLoudness),
+                is8DEnabled = props.getProperty("is8DEnabled")?.toBoolean() ?: defaults.is8DEnabled,
+                rotationSpeed = double("rotationSpeed", defaults.rotationSpeed),
+                eightDPath = props.getProperty("eightDPath")?.let { EightDPath.valueOf(it) } ?: defaults.eightDPath,
+                noiseShaping = props.getProperty("noiseShaping")?.toBoolean() ?: defaults.noiseShaping
+            )
+        }
+    }
+}
+
+/** Trajectory of the virtual source in 8D mode. */
+enum class EightDPath {
+    /** Horizontal circle around the listener. */
+    CIRCLE,
+    /** Figure-8 passing in front of and behind the listener. */
+    FIGURE_EIGHT,
+    /** Vertical circle from ear to ear over the head. */
+    ELEVATION
+}
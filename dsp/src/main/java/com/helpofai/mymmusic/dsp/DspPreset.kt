@@ -0,0 +1,80 @@
+package com.helpofai.mymmusic.dsp
+
+import java.util.Properties
+
+/**
+ * A named setup of the chain: every control in [params] plus the multiband stage, applied
+ * together by [StereoDspChain.applyPreset]. Stored as `key=value` properties: the
+ * [DspParams] keys as they are, the multiband settings under `multiband.`.
+ */
+data class DspPreset(
+    val name: String,
+    val params: DspParams,
+    val multiband: MultibandSettings = MultibandSettings()
+) {
+
+    fun toProperties(): Properties = params.toProperties().apply {
+        setProperty("name", name)
+        setProperty("multiband.enabled", multiband.enabled.toString())
+        setProperty("multiband.crossovers", multiband.crossovers.joinToString(","))
+        multiband.bands.forEachIndexed { i, band ->
+            val prefix = "multiband.band$i."
+            setProperty(prefix + "thresholdDb", band.thresholdDb.toString())
+            setProperty(prefix + "ratio", band.ratio.toString())
+            setProperty(prefix + "kneeDb", band.kneeDb.toString())
+            setProperty(prefix + "expanderThresholdDb", band.expanderThresholdDb.toString())
+            setProperty(prefix + "expanderRatio", band.expanderRatio.toString())
+            setProperty(prefix + "attackMs", band.attackMs.toString())
+            setProperty(prefix + "releaseMs", band.releaseMs.toString())
+            setProperty(prefix + "makeupDb", band.makeupDb.toString())
+        }
+    }
+
+    companion object {
+        val FLAT = DspPreset("Flat", DspParams())
+
+        val COMMUTE = DspPreset("Commute", DspParams(adaptiveLoudness = 0.4), MultibandSettings.COMMUTE)
+
+        val PARTY_8D = DspPreset(
+            "8D Party",
+            DspParams(width = 1.3, subBass = 0.6, hiFiAir = 0.3, warmth = 0.2, is8DEnabled = true, rotationSpeed = 0.2)
+        )
+
+        val BUILT_IN = listOf(FLAT, COMMUTE, PARTY_8D)
+
+        /**
+         * Reads a preset written by [toProperties]. Missing control keys keep their defaults;
+         * without any `multiband.` keys the stage is off.
+         */
+        fun fromProperties(props: Properties, fallbackName: String = "Preset"): DspPreset {
+            val defaults = MultibandSettings()
+            val crossovers = props.getProperty("multiband.crossovers")
+                ?.split(',')?.map { it.trim().toDouble() }
+                ?: defaults.crossovers
+            val bands = List(crossovers.size + 1) { i ->
+                val base = defaults.bands.getOrNull(i) ?: CompressorBand()
+                val prefix = "multiband.band$i."
+                fun double(key: String, default: Double) = props.getProperty(prefix + key)?.toDouble() ?: default
+                CompressorBand(
+                    thresholdDb = double("thresholdDb", base.thresholdDb),
+                    ratio = double("ratio", base.ratio),
+                    kneeDb = double("kneeDb", base.kneeDb),
+                    expanderThresholdDb = double("expanderThresholdDb", base.expanderThresholdDb),
+                    expanderRatio = double("expanderRatio", base.expanderRatio),
+                    attackMs = double("attackMs", base.attackMs),
+                    releaseMs = double("releaseMs", base.releaseMs),
+                    makeupDb = double("makeupDb", base.makeupDb)
+                )
+            }
+            return DspPreset(
+                name = props.getProperty("name") ?: fallbackName,
+                params = DspParams.fromProperties(props),
+                multiband = MultibandSettings(
+                    enabled = props.getProperty("multiband.enabled")?.toBoolean() ?: false,
+                    crossovers = crossovers,
+                    bands = bands
+                )
+            )
+        }
+    }
+}
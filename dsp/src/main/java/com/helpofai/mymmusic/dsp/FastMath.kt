@@ -0,0 +1,91 @@
+package com.helpofai.mymmusic.dsp
+
+import kotlin.math.PI
+import kotlin.math.floor
+
+/**
+ * Cheap replacements for the transcendental calls on the per-sample path. Each function
+ * documents its maximum error against `kotlin.math`, and FastMathTest holds them to it.
+ * Every bound sits below one 16-bit LSB (3.05e-5).
+ */
+object FastMath {
+
+    // --- tanh ---
+    // [9/8] Padé approximant from Lambert's continued fraction. It reaches 1.0 at |x| = 6.2971,
+    // so clamping the input there keeps the curve monotonic and stops x^9 from overflowing.
+    private const val TANH_CLAMP = 6.2971
+
+    /** Maximum absolute error of [tanh] over all inputs. */
+    const val TANH_MAX_ERROR = 7e-6
+
+    fun tanh(x: Double): Double {
+        val c = if (x > TANH_CLAMP) TANH_CLAMP else if (x < -TANH_CLAMP) -TANH_CLAMP else x
+        val c2 = c * c
+        val num = c * (34459425.0 + c2 * (4729725.0 + c2 * (135135.0 + c2 * (990.0 + c2))))
+        val den = 34459425.0 + c2 * (16216200.0 + c2 * (945945.0 + c2 * (13860.0 + 45.0 * c2)))
+        val t = num / den
+        return if (t > 1.0) 1.0 else if (t < -1.0) -1.0 else t
+    }
+
+    // --- sin / cos ---
+    // One period in a 2048-entry table (plus a guard entry), linearly interpolated.
+    // Linear interpolation error is bounded by (2*PI/2048)^2 / 8 = 1.18e-6.
+    private const val SIN_TABLE_SIZE = 2048
+    private const val SIN_INDEX_SCALE = SIN_TABLE_SIZE / (2.0 * PI)
+    private val SIN_TABLE = DoubleArray(SIN_TABLE_SIZE + 1) { kotlin.math.sin(it / SIN_INDEX_SCALE) }
+
+    /** Maximum absolute error of [sin] and [cos] for |x| up to 1e6. */
+    const val SIN_MAX_ERROR = 1.2e-6
+
+    fun sin(x: Double): Double = lookup(x * SIN_INDEX_SCALE)
+
+    fun cos(x: Double): Double = lookup(x * SIN_INDEX_SCALE + SIN_TABLE_SIZE / 4)
+
+    private fun lookup(position: Double): Double {
+        val base = floor(position)
+        val i = base.toLong().toInt() and (SIN_TABLE_SIZE - 1)
+        val a = SIN_TABLE[i]
+        return a + (SIN_TABLE[i + 1] - a) * (position - base)
+    }
+
+    // --- log2 / exp2 ---
+    // For the dB-domain gain computers. Both split off the binary exponent through the IEEE
+    // bit pattern and only approximate the remaining factor near 1.
+    private const val LN2 = 0.6931471805599453
+    private const val INV_LN2 = 1.4426950408889634
+    private const val SQRT2 = 1.4142135623730951
+    private const val MANTISSA_MASK = 0xFFFFFFFFFFFFFL
+    private const val EXPONENT_ONE = 0x3FF0000000000000L
+
+    /** Maximum absolute error of [log2] for positive normal inputs. */
+    const val LOG2_MAX_ERROR = 1e-9
+
+    /** Maximum relative error of [exp2] for inputs in -1022..1023. */
+    const val EXP2_MAX_RELATIVE_ERROR = 2e-7
+
+    /** Base-2 logarithm. Zero, negative and subnormal inputs return -1075 (below any signal). */
+    fun log2(x: Double): Double {
+        if (x < java.lang.Double.MIN_NORMAL) return -1075.0
+        val bits = java.lang.Double.doubleToRawLongBits(x)
+        var e = ((bits ushr 52) - 1023).toInt()
+        // Mantissa in [1, 2), folded into [sqrt(1/2), sqrt(2)) so the series below converges fast
+        var m = java.lang.Double.longBitsToDouble((bits and MANTISSA_MASK) or EXPONENT_ONE)
+        if (m > SQRT2) { m *= 0.5; e++ }
+        // ln(m) = 2 atanh(s), s = (m - 1) / (m + 1), |s| <= 0.1716; truncation error < 1e-10
+        val s = (m - 1.0) / (m + 1.0)
+        val s2 = s * s
+        val ln = 2.0 * s * (1.0 + s2 * (1.0 / 3 + s2 * (1.0 / 5 + s2 * (1.0 / 7 + s2 * (1.0 / 9 + s2 * (1.0 / 11))))))
+        return e + ln * INV_LN2
+    }
+
+    /** 2 to the power [x]; clamped to the normal range, so it never returns 0 or infinity. */
+    fun exp2(x: Double): Double {
+        val c = if (x > 1023.0) 1023.0 else if (x < -1022.0) -1022.0 else x
+        // Nearest integer exponent, leaving |f| <= 0.5; 2^f = e^(f ln2) by a degree-6 Taylor series
+        val i = floor(c + 0.5)
+        val t = (c - i) * LN2
+        val p = 1.0 + t * (1.0 + t * (1.0 / 2 + t * (1.0 / 6 + t * (1.0 / 24 + t * (1.0 / 120 + t * (1.0 / 720))))))
+        val scale = java.lang.Double.longBitsToDouble((i.toLong() + 1023) shl 52)
+        return p * scale
+    }
+}
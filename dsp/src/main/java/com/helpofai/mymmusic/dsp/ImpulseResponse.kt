@@ -0,0 +1,103 @@
+package com.helpofai.mymmusic.dsp
+
+import com.helpofai.mymmusic.dsp.render.WavReader
+import java.io.File
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import kotlin.math.floor
+import kotlin.math.min
+
+/**
+ * Impulse response for the convolution stage. The channel count selects the routing:
+ *  - 1 channel: the same filter on both sides,
+ *  - 2 channels: L->L and R->R (headphone correction, per-ear EQ),
+ *  - 4 channels: true stereo L->L, L->R, R->L, R->R (HRTF crossfeed, stereo reverb).
+ */
+class ImpulseResponse(val sampleRate: Int, val channels: List<DoubleArray>) {
+
+    companion object {
+        /** Longer files are truncated; a few thousand taps is the intended size. */
+        const val MAX_SECONDS = 2.0
+
+        /** Reads an IR from a 16/24/32-bit or float WAV file with 1, 2 or 4 channels. */
+        fun fromWav(file: File): ImpulseResponse = WavReader(file).use { reader ->
+            val format = reader.format
+            val frames = min(reader.frameCount, (MAX_SECONDS * format.sampleRate).toLong()).toInt()
+            val bytes = ByteBuffer.allocate(frames * format.bytesPerFrame).order(ByteOrder.LITTLE_ENDIAN)
+            while (bytes.hasRemaining() && reader.read(bytes) > 0) Unit
+            bytes.flip()
+
+            val data = List(format.channelCount) { DoubleArray(frames) }
+            for (i in 0 until frames) {
+                for (ch in 0 until format.channelCount) {
+                    data[ch][i] = when (format.encoding) {
+                        PcmEncoding.PCM_16BIT -> bytes.short / 32768.0
+                        PcmEncoding.PCM_24BIT -> {
+                            val lo = bytes.get().toInt() and 0xFF
+                            val mid = bytes.get().toInt() and 0xFF
+                            val hi = bytes.get().toInt()
+                            ((hi shl 16) or (mid shl 8) or lo) / 8388608.0
+                        }
+                        PcmEncoding.PCM_32BIT -> bytes.int / 2147483648.0
+                        PcmEncoding.PCM_FLOAT -> bytes.float.toDouble()
+                    }
+                }
+            }
+            ImpulseResponse(format.sampleRate, data)
+        }
+    }
+
+    init {
+        require(channels.size == 1 || channels.size == 2 || channels.size == 4) {
+            "Impulse response needs 1, 2 or 4 channels, got ${channels.size}"
+        }
+        require(channels[0].isNotEmpty() && channels.all { it.size == channels[0].size }) {
+            "Impulse response channels must be non-empty and of equal length"
+        }
+    }
+
+    val length: Int get() = channels[0].size
+
+    /**
+     * This response at [rate], converted with a [PolyphaseResampler] at [ResamplerQuality.BEST].
+     * Ratios it doesn't support fall back to linear interpolation, which is adequate for the
+     * smooth spectra of HRTF and correction filters but softens the top octave of bright reverbs.
+     */
+    fun resampledTo(rate: Int): ImpulseResponse {
+        if (rate == sampleRate) return this
+        val ratio = sampleRate.toDouble() / rate
+        val newLength = ((length - 1) / ratio).toInt() + 1
+        // The tap count scales with the rate; rescale so the frequency response stays put
+        val gain = ratio
+        if (!PolyphaseResampler.isSupported(sampleRate, rate)) {
+            return ImpulseResponse(rate, channels.map { src ->
+                DoubleArray(newLength) { i ->
+                    val x = i * ratio
+                    val j = floor(x).toInt()
+                    val frac = x - j
+                    val next = if (j + 1 < src.size) src[j + 1] else 0.0
+                    (src[j] + (next - src[j]) * frac) * gain
+                }
+            })
+        }
+
+        val out = List(channels.size) { DoubleArray(newLength) }
+        for (ch in channels.indices step 2) {
+            val second = min(ch + 1, channels.size - 1)
+            val resampler = PolyphaseResampler(sampleRate, rate, ResamplerQuality.BEST)
+            // Skip the filter delay and run zeros through until the tail is out
+            val skip = resampler.latencyFrames
+            val inFrames = length + ((skip + 1) * ratio).toInt() + resampler.taps
+            val inL = channels[ch].copyOf(inFrames)
+            val inR = channels[second].copyOf(inFrames)
+            val outL = DoubleArray(resampler.maxOutputFrames(inFrames))
+            val outR = DoubleArray(outL.size)
+            val produced = resampler.process(inL, inR, inFrames, outL, outR)
+            for (i in 0 until min(newLength, produced - skip)) {
+                out[ch][i] = outL[skip + i] * gain
+                out[second][i] = outR[skip + i] * gain
+            }
+        }
+        return ImpulseResponse(rate, out)
+    }
+}
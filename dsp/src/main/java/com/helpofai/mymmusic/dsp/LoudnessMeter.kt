@@ -0,0 +1,291 @@
+package com.helpofai.mymmusic.dsp
+
+import java.nio.ByteBuffer
+import kotlin.math.PI
+import kotlin.math.log10
+import kotlin.math.max
+import kotlin.math.min
+import kotlin.math.pow
+import kotlin.math.roundToInt
+import kotlin.math.tan
+
+/**
+ * EBU R128 / ITU-R BS.1770-4 loudness measurement of a mono or stereo stream.
+ *
+ * The input is K-weighted and squared, then accumulated in 100 ms sub-blocks. Those give:
+ *  - momentary loudness over the last 400 ms,
+ *  - short-term loudness over the last 3 s,
+ *  - gated integrated loudness over the whole stream,
+ *  - loudness range (EBU Tech 3342),
+ *  - true peak, 4x oversampled.
+ *
+ * Memory stays bounded for streams of any length: gated blocks go into fixed 0.1 LU
+ * histograms rather than lists. [process] never allocates, so the meter can also run on
+ * the audio thread.
+ */
+class LoudnessMeter(
+    private val sampleRate: Int,
+    private val channels: Int,
+    private val measureTruePeak: Boolean = true
+) {
+
+    companion object {
+        private const val ABSOLUTE_GATE = -70.0 // LUFS
+        private const val RELATIVE_GATE = -10.0 // LU, integrated loudness
+        private const val RANGE_GATE = -20.0    // LU, loudness range
+        private const val MOMENTARY_SUBBLOCKS = 4   // 400 ms
+        private const val SHORT_TERM_SUBBLOCKS = 30 // 3 s
+
+        // Histograms cover -70..+30 LUFS in 0.1 LU bins
+        private const val HISTOGRAM_BINS = 1000
+        private const val HISTOGRAM_STEP = 0.1
+
+        private fun loudness(meanSquare: Double): Double =
+            if (meanSquare <= 0.0) Double.NEGATIVE_INFINITY else -0.691 + 10.0 * log10(meanSquare)
+
+        private fun histogramBin(lufs: Double): Int =
+            ((lufs - ABSOLUTE_GATE) / HISTOGRAM_STEP).toInt().coerceIn(0, HISTOGRAM_BINS - 1)
+
+        private fun binLoudness(bin: Int): Double = ABSOLUTE_GATE + (bin + 0.5) * HISTOGRAM_STEP
+
+        // BS.1770 K-weighting stage 1: high shelf (+4 dB above ~1.7 kHz), designed for any rate
+        private fun preFilter(sampleRate: Int): BiquadCoefficients {
+            val f0 = 1681.974450955533
+            val gainDb = 3.999843853973347
+            val q = 0.7071752369554196
+            val k = tan(PI * f0 / sampleRate)
+            val vh = 10.0.pow(gainDb / 20.0)
+            val vb = vh.pow(0.4996667741545416)
+            val a0 = 1.0 + k / q + k * k
+            return BiquadCoefficients(
+                (vh + vb * k / q + k * k) / a0,
+                2.0 * (k * k - vh) / a0,
+                (vh - vb * k / q + k * k) / a0,
+                2.0 * (k * k - 1.0) / a0,
+                (1.0 - k / q + k * k) / a0
+            )
+        }
+
+        // BS.1770 K-weighting stage 2: RLB high-pass at ~38 Hz
+        private fun rlbFilter(sampleRate: Int): BiquadCoefficients {
+            val f0 = 38.13547087602444
+            val q = 0.5003270373238773
+            val k = tan(PI * f0 / sampleRate)
+            val a0 = 1.0 + k / q + k * k
+            return BiquadCoefficients(1.0, -2.0, 1.0, 2.0 * (k * k - 1.0) / a0, (1.0 - k / q + k * k) / a0)
+        }
+    }
+
+    init {
+        require(channels == 1 || channels == 2) { "Only mono or stereo is measured, got $channels channels" }
+    }
+
+    private val preL = Biquad().apply { set(preFilter(sampleRate)) }
+    private val rlbL = Biquad().apply { set(rlbFilter(sampleRate)) }
+    private val preR = Biquad().apply { set(preFilter(sampleRate)) }
+    private val rlbR = Biquad().apply { set(rlbFilter(sampleRate)) }
+
+    // --- 100 ms sub-blocks ---
+    private val subblockFrames = (sampleRate * 0.1).roundToInt()
+    private var subblockFill = 0
+    private var subblockSum = 0.0
+    // Sum of squares of the last SHORT_TERM_SUBBLOCKS sub-blocks, newest at subblockPos - 1
+    private val subblocks = DoubleArray(SHORT_TERM_SUBBLOCKS)
+    private var subblockPos = 0
+    private var subblockCount = 0L
+
+    // --- Gating state ---
+    private val blockHistogram = IntArray(HISTOGRAM_BINS)
+    private val blockEnergy = DoubleArray(HISTOGRAM_BINS)
+    private var gatedBlockCount = 0L
+    private var gatedBlockEnergy = 0.0
+    private val shortTermHistogram = IntArray(HISTOGRAM_BINS)
+    private var gatedShortTermCount = 0L
+    private var gatedShortTermEnergy = 0.0
+
+    // --- True peak (interpolator history, each sample written twice) ---
+    private val histL = DoubleArray(2 * TruePeakFilter.TAPS)
+    private val histR = DoubleArray(2 * TruePeakFilter.TAPS)
+    private var histPos = 0
+    private var peak = 0.0
+
+    // Scratch for processInterleaved
+    private var reader: PcmReader? = null
+    private var readerEncoding: PcmEncoding? = null
+    private var readerChannels = 0
+    private val scratchL = DoubleArray(1024)
+    private val scratchR = DoubleArray(1024)
+
+    /** Loudness of the last 400 ms, updated every 100 ms. -Infinity until 400 ms are in. */
+    var momentaryLufs = Double.NEGATIVE_INFINITY
+        private set
+
+    /** Loudness of the last 3 s, updated every 100 ms. -Infinity until 3 s are in. */
+    var shortTermLufs = Double.NEGATIVE_INFINITY
+        private set
+
+    /** Largest 4x oversampled sample magnitude so far (linear). */
+    val truePeak: Double get() = peak
+
+    val truePeakDb: Double get() = if (peak <= 0.0) Double.NEGATIVE_INFINITY else 20.0 * log10(peak)
+
+    /** Gated integrated loudness so far, -Infinity if every block was below the absolute gate. */
+    val integratedLufs: Double
+        get() {
+            if (gatedBlockCount == 0L) return Double.NEGATIVE_INFINITY
+            val threshold = loudness(gatedBlockEnergy / gatedBlockCount) + RELATIVE_GATE
+            var energy = 0.0
+            var count = 0L
+            for (bin in histogramBin(threshold) until HISTOGRAM_BINS) {
+                energy += blockEnergy[bin]
+                count += blockHistogram[bin]
+            }
+            return if (count == 0L) Double.NEGATIVE_INFINITY else loudness(energy / count)
+        }
+
+    /** Loudness range in LU: spread between the 10th and 95th percentile of gated short-term loudness. */
+    val loudnessRange: Double
+        get() {
+            if (gatedShortTermCount == 0L) return 0.0
+            val threshold = loudness(gatedShortTermEnergy / gatedShortTermCount) + RANGE_GATE
+            val first = histogramBin(threshold)
+            var total = 0L
+            for (bin in first until HISTOGRAM_BINS) total += shortTermHistogram[bin]
+            if (total == 0L) return 0.0
+            return percentile(first, total, 0.95) - percentile(first, total, 0.10)
+        }
+
+    fun reset() {
+        preL.reset(); rlbL.reset(); preR.reset(); rlbR.reset()
+        subblockFill = 0; subblockSum = 0.0
+        subblocks.fill(0.0); subblockPos = 0; subblockCount = 0L
+        blockHistogram.fill(0); blockEnergy.fill(0.0)
+        gatedBlockCount = 0L; gatedBlockEnergy = 0.0
+        shortTermHistogram.fill(0)
+        gatedShortTermCount = 0L; gatedShortTermEnergy = 0.0
+        histL.fill(0.0); histR.fill(0.0); histPos = 0; peak = 0.0
+        momentaryLufs = Double.NEGATIVE_INFINITY
+        shortTermLufs = Double.NEGATIVE_INFINITY
+    }
+
+    /** Measures planar samples; [right] is ignored for mono. Neither array is modified. */
+    fun process(left: DoubleArray, right: DoubleArray, frames: Int) {
+        val stereo = channels == 2
+        if (measureTruePeak) trackPeak(left, right, frames, stereo)
+
+        var offset = 0
+        while (offset < frames) {
+            val n = min(frames - offset, subblockFrames - subblockFill)
+            var sum = 0.0
+            for (i in offset until offset + n) {
+                val l = rlbL.process(preL.process(left[i]))
+                sum += l * l
+            }
+            if (stereo) {
+                for (i in offset until offset + n) {
+                    val r = rlbR.process(preR.process(right[i]))
+                    sum += r * r
+                }
+            }
+            subblockSum += sum
+            subblockFill += n
+            offset += n
+            if (subblockFill == subblockFrames) completeSubblock()
+        }
+        preL.flushDenormals(); rlbL.flushDenormals()
+        if (stereo) { preR.flushDenormals(); rlbR.flushDenormals() }
+    }
+
+    /**
+     * Measures interleaved PCM in [encoding] with [channelCount] channels, consuming all of
+     * [input]. Beyond stereo the meter reads the stereo fold of
+     * [DownmixMatrix.forChannelCount], i.e. what the chain plays, not a BS.1770 multichannel
+     * sum; being normalized, that fold reads several LU below the source.
+     */
+    fun processInterleaved(input: ByteBuffer, encoding: PcmEncoding, channelCount: Int) {
+        var r = reader
+        if (r == null || readerEncoding != encoding || readerChannels != channelCount) {
+            r = PcmReader.create(encoding, channelCount, scratchL.size)
+            reader = r
+            readerEncoding = encoding
+            readerChannels = channelCount
+        }
+        while (input.remaining() >= r.bytesPerFrame) {
+            val frames = min(input.remaining() / r.bytesPerFrame, scratchL.size)
+            r.read(input, scratchL, scratchR, frames)
+            process(scratchL, scratchR, frames)
+        }
+        input.position(input.limit())
+    }
+
+    private fun trackPeak(left: DoubleArray, right: DoubleArray, frames: Int, stereo: Boolean) {
+        val taps = TruePeakFilter.TAPS
+        var pos = histPos
+        var p = peak
+        for (i in 0 until frames) {
+            pos = if (pos == 0) taps - 1 else pos - 1
+            val l = left[i]
+            histL[pos] = l; histL[pos + taps] = l
+            p = max(p, TruePeakFilter.peak(histL, pos))
+            if (stereo) {
+                val r = right[i]
+                histR[pos] = r; histR[pos + taps] = r
+                p = max(p, TruePeakFilter.peak(histR, pos))
+            }
+        }
+        histPos = pos
+        peak = p
+    }
+
+    private fun completeSubblock() {
+        subblocks[subblockPos] = subblockSum
+        subblockPos = (subblockPos + 1) % SHORT_TERM_SUBBLOCKS
+        subblockCount++
+        subblockSum = 0.0
+        subblockFill = 0
+
+        if (subblockCount >= MOMENTARY_SUBBLOCKS) {
+            val meanSquare = recentSum(MOMENTARY_SUBBLOCKS) / (MOMENTARY_SUBBLOCKS * subblockFrames)
+            val lufs = loudness(meanSquare)
+            momentaryLufs = lufs
+            // 400 ms gating blocks with 75% overlap: one per sub-block
+            if (lufs > ABSOLUTE_GATE) {
+                val bin = histogramBin(lufs)
+                blockHistogram[bin]++
+                blockEnergy[bin] += meanSquare
+                gatedBlockCount++
+                gatedBlockEnergy += meanSquare
+            }
+        }
+        if (subblockCount >= SHORT_TERM_SUBBLOCKS) {
+            val meanSquare = recentSum(SHORT_TERM_SUBBLOCKS) / (SHORT_TERM_SUBBLOCKS * subblockFrames)
+            val lufs = loudness(meanSquare)
+            shortTermLufs = lufs
+            if (lufs > ABSOLUTE_GATE) {
+                shortTermHistogram[histogramBin(lufs)]++
+                gatedShortTermCount++
+                gatedShortTermEnergy += meanSquare
+            }
+        }
+    }
+
+    private fun recentSum(count: Int): Double {
+        var sum = 0.0
+        var pos = subblockPos
+        repeat(count) {
+            pos = if (pos == 0) SHORT_TERM_SUBBLOCKS - 1 else pos - 1
+            sum += subblocks[pos]
+        }
+        return sum
+    }
+
+    private fun percentile(firstBin: Int, total: Long, fraction: Double): Double {
+        val target = (total - 1) * fraction
+        var seen = 0L
+        for (bin in firstBin until HISTOGRAM_BINS) {
+            seen += shortTermHistogram[bin]
+            if (seen > target) return binLoudness(bin)
+        }
+        return binLoudness(HISTOGRAM_BINS - 1)
+    }
+}
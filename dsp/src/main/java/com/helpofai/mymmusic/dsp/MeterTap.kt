@@ -0,0 +1,158 @@
+package com.helpofai.mymmusic.dsp
+
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+import kotlin.math.abs
+import kotlin.math.exp
+import kotlin.math.ln
+import kotlin.math.sqrt
+
+/** One metering block as seen by the UI. Levels are linear (1.0 = full scale). */
+data class MeterReading(
+    val sequence: Long,
+    val rmsLeft: Double,
+    val rmsRight: Double,
+    val peakLeft: Double,
+    val peakRight: Double,
+    val holdLeft: Double,
+    val holdRight: Double,
+    val momentaryLufs: Double,
+    val shortTermLufs: Double,
+    /** L/R phase correlation, -1 (out of phase) .. +1 (mono). 0 for silence. */
+    val correlation: Double
+) {
+    companion object {
+        val SILENT = MeterReading(
+            -1L, 0.0, 0.0, 0.0, 0.0, 0.0, 0.0,
+            Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, 0.0
+        )
+    }
+}
+
+/**
+ * Output metering: per-block RMS, peak with hold and decay, momentary/short-term LUFS and
+ * L/R correlation.
+ *
+ * The audio thread writes one record per block into a preallocated ring and publishes it
+ * by bumping a sequence counter; the UI polls the newest record at display rate. The
+ * audio thread never allocates or blocks. Metering is skipped entirely while nobody has
+ * polled for a second, so hidden meters cost nothing.
+ */
+class MeterTap {
+
+    companion object {
+        private const val SLOTS = 16
+        private const val FIELDS = 9
+        private const val HOLD_SECONDS = 1.5
+        private const val DECAY_DB_PER_SECOND = 20.0
+        private const val CORRELATION_SECONDS = 0.3
+        private const val IDLE_NANOS = 1_000_000_000L
+    }
+
+    // Record fields as raw double bits. Ordered stores here and volatile loads in poll keep
+    // every field access between the sequence reads around it, in both threads, so poll's
+    // re-check catches a record overwritten while it was being read.
+    private val slots = AtomicLongArray(SLOTS * FIELDS)
+    // Records published so far; record n lives in slot n % SLOTS
+    private val published = AtomicLong(0L)
+    @Volatile private var lastPollNanos = System.nanoTime() - IDLE_NANOS
+
+    private var sampleRate = 48000
+    private var loudness = LoudnessMeter(sampleRate, 2, measureTruePeak = false)
+
+    // Producer-side state
+    private var holdL = 0.0; private var holdR = 0.0
+    private var holdFramesL = 0; private var holdFramesR = 0
+    private var corrLR = 0.0; private var corrLL = 0.0; private var corrRR = 0.0
+
+    /** True while the UI is polling; the chain skips the tap otherwise. */
+    val isActive: Boolean get() = System.nanoTime() - lastPollNanos < IDLE_NANOS
+
+    /**
+     * Re-creates the loudness meter for a new [sampleRate]; call from the chain's configure.
+     * At the same rate the readings carry on across the track boundary.
+     */
+    fun configure(sampleRate: Int) {
+        if (sampleRate == this.sampleRate) return
+        this.sampleRate = sampleRate
+        loudness = LoudnessMeter(sampleRate, 2, measureTruePeak = false)
+        reset()
+    }
+
+    fun reset() {
+        loudness.reset()
+        holdL = 0.0; holdR = 0.0
+        holdFramesL = 0; holdFramesR = 0
+        corrLR = 0.0; corrLL = 0.0; corrRR = 0.0
+    }
+
+    /** Measures one block and publishes a record. Audio thread only. */
+    fun process(left: DoubleArray, right: DoubleArray, frames: Int) {
+        if (frames == 0) return
+        var sumL = 0.0; var sumR = 0.0; var sumLR = 0.0
+        var peakL = 0.0; var peakR = 0.0
+        for (i in 0 until frames) {
+            val l = left[i]; val r = right[i]
+            sumL += l * l
+            sumR += r * r
+            sumLR += l * r
+            peakL = maxOf(peakL, abs(l))
+            peakR = maxOf(peakR, abs(r))
+        }
+        loudness.process(left, right, frames)
+
+        // Peak hold: new maxima latch for HOLD_SECONDS, then fall at DECAY_DB_PER_SECOND
+        val decay = exp(-frames * DECAY_DB_PER_SECOND * ln(10.0) / (20.0 * sampleRate))
+        val holdFrames = (HOLD_SECONDS * sampleRate).toInt()
+        if (peakL >= holdL) { holdL = peakL; holdFramesL = holdFrames }
+        else if (holdFramesL > 0) holdFramesL -= frames
+        else holdL = maxOf(holdL * decay, peakL)
+        if (peakR >= holdR) { holdR = peakR; holdFramesR = holdFrames }
+        else if (holdFramesR > 0) holdFramesR -= frames
+        else holdR = maxOf(holdR * decay, peakR)
+
+        // Correlation over exponentially weighted sums, so it doesn't flicker per block
+        val keep = exp(-frames / (CORRELATION_SECONDS * sampleRate))
+        corrLR = corrLR * keep + sumLR
+        corrLL = corrLL * keep + sumL
+        corrRR = corrRR * keep + sumR
+        val norm = sqrt(corrLL * corrRR)
+        val correlation = if (norm > 1e-12) (corrLR / norm).coerceIn(-1.0, 1.0) else 0.0
+
+        val sequence = published.get()
+        val base = (sequence % SLOTS).toInt() * FIELDS
+        put(base, sqrt(sumL / frames))
+        put(base + 1, sqrt(sumR / frames))
+        put(base + 2, peakL)
+        put(base + 3, peakR)
+        put(base + 4, holdL)
+        put(base + 5, holdR)
+        put(base + 6, loudness.momentaryLufs)
+        put(base + 7, loudness.shortTermLufs)
+        put(base + 8, correlation)
+        // Ordered store: the record is complete before the consumer can see its number
+        published.lazySet(sequence + 1)
+    }
+
+    /** Newest record, or null if nothing has been measured yet. UI thread. */
+    fun poll(): MeterReading? {
+        lastPollNanos = System.nanoTime()
+        while (true) {
+            val count = published.get()
+            if (count == 0L) return null
+            val sequence = count - 1
+            val base = (sequence % SLOTS).toInt() * FIELDS
+            val reading = MeterReading(
+                sequence,
+                field(base), field(base + 1), field(base + 2), field(base + 3),
+                field(base + 4), field(base + 5), field(base + 6), field(base + 7), field(base + 8)
+            )
+            // The producer only reuses this slot once it is SLOTS records further on
+            if (published.get() < sequence + SLOTS) return reading
+        }
+    }
+
+    private fun put(index: Int, value: Double) = slots.lazySet(index, value.toRawBits())
+
+    private fun field(index: Int): Double = Double.fromBits(slots.get(index))
+}
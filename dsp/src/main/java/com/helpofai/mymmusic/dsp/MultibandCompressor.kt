@@ -0,0 +1,260 @@
+package com.helpofai.mymmusic.dsp
+
+import java.util.concurrent.atomic.AtomicReference
+import kotlin.math.abs
+import kotlin.math.exp
+
+/** One band of the [MultibandCompressor]. Levels are dBFS, times milliseconds. */
+data class CompressorBand(
+    val thresholdDb: Double = -20.0,
+    /** Compression above [thresholdDb]; 1.0 leaves the band alone. */
+    val ratio: Double = 2.0,
+    /** Width of the soft knee centred on [thresholdDb]. */
+    val kneeDb: Double = 6.0,
+    /** Below this level the band is expanded downwards by [expanderRatio] (1.0 = off). */
+    val expanderThresholdDb: Double = -70.0,
+    val expanderRatio: Double = 1.0,
+    val attackMs: Double = 10.0,
+    val releaseMs: Double = 120.0,
+    val makeupDb: Double = 0.0
+) {
+    init {
+        require(ratio >= 1.0 && expanderRatio >= 1.0) { "Ratios must be >= 1, got $ratio and $expanderRatio" }
+    }
+}
+
+/** Multiband settings: 2 or 3 ascending crossover points and one band more than that. */
+data class MultibandSettings(
+    val enabled: Boolean = false,
+    val crossovers: List<Double> = listOf(200.0, 2500.0),
+    val bands: List<CompressorBand> = List(3) { CompressorBand() }
+) {
+    init {
+        require(crossovers.size in 2..3) { "Need 2 or 3 crossover points, got ${crossovers.size}" }
+        require(bands.size == crossovers.size + 1) { "Need ${crossovers.size + 1} bands, got ${bands.size}" }
+        require(crossovers.zipWithNext().all { (a, b) -> a < b }) { "Crossover points must ascend: $crossovers" }
+    }
+
+    companion object {
+        /**
+         * Commute mode: every band is held in a narrow window and lifted, so quiet passages
+         * stay above traffic and engine noise. The top band expands below -65 dBFS to keep
+         * the lifted noise floor of old recordings down.
+         */
+        val COMMUTE = MultibandSettings(
+            enabled = true,
+            crossovers = listOf(120.0, 1000.0, 6000.0),
+            bands = listOf(
+                CompressorBand(thresholdDb = -28.0, ratio = 3.0, attackMs = 20.0, releaseMs = 200.0, makeupDb = 6.0),
+                CompressorBand(thresholdDb = -30.0, ratio = 4.0, attackMs = 10.0, releaseMs = 150.0, makeupDb = 9.0),
+                CompressorBand(thresholdDb = -32.0, ratio = 4.0, attackMs = 5.0, releaseMs = 100.0, makeupDb = 10.0),
+                CompressorBand(
+                    thresholdDb = -34.0, ratio = 3.0, attackMs = 2.0, releaseMs = 80.0, makeupDb = 8.0,
+                    expanderThresholdDb = -65.0, expanderRatio = 2.0
+                )
+            )
+        )
+    }
+}
+
+/**
+ * Stereo 3- or 4-band compressor/expander.
+ *
+ * Bands are split by a tree of Linkwitz-Riley 4th-order crossovers (two cascaded
+ * Butterworth sections, as in the chain's bass/air split). Lower bands go through the
+ * all-pass of every crossover above them, so the bands sum back flat in magnitude and
+ * phase-coherent. Each band has a stereo-linked peak detector feeding a soft-knee gain
+ * computer in the dB domain; the gain reduction is smoothed with separate attack and
+ * release times before makeup gain is added. Levels and gains go through [FastMath.log2]
+ * and [FastMath.exp2].
+ *
+ * Like [ParametricEq], settings are designed on the calling thread and published as one
+ * snapshot. Enabling and disabling cross-fade with the dry signal. [process] never
+ * allocates.
+ */
+class MultibandCompressor(maxFrames: Int) {
+
+    companion object {
+        private const val MAX_CROSSOVERS = 3
+        private const val CROSSOVER_Q = 0.7071
+        private const val DB_PER_LOG2 = 6.020599913279624
+        private const val FADE_SECONDS = 0.02
+        // Deepest cut the expander makes, so silence isn't pushed towards -inf
+        private const val EXPANDER_RANGE_DB = 40.0
+    }
+
+    // Settings resolved for one sample rate
+    private class Design(val settings: MultibandSettings, val sampleRate: Int) {
+        val crossoverCount = settings.crossovers.size
+        val bandCount = crossoverCount + 1
+        val lowpass = Array(crossoverCount) {
+            BiquadCache.get(FilterType.LOW_PASS, sampleRate, settings.crossovers[it], CROSSOVER_Q, 0.0)
+        }
+        val highpass = Array(crossoverCount) {
+            BiquadCache.get(FilterType.HIGH_PASS, sampleRate, settings.crossovers[it], CROSSOVER_Q, 0.0)
+        }
+        // The LR4 low + high sum is exactly this second-order all-pass
+        val allpass = Array(crossoverCount) {
+            BiquadCache.get(FilterType.ALL_PASS, sampleRate, settings.crossovers[it], CROSSOVER_Q, 0.0)
+        }
+        val attack = DoubleArray(bandCount) { timeCoefficient(settings.bands[it].attackMs) }
+        val release = DoubleArray(bandCount) { timeCoefficient(settings.bands[it].releaseMs) }
+
+        private fun timeCoefficient(ms: Double): Double = exp(-1000.0 / (maxOf(ms, 0.01) * sampleRate))
+    }
+
+    private val design = AtomicReference(Design(MultibandSettings(), 48000))
+    @Volatile private var sampleRate = 48000
+
+    // Filter state; the first index is the crossover, the second the cascaded section
+    private val lowL = Array(MAX_CROSSOVERS) { Array(2) { Biquad() } }
+    private val lowR = Array(MAX_CROSSOVERS) { Array(2) { Biquad() } }
+    private val highL = Array(MAX_CROSSOVERS) { Array(2) { Biquad() } }
+    private val highR = Array(MAX_CROSSOVERS) { Array(2) { Biquad() } }
+    // Phase compensation: band b runs through the all-pass of every crossover k > b
+    private val allpassL = Array(MAX_CROSSOVERS) { Array(MAX_CROSSOVERS) { Biquad() } }
+    private val allpassR = Array(MAX_CROSSOVERS) { Array(MAX_CROSSOVERS) { Biquad() } }
+    // Smoothed gain reduction per band, in dB (<= 0 compresses)
+    private val envelope = DoubleArray(MAX_CROSSOVERS + 1)
+
+    private val bandL = Array(MAX_CROSSOVERS + 1) { DoubleArray(maxFrames) }
+    private val bandR = Array(MAX_CROSSOVERS + 1) { DoubleArray(maxFrames) }
+
+    // Design whose coefficients are loaded into the filters
+    private var applied: Design? = null
+    // Wet share, ramped whenever the stage is switched on or off
+    private var mix = 0.0
+
+    val settings: MultibandSettings get() = design.get().settings
+
+    /** True while the stage is enabled or still fading out. Audio thread. */
+    val isActive: Boolean get() = mix > 0.0 || design.get().settings.enabled
+
+    fun setSettings(settings: MultibandSettings) = design.set(Design(settings, sampleRate))
+
+    /** Re-designs the current settings for a new rate; called from the chain's configure. */
+    fun configure(sampleRate: Int) {
+        if (sampleRate == this.sampleRate) return
+        this.sampleRate = sampleRate
+        while (true) {
+            val current = design.get()
+            if (design.compareAndSet(current, Design(current.settings, sampleRate))) return
+        }
+    }
+
+    fun reset() {
+        for (k in 0 until MAX_CROSSOVERS) {
+            for (s in 0 until 2) {
+                lowL[k][s].reset(); lowR[k][s].reset()
+                highL[k][s].reset(); highR[k][s].reset()
+            }
+            for (j in 0 until MAX_CROSSOVERS) {
+                allpassL[k][j].reset(); allpassR[k][j].reset()
+            }
+        }
+        envelope.fill(0.0)
+    }
+
+    fun process(left: DoubleArray, right: DoubleArray, frames: Int) {
+        val d = design.get()
+        val targetMix = if (d.settings.enabled) 1.0 else 0.0
+        if (mix == 0.0 && targetMix == 0.0) return
+        if (d !== applied) {
+            // A different band layout leaves nothing worth keeping in the old state
+            if (applied?.crossoverCount != d.crossoverCount) reset()
+            loadCoefficients(d)
+        }
+
+        split(d, left, right, frames)
+        for (b in 0 until d.bandCount) compress(d, b, frames)
+
+        // Sum the bands and blend with the dry input
+        val step = 1.0 / (FADE_SECONDS * d.sampleRate)
+        var m = mix
+        for (i in 0 until frames) {
+            var wetL = 0.0
+            var wetR = 0.0
+            for (b in 0 until d.bandCount) {
+                wetL += bandL[b][i]
+                wetR += bandR[b][i]
+            }
+            if (m != targetMix) m = if (targetMix > m) minOf(m + step, targetMix) else maxOf(m - step, targetMix)
+            left[i] += (wetL - left[i]) * m
+            right[i] += (wetR - right[i]) * m
+        }
+        mix = m
+        // Faded out completely: start clean when switched on again
+        if (mix == 0.0) reset()
+    }
+
+    private fun loadCoefficients(d: Design) {
+        for (k in 0 until d.crossoverCount) {
+            for (s in 0 until 2) {
+                lowL[k][s].set(d.lowpass[k]); lowR[k][s].set(d.lowpass[k])
+                highL[k][s].set(d.highpass[k]); highR[k][s].set(d.highpass[k])
+            }
+            for (b in 0 until k) {
+                allpassL[b][k].set(d.allpass[k]); allpassR[b][k].set(d.allpass[k])
+            }
+        }
+        applied = d
+    }
+
+    // Band b is the low output of crossover b; the remainder moves up into band b + 1
+    private fun split(d: Design, left: DoubleArray, right: DoubleArray, frames: Int) {
+        left.copyInto(bandL[0], 0, 0, frames)
+        right.copyInto(bandR[0], 0, 0, frames)
+        for (k in 0 until d.crossoverCount) {
+            val lowBandL = bandL[k]; val lowBandR = bandR[k]
+            val highBandL = bandL[k + 1]; val highBandR = bandR[k + 1]
+            lowBandL.copyInto(highBandL, 0, 0, frames)
+            lowBandR.copyInto(highBandR, 0, 0, frames)
+            lowL[k][0].process(lowBandL, frames); lowL[k][1].process(lowBandL, frames)
+            lowR[k][0].process(lowBandR, frames); lowR[k][1].process(lowBandR, frames)
+            highL[k][0].process(highBandL, frames); highL[k][1].process(highBandL, frames)
+            highR[k][0].process(highBandR, frames); highR[k][1].process(highBandR, frames)
+            // Every band already below this crossover gets its phase response
+            for (b in 0 until k) {
+                allpassL[b][k].process(bandL[b], frames)
+                allpassR[b][k].process(bandR[b], frames)
+            }
+        }
+    }
+
+    private fun compress(d: Design, b: Int, frames: Int) {
+        val band = d.settings.bands[b]
+        val l = bandL[b]; val r = bandR[b]
+        val threshold = band.thresholdDb
+        val slope = 1.0 / band.ratio - 1.0
+        val knee = maxOf(band.kneeDb, 0.0)
+        val halfKnee = knee * 0.5
+        val expThreshold = band.expanderThresholdDb
+        val expSlope = band.expanderRatio - 1.0
+        val attack = d.attack[b]; val release = d.release[b]
+        val makeup = band.makeupDb
+        var env = envelope[b]
+        for (i in 0 until frames) {
+            // Stereo-linked peak level in dB
+            val level = FastMath.log2(maxOf(abs(l[i]), abs(r[i]))) * DB_PER_LOG2
+
+            // Soft-knee gain computer: 0 below the knee, (level - T) * (1/R - 1) above it
+            val over = level - threshold
+            var target = when {
+                over <= -halfKnee -> 0.0
+                over >= halfKnee -> over * slope
+                else -> slope * (over + halfKnee) * (over + halfKnee) / (2.0 * knee)
+            }
+            if (level < expThreshold) target += maxOf((level - expThreshold) * expSlope, -EXPANDER_RANGE_DB)
+
+            // Attack when the reduction deepens, release when it recovers
+            val coef = if (target < env) attack else release
+            env = target + (env - target) * coef
+
+            val gain = FastMath.exp2((env + makeup) / DB_PER_LOG2)
+            l[i] *= gain
+            r[i] *= gain
+        }
+        // Recovering towards 0 dB in silence, the envelope decays like any one-pole
+        envelope[b] = Denormals.flush(env)
+    }
+}
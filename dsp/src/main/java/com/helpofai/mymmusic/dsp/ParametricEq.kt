@@ -0,0 +1,194 @@
+package com.helpofai.mymmusic.dsp
+
+import java.util.concurrent.atomic.AtomicReference
+
+/** One EQ band. [q] is the bandwidth for peaking/pass filters and the slope for shelves. */
+data class EqBandSpec(
+    val frequency: Double,
+    val gainDb: Double = 0.0,
+    val q: Double = 1.41,
+    val type: FilterType = FilterType.PEAKING
+)
+
+/**
+ * Stereo parametric EQ of up to [MAX_BANDS] cascaded biquads.
+ *
+ * [setBands] and [setEnabled] design the coefficients on the calling thread and publish
+ * them as one immutable snapshot; [process] only picks up the latest snapshot and runs
+ * the cascade, updating both channels of a band in the same loop.
+ */
+class ParametricEq {
+
+    companion object {
+        const val MAX_BANDS = 31
+
+        /** ISO octave centres of a classic 10-band graphic EQ. */
+        val OCTAVE_CENTERS = doubleArrayOf(31.0, 62.0, 125.0, 250.0, 500.0, 1000.0, 2000.0, 4000.0, 8000.0, 16000.0)
+
+        /** ISO third-octave centres of a 31-band graphic EQ. */
+        val THIRD_OCTAVE_CENTERS = doubleArrayOf(
+            20.0, 25.0, 31.5, 40.0, 50.0, 63.0, 80.0, 100.0, 125.0, 160.0, 200.0, 250.0, 315.0, 400.0,
+            500.0, 630.0, 800.0, 1000.0, 1250.0, 1600.0, 2000.0, 2500.0, 3150.0, 4000.0, 5000.0,
+            6300.0, 8000.0, 10000.0, 12500.0, 16000.0, 20000.0
+        )
+    }
+
+    // Coefficients for every band at one sample rate, packed 5 per band (b0 b1 b2 a1 a2),
+    // and the same bands in state-variable form for the single-precision kernel
+    private class Design(
+        val bands: List<EqBandSpec>,
+        val enabled: Boolean,
+        val coefficients: DoubleArray,
+        val svf: FloatArray,
+        val active: BooleanArray
+    ) {
+        val isFlat: Boolean = !enabled || active.none { it }
+    }
+
+    private val design = AtomicReference(design(emptyList(), true, 48000))
+    @Volatile private var sampleRate = 48000
+
+    // Per-band filter state, indexed like the band list
+    private val z1L = DoubleArray(MAX_BANDS); private val z2L = DoubleArray(MAX_BANDS)
+    private val z1R = DoubleArray(MAX_BANDS); private val z2R = DoubleArray(MAX_BANDS)
+    private val ic1L = FloatArray(MAX_BANDS); private val ic2L = FloatArray(MAX_BANDS)
+    private val ic1R = FloatArray(MAX_BANDS); private val ic2R = FloatArray(MAX_BANDS)
+    private var lastBandCount = 0
+
+    /** True when [process] would leave the signal untouched. */
+    val isFlat: Boolean get() = design.get().isFlat
+
+    val bands: List<EqBandSpec> get() = design.get().bands
+
+    fun setBands(bands: List<EqBandSpec>) {
+        require(bands.size <= MAX_BANDS) { "At most $MAX_BANDS bands, got ${bands.size}" }
+        publish { design(bands, it.enabled, sampleRate) }
+        // Have the same bands ready should the next track run at another rate
+        BiquadCache.prewarmAsync(bands)
+    }
+
+    fun setEnabled(enabled: Boolean) = publish { design(it.bands, enabled, sampleRate) }
+
+    /**
+     * Re-designs the current bands for a new rate; called from the chain's configure. The
+     * filter state carries on, and the same rate leaves everything as it is.
+     */
+    fun configure(sampleRate: Int) {
+        if (sampleRate == this.sampleRate) return
+        this.sampleRate = sampleRate
+        publish { design(it.bands, it.enabled, sampleRate) }
+    }
+
+    fun reset() {
+        z1L.fill(0.0); z2L.fill(0.0)
+        z1R.fill(0.0); z2R.fill(0.0)
+        ic1L.fill(0f); ic2L.fill(0f)
+        ic1R.fill(0f); ic2R.fill(0f)
+    }
+
+    fun process(left: DoubleArray, right: DoubleArray, frames: Int) {
+        val d = design.get()
+        if (d.isFlat) return
+        prepare(d)
+
+        val c = d.coefficients
+        for (k in d.bands.indices) {
+            if (!d.active[k]) continue
+            val b0 = c[5 * k]; val b1 = c[5 * k + 1]; val b2 = c[5 * k + 2]
+            val a1 = c[5 * k + 3]; val a2 = c[5 * k + 4]
+            var zl1 = z1L[k]; var zl2 = z2L[k]
+            var zr1 = z1R[k]; var zr2 = z2R[k]
+            for (i in 0 until frames) {
+                val l = left[i]
+                val outL = l * b0 + zl1
+                zl1 = l * b1 + zl2 - outL * a1
+                zl2 = l * b2 - outL * a2
+                left[i] = outL
+
+                val r = right[i]
+                val outR = r * b0 + zr1
+                zr1 = r * b1 + zr2 - outR * a1
+                zr2 = r * b2 - outR * a2
+                right[i] = outR
+            }
+            z1L[k] = Denormals.flush(zl1); z2L[k] = Denormals.flush(zl2)
+            z1R[k] = Denormals.flush(zr1); z2R[k] = Denormals.flush(zr2)
+        }
+    }
+
+    /**
+     * Single-precision cascade for [ProcessingPrecision.FLOAT32]. Runs the bands in
+     * state-variable form, which keeps its noise floor in float; its state is separate from
+     * the [DoubleArray] overload's, so use one or the other for a stream.
+     */
+    fun process(left: FloatArray, right: FloatArray, frames: Int) {
+        val d = design.get()
+        if (d.isFlat) return
+        prepare(d)
+
+        val c = d.svf
+        for (k in d.bands.indices) {
+            if (!d.active[k]) continue
+            val base = BiquadCoefficients.SVF_COEFFICIENTS * k
+            val g1 = c[base]; val g2 = c[base + 1]; val g3 = c[base + 2]
+            val m0 = c[base + 3]; val m1 = c[base + 4]; val m2 = c[base + 5]
+            var l1 = ic1L[k]; var l2 = ic2L[k]
+            var r1 = ic1R[k]; var r2 = ic2R[k]
+            for (i in 0 until frames) {
+                val l = left[i]
+                val l3 = l - l2
+                val lBand = g1 * l1 + g2 * l3
+                val lLow = l2 + g2 * l1 + g3 * l3
+                l1 = 2f * lBand - l1
+                l2 = 2f * lLow - l2
+                left[i] = m0 * l + m1 * lBand + m2 * lLow
+
+                val r = right[i]
+                val r3 = r - r2
+                val rBand = g1 * r1 + g2 * r3
+                val rLow = r2 + g2 * r1 + g3 * r3
+                r1 = 2f * rBand - r1
+                r2 = 2f * rLow - r2
+                right[i] = m0 * r + m1 * rBand + m2 * rLow
+            }
+            ic1L[k] = Denormals.flush(l1); ic2L[k] = Denormals.flush(l2)
+            ic1R[k] = Denormals.flush(r1); ic2R[k] = Denormals.flush(r2)
+        }
+    }
+
+    // A band list of a different shape makes the old state meaningless. Flat bands pass
+    // through; start them from rest when they come back.
+    private fun prepare(d: Design) {
+        if (d.bands.size != lastBandCount) {
+            reset()
+            lastBandCount = d.bands.size
+        }
+        for (k in d.bands.indices) {
+            if (!d.active[k]) {
+                z1L[k] = 0.0; z2L[k] = 0.0; z1R[k] = 0.0; z2R[k] = 0.0
+                ic1L[k] = 0f; ic2L[k] = 0f; ic1R[k] = 0f; ic2R[k] = 0f
+            }
+        }
+    }
+
+    private inline fun publish(next: (Design) -> Design) {
+        while (true) {
+            val current = design.get()
+            if (design.compareAndSet(current, next(current))) return
+        }
+    }
+
+    private fun design(bands: List<EqBandSpec>, enabled: Boolean, sampleRate: Int): Design {
+        val coefficients = DoubleArray(5 * bands.size)
+        val svf = FloatArray(BiquadCoefficients.SVF_COEFFICIENTS * bands.size)
+        val active = BooleanArray(bands.size)
+        bands.forEachIndexed { k, band ->
+            val c = BiquadCache.get(band.type, sampleRate, band.frequency, band.q, band.gainDb)
+            coefficients[5 * k] = c.b0; coefficients[5 * k + 1] = c.b1; coefficients[5 * k + 2] = c.b2
+            coefficients[5 * k + 3] = c.a1; coefficients[5 * k + 4] = c.a2
+            c.toSvf(svf, BiquadCoefficients.SVF_COEFFICIENTS * k)
+            active[k] = !c.isIdentity
+        }
+        return Design(bands.toList(), enabled, coefficients, svf, active)
+    }
+}
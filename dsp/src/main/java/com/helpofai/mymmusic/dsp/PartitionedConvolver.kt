@@ -0,0 +1,179 @@
+package com.helpofai.mymmusic.dsp
+
+import kotlin.math.min
+
+/**
+ * Stereo convolution with an [ImpulseResponse] by uniformly partitioned overlap-save.
+ *
+ * The IR is cut into partitions of [partitionSize] taps whose spectra are computed once up
+ * front. Each full partition of input is transformed once and pushed into a frequency-domain
+ * delay line. The output spectrum is the sum over partitions of delayed input spectrum
+ * times IR spectrum, followed by one inverse FFT per output channel. Cost per sample
+ * therefore grows only with the number of partitions' complex multiplies, and latency is
+ * exactly one partition ([latencyFrames]).
+ *
+ * [mix] blends the wet signal with the dry input, which is delayed to stay aligned.
+ * Everything is allocated in the constructor; [process] never allocates. Build on a
+ * background thread and hand over to the audio thread.
+ */
+class PartitionedConvolver(
+    ir: ImpulseResponse,
+    val partitionSize: Int = DEFAULT_PARTITION,
+    private val mix: Double = 1.0
+) {
+
+    companion object {
+        const val DEFAULT_PARTITION = 256
+    }
+
+    init {
+        require(partitionSize >= 16 && Integer.bitCount(partitionSize) == 1) {
+            "Partition size must be a power of two >= 16, got $partitionSize"
+        }
+    }
+
+    val sampleRate = ir.sampleRate
+
+    /** Delay of both the wet and the dry path, in frames. */
+    val latencyFrames: Int get() = partitionSize
+
+    private val b = partitionSize
+    private val bins = partitionSize + 1
+    private val fft = RealFft(2 * partitionSize)
+    private val partitions = (ir.length + b - 1) / b
+    private val trueStereo = ir.channels.size == 4
+
+    // IR spectra per path, partitions back to back (bins each): L->L, R->R, then L->R, R->L
+    private val pathRe: Array<DoubleArray>
+    private val pathIm: Array<DoubleArray>
+
+    // Frequency-domain delay lines of the input spectra; slot fdlPos is the newest
+    private val fdlReL = DoubleArray(partitions * bins); private val fdlImL = DoubleArray(partitions * bins)
+    private val fdlReR = DoubleArray(partitions * bins); private val fdlImR = DoubleArray(partitions * bins)
+    private var fdlPos = 0
+
+    // Overlap-save input windows: previous partition, then the one being filled
+    private val windowL = DoubleArray(2 * b)
+    private val windowR = DoubleArray(2 * b)
+    private var pos = 0
+
+    // Wet output of the last partition, played out while the next one fills
+    private val wetL = DoubleArray(b)
+    private val wetR = DoubleArray(b)
+
+    // Transform scratch
+    private val specRe = DoubleArray(bins)
+    private val specIm = DoubleArray(bins)
+    private val accRe = DoubleArray(bins)
+    private val accIm = DoubleArray(bins)
+    private val time = DoubleArray(2 * b)
+
+    init {
+        val mono = ir.channels.size == 1
+        val sources = when (ir.channels.size) {
+            1 -> listOf(ir.channels[0])
+            2 -> listOf(ir.channels[0], ir.channels[1])
+            // WAV order L->L, L->R, R->L, R->R; stored as L->L, R->R, L->R, R->L
+            else -> listOf(ir.channels[0], ir.channels[3], ir.channels[1], ir.channels[2])
+        }
+        val spectraRe = ArrayList<DoubleArray>()
+        val spectraIm = ArrayList<DoubleArray>()
+        for (taps in sources) {
+            val re = DoubleArray(partitions * bins)
+            val im = DoubleArray(partitions * bins)
+            for (p in 0 until partitions) {
+                // Partition zero-padded to the FFT size
+                time.fill(0.0)
+                val start = p * b
+                taps.copyInto(time, 0, start, min(start + b, taps.size))
+                fft.forward(time, specRe, specIm)
+                specRe.copyInto(re, p * bins)
+                specIm.copyInto(im, p * bins)
+            }
+            spectraRe += re
+            spectraIm += im
+        }
+        if (mono) {
+            spectraRe += spectraRe[0]
+            spectraIm += spectraIm[0]
+        }
+        pathRe = spectraRe.toTypedArray()
+        pathIm = spectraIm.toTypedArray()
+    }
+
+    /** Clears all signal history; the IR spectra are kept. */
+    fun reset() {
+        fdlReL.fill(0.0); fdlImL.fill(0.0)
+        fdlReR.fill(0.0); fdlImR.fill(0.0)
+        fdlPos = 0
+        windowL.fill(0.0); windowR.fill(0.0)
+        wetL.fill(0.0); wetR.fill(0.0)
+        pos = 0
+    }
+
+    /** Convolves [frames] samples of [left]/[right] in place, delayed by [latencyFrames]. */
+    fun process(left: DoubleArray, right: DoubleArray, frames: Int) {
+        val dry = 1.0 - mix
+        var i = 0
+        while (i < frames) {
+            val n = min(frames - i, b - pos)
+            for (j in 0 until n) {
+                val k = pos + j
+                val l = left[i + j]; val r = right[i + j]
+                // First half of the window is the previous partition: the dry signal delayed by b
+                left[i + j] = windowL[k] * dry + wetL[k] * mix
+                right[i + j] = windowR[k] * dry + wetR[k] * mix
+                windowL[b + k] = l
+                windowR[b + k] = r
+            }
+            pos += n
+            i += n
+            if (pos == b) {
+                runPartition()
+                pos = 0
+            }
+        }
+    }
+
+    private fun runPartition() {
+        fdlPos = if (fdlPos == 0) partitions - 1 else fdlPos - 1
+        fft.forward(windowL, specRe, specIm)
+        specRe.copyInto(fdlReL, fdlPos * bins); specIm.copyInto(fdlImL, fdlPos * bins)
+        fft.forward(windowR, specRe, specIm)
+        specRe.copyInto(fdlReR, fdlPos * bins); specIm.copyInto(fdlImR, fdlPos * bins)
+
+        // Left out = L * (L->L) [+ R * (R->L)]
+        accRe.fill(0.0); accIm.fill(0.0)
+        accumulate(fdlReL, fdlImL, pathRe[0], pathIm[0])
+        if (trueStereo) accumulate(fdlReR, fdlImR, pathRe[3], pathIm[3])
+        fft.inverse(accRe, accIm, time)
+        time.copyInto(wetL, 0, b, 2 * b)
+
+        // Right out = R * (R->R) [+ L * (L->R)]
+        accRe.fill(0.0); accIm.fill(0.0)
+        accumulate(fdlReR, fdlImR, pathRe[1], pathIm[1])
+        if (trueStereo) accumulate(fdlReL, fdlImL, pathRe[2], pathIm[2])
+        fft.inverse(accRe, accIm, time)
+        time.copyInto(wetR, 0, b, 2 * b)
+
+        // Slide the overlap-save windows by one partition
+        windowL.copyInto(windowL, 0, b, 2 * b)
+        windowR.copyInto(windowR, 0, b, 2 * b)
+    }
+
+    // acc += sum over p of X(newest - p) * H(p), complex multiply-accumulate per bin
+    private fun accumulate(xRe: DoubleArray, xIm: DoubleArray, hRe: DoubleArray, hIm: DoubleArray) {
+        var slot = fdlPos
+        for (p in 0 until partitions) {
+            val x = slot * bins
+            val h = p * bins
+            for (k in 0 until bins) {
+                val ar = xRe[x + k]; val ai = xIm[x + k]
+                val br = hRe[h + k]; val bi = hIm[h + k]
+                accRe[k] += ar * br - ai * bi
+                accIm[k] += ar * bi + ai * br
+            }
+            if (++slot == partitions) slot = 0
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package com.helpofai.mymmusic.dsp
+
+/** Linear PCM sample formats understood by the DSP kernels (little-endian / native order). */
+enum class PcmEncoding(val bytesPerSample: Int) {
+    PCM_16BIT(2),
+    PCM_24BIT(3),
+    PCM_32BIT(4),
+    PCM_FLOAT(4)
+}
@@ -0,0 +1,349 @@
+package com.helpofai.mymmusic.dsp
+
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import kotlin.math.floor
+
+// --- PCM Decode/Encode Kernels ---
+// One concrete reader/writer is chosen per format in configure(), so the block loop
+// never branches on encoding or channel count. Every kernel owns preallocated scratch
+// storage sized for one block: input bytes are bulk-copied into it and decoded through
+// typed views created once, keeping the audio thread allocation-free.
+
+internal abstract class PcmReader(val bytesPerFrame: Int, maxFrames: Int) {
+    protected val bytes = ByteArray(bytesPerFrame * maxFrames)
+    protected val scratch: ByteBuffer = ByteBuffer.wrap(bytes).order(ByteOrder.nativeOrder())
+
+    /** Consumes [frames] interleaved frames from [input] into the planar [left]/[right] arrays. */
+    abstract fun read(input: ByteBuffer, left: DoubleArray, right: DoubleArray, frames: Int)
+
+    protected fun fill(input: ByteBuffer, frames: Int) {
+        input.get(bytes, 0, frames * bytesPerFrame)
+    }
+
+    companion object {
+        /**
+         * Streams of more than two channels are folded to stereo by [downmix], which defaults
+         * to [DownmixMatrix.forChannelCount]; mono and stereo ignore it.
+         */
+        fun create(
+            encoding: PcmEncoding,
+            channelCount: Int,
+            maxFrames: Int,
+            downmix: DownmixMatrix? = null
+        ): PcmReader {
+            val matrix = if (channelCount > 2) downmix ?: DownmixMatrix.forChannelCount(channelCount) else null
+            require(matrix == null || matrix.channelCount == channelCount) {
+                "Downmix is for ${matrix?.channelCount} channels, stream has $channelCount"
+            }
+            return when (encoding) {
+                PcmEncoding.PCM_16BIT -> when (channelCount) {
+                    1 -> Pcm16MonoReader(maxFrames)
+                    2 -> Pcm16StereoReader(maxFrames)
+                    else -> Pcm16MultiReader(matrix!!, maxFrames)
+                }
+                PcmEncoding.PCM_24BIT -> when (channelCount) {
+                    1 -> Pcm24MonoReader(maxFrames)
+                    2 -> Pcm24StereoReader(maxFrames)
+                    else -> Pcm24MultiReader(matrix!!, maxFrames)
+                }
+                PcmEncoding.PCM_32BIT -> when (channelCount) {
+                    1 -> Pcm32MonoReader(maxFrames)
+                    2 -> Pcm32StereoReader(maxFrames)
+                    else -> Pcm32MultiReader(matrix!!, maxFrames)
+                }
+                PcmEncoding.PCM_FLOAT -> when (channelCount) {
+                    1 -> FloatMonoReader(maxFrames)
+                    2 -> FloatStereoReader(maxFrames)
+                    else -> FloatMultiReader(matrix!!, maxFrames)
+                }
+            }
+        }
+    }
+}
+
+internal abstract class PcmWriter(val bytesPerFrame: Int, maxFrames: Int) {
+    protected val bytes = ByteArray(bytesPerFrame * maxFrames)
+    protected val scratch: ByteBuffer = ByteBuffer.wrap(bytes).order(ByteOrder.nativeOrder())
+
+    /** Interleaves [frames] planar frames into [output] as stereo PCM. */
+    abstract fun write(output: ByteBuffer, left: DoubleArray, right: DoubleArray, frames: Int)
+
+    protected fun flush(output: ByteBuffer, frames: Int) {
+        output.put(bytes, 0, frames * bytesPerFrame)
+    }
+
+    companion object {
+        fun create(encoding: PcmEncoding, maxFrames: Int): PcmWriter = when (encoding) {
+            PcmEncoding.PCM_16BIT -> Pcm16StereoWriter(maxFrames)
+            PcmEncoding.PCM_FLOAT -> FloatStereoWriter(maxFrames)
+            else -> throw IllegalArgumentException("Unsupported output encoding: $encoding")
+        }
+    }
+}
+
+// --- 16-bit ---
+
+private const val SCALE_16 = 1.0 / 32768.0
+
+private class Pcm16MonoReader(maxFrames: Int) : PcmReader(2, maxFrames) {
+    private val view = scratch.asShortBuffer()
+    private val samples = ShortArray(maxFrames)
+
+    override fun read(input: ByteBuffer, left: DoubleArray, right: DoubleArray, frames: Int) {
+        fill(input, frames)
+        view.clear(); view.get(samples, 0, frames)
+        for (i in 0 until frames) {
+            val s = samples[i] * SCALE_16
+            left[i] = s
+            right[i] = s
+        }
+    }
+}
+
+private class Pcm16StereoReader(maxFrames: Int) : PcmReader(4, maxFrames) {
+    private val view = scratch.asShortBuffer()
+    private val samples = ShortArray(maxFrames * 2)
+
+    override fun read(input: ByteBuffer, left: DoubleArray, right: DoubleArray, frames: Int) {
+        fill(input, frames)
+        view.clear(); view.get(samples, 0, frames * 2)
+        for (i in 0 until frames) {
+            left[i] = samples[2 * i] * SCALE_16
+            right[i] = samples[2 * i + 1] * SCALE_16
+        }
+    }
+}
+
+// Multichannel readers fold each frame through the downmix matrix as they decode it.
+// Integer sample scales are folded into the matrix rows up front.
+private class Pcm16MultiReader(matrix: DownmixMatrix, maxFrames: Int) : PcmReader(2 * matrix.channelCount, maxFrames) {
+    private val channels = matrix.channelCount
+    private val gainL = DoubleArray(channels) { matrix.left[it] * SCALE_16 }
+    private val gainR = DoubleArray(channels) { matrix.right[it] * SCALE_16 }
+    private val view = scratch.asShortBuffer()
+    private val samples = ShortArray(maxFrames * channels)
+
+    override fun read(input: ByteBuffer, left: DoubleArray, right: DoubleArray, frames: Int) {
+        fill(input, frames)
+        view.clear(); view.get(samples, 0, frames * channels)
+        for (i in 0 until frames) {
+            val base = channels * i
+            var l = 0.0
+            var r = 0.0
+            for (ch in 0 until channels) {
+                val s = samples[base + ch].toDouble()
+                l += gainL[ch] * s
+                r += gainR[ch] * s
+            }
+            left[i] = l
+            right[i] = r
+        }
+    }
+}
+
+// --- 24-bit (packed little-endian triplets, decoded straight from the byte array) ---
+
+private const val SCALE_24 = 1.0 / 8388608.0
+
+private fun decode24(bytes: ByteArray, offset: Int): Double {
+    val b1 = bytes[offset].toInt() and 0xFF
+    val b2 = bytes[offset + 1].toInt() and 0xFF
+    val b3 = bytes[offset + 2].toInt() // Signed
+    return ((b3 shl 16) or (b2 shl 8) or b1) * SCALE_24
+}
+
+private class Pcm24MonoReader(maxFrames: Int) : PcmReader(3, maxFrames) {
+    override fun read(input: ByteBuffer, left: DoubleArray, right: DoubleArray, frames: Int) {
+        fill(input, frames)
+        for (i in 0 until frames) {
+            val s = decode24(bytes, 3 * i)
+            left[i] = s
+            right[i] = s
+        }
+    }
+}
+
+private class Pcm24StereoReader(maxFrames: Int) : PcmReader(6, maxFrames) {
+    override fun read(input: ByteBuffer, left: DoubleArray, right: DoubleArray, frames: Int) {
+        fill(input, frames)
+        for (i in 0 until frames) {
+            val offset = 6 * i
+            left[i] = decode24(bytes, offset)
+            right[i] = decode24(bytes, offset + 3)
+        }
+    }
+}
+
+private class Pcm24MultiReader(matrix: DownmixMatrix, maxFrames: Int) : PcmReader(3 * matrix.channelCount, maxFrames) {
+    private val channels = matrix.channelCount
+    private val gainL = matrix.left.copyOf()
+    private val gainR = matrix.right.copyOf()
+
+    override fun read(input: ByteBuffer, left: DoubleArray, right: DoubleArray, frames: Int) {
+        fill(input, frames)
+        val stride = bytesPerFrame
+        for (i in 0 until frames) {
+            val offset = stride * i
+            var l = 0.0
+            var r = 0.0
+            for (ch in 0 until channels) {
+                val s = decode24(bytes, offset + 3 * ch)
+                l += gainL[ch] * s
+                r += gainR[ch] * s
+            }
+            left[i] = l
+            right[i] = r
+        }
+    }
+}
+
+// --- 32-bit integer ---
+
+private const val SCALE_32 = 1.0 / 2147483648.0
+
+private class Pcm32MonoReader(maxFrames: Int) : PcmReader(4, maxFrames) {
+    private val view = scratch.asIntBuffer()
+    private val samples = IntArray(maxFrames)
+
+    override fun read(input: ByteBuffer, left: DoubleArray, right: DoubleArray, frames: Int) {
+        fill(input, frames)
+        view.clear(); view.get(samples, 0, frames)
+        for (i in 0 until frames) {
+            val s = samples[i] * SCALE_32
+            left[i] = s
+            right[i] = s
+        }
+    }
+}
+
+private class Pcm32StereoReader(maxFrames: Int) : PcmReader(8, maxFrames) {
+    private val view = scratch.asIntBuffer()
+    private val samples = IntArray(maxFrames * 2)
+
+    override fun read(input: ByteBuffer, left: DoubleArray, right: DoubleArray, frames: Int) {
+        fill(input, frames)
+        view.clear(); view.get(samples, 0, frames * 2)
+        for (i in 0 until frames) {
+            left[i] = samples[2 * i] * SCALE_32
+            right[i] = samples[2 * i + 1] * SCALE_32
+        }
+    }
+}
+
+private class Pcm32MultiReader(matrix: DownmixMatrix, maxFrames: Int) : PcmReader(4 * matrix.channelCount, maxFrames) {
+    private val channels = matrix.channelCount
+    private val gainL = DoubleArray(channels) { matrix.left[it] * SCALE_32 }
+    private val gainR = DoubleArray(channels) { matrix.right[it] * SCALE_32 }
+    private val view = scratch.asIntBuffer()
+    private val samples = IntArray(maxFrames * channels)
+
+    override fun read(input: ByteBuffer, left: DoubleArray, right: DoubleArray, frames: Int) {
+        fill(input, frames)
+        view.clear(); view.get(samples, 0, frames * channels)
+        for (i in 0 until frames) {
+            val base = channels * i
+            var l = 0.0
+            var r = 0.0
+            for (ch in 0 until channels) {
+                val s = samples[base + ch].toDouble()
+                l += gainL[ch] * s
+                r += gainR[ch] * s
+            }
+            left[i] = l
+            right[i] = r
+        }
+    }
+}
+
+// --- 32-bit float ---
+
+private class FloatMonoReader(maxFrames: Int) : PcmReader(4, maxFrames) {
+    private val view = scratch.asFloatBuffer()
+    private val samples = FloatArray(maxFrames)
+
+    override fun read(input: ByteBuffer, left: DoubleArray, right: DoubleArray, frames: Int) {
+        fill(input, frames)
+        view.clear(); view.get(samples, 0, frames)
+        for (i in 0 until frames) {
+            val s = samples[i].toDouble()
+            left[i] = s
+            right[i] = s
+        }
+    }
+}
+
+private class FloatStereoReader(maxFrames: Int) : PcmReader(8, maxFrames) {
+    private val view = scratch.asFloatBuffer()
+    private val samples = FloatArray(maxFrames * 2)
+
+    override fun read(input: ByteBuffer, left: DoubleArray, right: DoubleArray, frames: Int) {
+        fill(input, frames)
+        view.clear(); view.get(samples, 0, frames * 2)
+        for (i in 0 until frames) {
+            left[i] = samples[2 * i].toDouble()
+            right[i] = samples[2 * i + 1].toDouble()
+        }
+    }
+}
+
+private class FloatMultiReader(matrix: DownmixMatrix, maxFrames: Int) : PcmReader(4 * matrix.channelCount, maxFrames) {
+    private val channels = matrix.channelCount
+    private val gainL = matrix.left.copyOf()
+    private val gainR = matrix.right.copyOf()
+    private val view = scratch.asFloatBuffer()
+    private val samples = FloatArray(maxFrames * channels)
+
+    override fun read(input: ByteBuffer, left: DoubleArray, right: DoubleArray, frames: Int) {
+        fill(input, frames)
+        view.clear(); view.get(samples, 0, frames * channels)
+        for (i in 0 until frames) {
+            val base = channels * i
+            var l = 0.0
+            var r = 0.0
+            for (ch in 0 until channels) {
+                val s = samples[base + ch].toDouble()
+                l += gainL[ch] * s
+                r += gainR[ch] * s
+            }
+            left[i] = l
+            right[i] = r
+        }
+    }
+}
+
+// --- Writers (output is always stereo) ---
+
+// Same 1/32768 scale as the reader, rounded and clamped, so undithered 16-bit round-trips exactly
+private fun encode16(x: Double): Short {
+    val v = floor(x * 32768.0 + 0.5)
+    return (if (v > 32767.0) 32767.0 else if (v < -32768.0) -32768.0 else v).toInt().toShort()
+}
+
+private class Pcm16StereoWriter(maxFrames: Int) : PcmWriter(4, maxFrames) {
+    private val view = scratch.asShortBuffer()
+    private val samples = ShortArray(maxFrames * 2)
+
+    override fun write(output: ByteBuffer, left: DoubleArray, right: DoubleArray, frames: Int) {
+        for (i in 0 until frames) {
+            samples[2 * i] = encode16(left[i])
+            samples[2 * i + 1] = encode16(right[i])
+        }
+        view.clear(); view.put(samples, 0, frames * 2)
+        flush(output, frames)
+    }
+}
+
+private class FloatStereoWriter(maxFrames: Int) : PcmWriter(8, maxFrames) {
+    private val view = scratch.asFloatBuffer()
+    private val samples = FloatArray(maxFrames * 2)
+
+    override fun write(output: ByteBuffer, left: DoubleArray, right: DoubleArray, frames: Int) {
+        for (i in 0 until frames) {
+            samples[2 * i] = left[i].toFloat()
+            samples[2 * i + 1] = right[i].toFloat()
+        }
+        view.clear(); view.put(samples, 0, frames * 2)
+        flush(output, frames)
+    }
+}
@@ -0,0 +1,163 @@
+package com.helpofai.mymmusic.dsp
+
+import kotlin.math.PI
+import kotlin.math.abs
+import kotlin.math.ceil
+import kotlin.math.sin
+import kotlin.math.sqrt
+
+/**
+ * Resampler quality: FIR taps per phase (at the lower of the two rates), Kaiser stopband
+ * attenuation and the filter cutoff as a fraction of the lower Nyquist frequency.
+ */
+enum class ResamplerQuality(val taps: Int, val stopbandDb: Double, val cutoff: Double) {
+    LOW(16, 60.0, 0.80),
+    MEDIUM(32, 80.0, 0.86),
+    HIGH(64, 100.0, 0.92),
+    BEST(128, 120.0, 0.95)
+}
+
+/**
+ * Stereo sample-rate converter by rational ratio, using a polyphase windowed-sinc filter.
+ *
+ * The ratio outputRate / inputRate is reduced to L/M (44.1 kHz -> 48 kHz is 160/147). The
+ * prototype low-pass is a Kaiser-windowed sinc at L times the input rate, cut off below the
+ * lower of the two Nyquist frequencies, and is split into L phases of [taps] coefficients
+ * each. Every output sample is one dot product of a phase with the input history, so there
+ * is no interpolation between phases and no error beyond the filter design itself.
+ *
+ * The coefficient bank is built in the constructor; [process] never allocates. Build on a
+ * background thread and hand over to the audio thread. Adds [latencyFrames] of delay.
+ */
+class PolyphaseResampler(
+    val inputRate: Int,
+    val outputRate: Int,
+    val quality: ResamplerQuality = ResamplerQuality.HIGH
+) {
+
+    companion object {
+        /** Upper bound on L; covers every pair of the standard 8 kHz .. 384 kHz rates. */
+        const val MAX_PHASES = 1024
+
+        /** True if [inputRate] -> [outputRate] reduces to a ratio with at most [MAX_PHASES] phases. */
+        fun isSupported(inputRate: Int, outputRate: Int): Boolean =
+            inputRate > 0 && outputRate > 0 && outputRate / gcd(inputRate, outputRate) <= MAX_PHASES
+
+        private tailrec fun gcd(a: Int, b: Int): Int = if (b == 0) a else gcd(b, a % b)
+
+        // Zeroth-order modified Bessel function of the first kind, by its power series
+        private fun besselI0(x: Double): Double {
+            var sum = 1.0
+            var term = 1.0
+            val q = x * x / 4.0
+            var k = 1
+            while (term > sum * 1e-17) {
+                term *= q / (k.toDouble() * k)
+                sum += term
+                k++
+            }
+            return sum
+        }
+    }
+
+    init {
+        require(isSupported(inputRate, outputRate)) {
+            "Unsupported resampling ratio $inputRate -> $outputRate"
+        }
+    }
+
+    private val up = outputRate / gcd(inputRate, outputRate)
+    private val down = inputRate / gcd(inputRate, outputRate)
+
+    /** Coefficients per phase; grows with the decimation factor when downsampling. */
+    val taps: Int = ceil(quality.taps * maxOf(1.0, down.toDouble() / up)).toInt()
+
+    /** Group delay in output frames. */
+    val latencyFrames: Int get() = ((taps * up) / 2 + down - 1) / down
+
+    // Phase p, tap j at bank[p * taps + j]; reversed so j = 0 multiplies the oldest sample
+    private val bank = DoubleArray(up * taps)
+
+    // Input history, written twice so the newest `taps` samples are always contiguous
+    private val historyL = DoubleArray(2 * taps)
+    private val historyR = DoubleArray(2 * taps)
+    private var writePos = 0
+    // Position of the next output between the last two inputs, in units of 1/L input sample
+    private var phase = 0
+
+    init {
+        val length = taps * up
+        val center = (length - 1) / 2.0
+        // Cutoff in cycles per sample at the upsampled rate L * inputRate
+        val fc = quality.cutoff * 0.5 / maxOf(up, down)
+        // Kaiser's beta for the stopband attenuation (every quality is above 50 dB)
+        val beta = 0.1102 * (quality.stopbandDb - 8.7)
+        val i0Beta = besselI0(beta)
+
+        val prototype = DoubleArray(length) { n ->
+            val t = n - center
+            val sinc = if (abs(t) < 1e-9) 2.0 * fc else sin(2.0 * PI * fc * t) / (PI * t)
+            val r = t / (length / 2.0)
+            val window = besselI0(beta * sqrt(maxOf(0.0, 1.0 - r * r))) / i0Beta
+            sinc * window
+        }
+
+        for (p in 0 until up) {
+            // Each phase is normalised to unity DC gain, so no phase adds a fixed pattern
+            var sum = 0.0
+            for (k in 0 until taps) sum += prototype[p + k * up]
+            for (k in 0 until taps) bank[p * taps + (taps - 1 - k)] = prototype[p + k * up] / sum
+        }
+    }
+
+    /** Most output frames [process] can produce from [inputFrames] input frames. */
+    fun maxOutputFrames(inputFrames: Int): Int =
+        ((inputFrames.toLong() * up + down - 1) / down + 1).toInt()
+
+    /** Most input frames that are guaranteed to yield no more than [outputFrames] output frames. */
+    fun maxInputFrames(outputFrames: Int): Int =
+        maxOf(1, ((outputFrames - 1).toLong() * down / up).toInt())
+
+    /** Clears the history; the coefficient bank is kept. */
+    fun reset() {
+        historyL.fill(0.0)
+        historyR.fill(0.0)
+        writePos = 0
+        phase = 0
+    }
+
+    /**
+     * Converts [frames] input frames from [inL]/[inR] into [outL]/[outR], which need room for
+     * [maxOutputFrames]. Returns the number of output frames written.
+     */
+    fun process(inL: DoubleArray, inR: DoubleArray, frames: Int, outL: DoubleArray, outR: DoubleArray): Int {
+        var out = 0
+        var p = phase
+        var w = writePos
+        for (i in 0 until frames) {
+            historyL[w] = inL[i]; historyL[w + taps] = inL[i]
+            historyR[w] = inR[i]; historyR[w + taps] = inR[i]
+            if (++w == taps) w = 0
+
+            // Emit every output that falls between this input and the next
+            while (p < up) {
+                val base = p * taps
+                var accL = 0.0
+                var accR = 0.0
+                for (j in 0 until taps) {
+                    val c = bank[base + j]
+                    accL += c * historyL[w + j]
+                    accR += c * historyR[w + j]
+                }
+                outL[out] = accL
+                outR[out] = accR
+                out++
+                p += down
+            }
+            p -= up
+        }
+        phase = p
+        writePos = w
+        return out
+    }
+}
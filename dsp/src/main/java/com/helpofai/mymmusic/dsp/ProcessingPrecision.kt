@@ -0,0 +1,12 @@
+package com.helpofai.mymmusic.dsp
+
+/**
+ * Arithmetic precision of the chain's recursive filter kernels, chosen at configure time.
+ *
+ * [FLOAT32] runs the EQ cascade and the bass/air split in single precision, converting the
+ * block once on the way in and once on the way out. The float kernels realize the same
+ * designs as trapezoidal state-variable filters (see [BiquadCoefficients.toSvf]), since
+ * a float direct form is unusable for low-frequency bands. Everything else stays double.
+ * `PrecisionReport` in the render package measures the cost in THD+N and null depth.
+ */
+enum class ProcessingPrecision { FLOAT32, FLOAT64 }
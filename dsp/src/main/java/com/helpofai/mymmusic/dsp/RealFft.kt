@@ -0,0 +1,109 @@
+package com.helpofai.mymmusic.dsp
+
+import kotlin.math.PI
+import kotlin.math.cos
+import kotlin.math.sin
+
+/**
+ * Radix-2 FFT of real signals of length [size] (a power of two). Each transform is one
+ * size/2-point complex FFT plus a split step. Spectra are size/2 + 1 bins, DC through
+ * Nyquist, as separate real/imaginary arrays. Tables and scratch are allocated once, so
+ * transforms never allocate. Not thread-safe.
+ */
+internal class RealFft(val size: Int) {
+
+    init {
+        require(size >= 4 && Integer.bitCount(size) == 1) { "FFT size must be a power of two >= 4, got $size" }
+    }
+
+    private val half = size / 2
+
+    // Twiddles e^(-2 pi i k / half) of the complex FFT and W^k = e^(-2 pi i k / size) of the split
+    private val cosTable = DoubleArray(half / 2) { cos(2.0 * PI * it / half) }
+    private val sinTable = DoubleArray(half / 2) { -sin(2.0 * PI * it / half) }
+    private val splitCos = DoubleArray(half) { cos(2.0 * PI * it / size) }
+    private val splitSin = DoubleArray(half) { -sin(2.0 * PI * it / size) }
+    private val bitReverse = IntArray(half).also { table ->
+        val bits = Integer.numberOfTrailingZeros(half)
+        for (i in 0 until half) table[i] = if (bits == 0) 0 else Integer.reverse(i) ushr (32 - bits)
+    }
+
+    private val zr = DoubleArray(half)
+    private val zi = DoubleArray(half)
+
+    /** Transforms [input] (at least [size] samples) into [re]/[im] (at least size/2 + 1 bins). Unscaled. */
+    fun forward(input: DoubleArray, re: DoubleArray, im: DoubleArray) {
+        // Pack z[n] = x[2n] + i*x[2n+1] in bit-reversed order
+        for (n in 0 until half) {
+            val j = bitReverse[n]
+            zr[j] = input[2 * n]
+            zi[j] = input[2 * n + 1]
+        }
+        transform()
+
+        // X[k] = E[k] - i*W^k*D[k], E/D = (Z[k] +/- conj(Z[half-k])) / 2
+        re[0] = zr[0] + zi[0]; im[0] = 0.0
+        re[half] = zr[0] - zi[0]; im[half] = 0.0
+        for (k in 1 until half) {
+            val ar = zr[k]; val ai = zi[k]
+            val br = zr[half - k]; val bi = -zi[half - k]
+            val er = 0.5 * (ar + br); val ei = 0.5 * (ai + bi)
+            val dr = 0.5 * (ar - br); val di = 0.5 * (ai - bi)
+            val wr = splitCos[k]; val wi = splitSin[k]
+            val pr = dr * wr - di * wi
+            val pi = dr * wi + di * wr
+            re[k] = er + pi
+            im[k] = ei - pr
+        }
+    }
+
+    /** Inverse of [forward], scaled so that inverse(forward(x)) == x. Writes [size] samples. */
+    fun inverse(re: DoubleArray, im: DoubleArray, output: DoubleArray) {
+        // Undo the split: Z[k] = E[k] + D[k], with D[k] = (X[k] - conj(X[half-k])) * i/2 * W^-k.
+        // Stored conjugated and bit-reversed, so the forward complex FFT computes the inverse.
+        for (k in 0 until half) {
+            val ar = re[k]; val ai = im[k]
+            val br = re[half - k]; val bi = -im[half - k]
+            val er = 0.5 * (ar + br); val ei = 0.5 * (ai + bi)
+            val tr = 0.5 * (ar - br); val ti = 0.5 * (ai - bi)
+            // (t * i) * conj(W^k)
+            val ur = -ti; val ui = tr
+            val wr = splitCos[k]; val wi = -splitSin[k]
+            val dr = ur * wr - ui * wi
+            val di = ur * wi + ui * wr
+            val j = bitReverse[k]
+            zr[j] = er + dr
+            zi[j] = -(ei + di)
+        }
+        transform()
+        val scale = 1.0 / half
+        for (n in 0 until half) {
+            output[2 * n] = zr[n] * scale
+            output[2 * n + 1] = -zi[n] * scale
+        }
+    }
+
+    // In-place iterative radix-2 FFT of zr/zi, input already in bit-reversed order
+    private fun transform() {
+        var span = 2
+        while (span <= half) {
+            val mid = span / 2
+            val step = half / span
+            var start = 0
+            while (start < half) {
+                var t = 0
+                for (k in start until start + mid) {
+                    val wr = cosTable[t]; val wi = sinTable[t]
+                    val m = k + mid
+                    val xr = zr[m] * wr - zi[m] * wi
+                    val xi = zr[m] * wi + zi[m] * wr
+                    zr[m] = zr[k] - xr; zi[m] = zi[k] - xi
+                    zr[k] += xr; zi[k] += xi
+                    t += step
+                }
+                start += span
+            }
+            span *= 2
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package com.helpofai.mymmusic.dsp
+
+import java.nio.ByteBuffer
+import kotlin.math.abs
+import kotlin.math.max
+import kotlin.math.min
+import kotlin.math.pow
+
+/**
+ * What counts as silence: every sample below [thresholdDb] (dBFS, either channel) for at
+ * least [minSilenceMs]. It ends at the first sample above [thresholdDb] + [hysteresisDb],
+ * so noise hovering around the threshold doesn't chatter the gate open and shut.
+ */
+data class SilenceSettings(
+    val thresholdDb: Double = -60.0,
+    val hysteresisDb: Double = 6.0,
+    val minSilenceMs: Double = 2000.0
+) {
+    init {
+        require(hysteresisDb >= 0.0 && minSilenceMs >= 0.0) { "Invalid silence settings: $this" }
+    }
+
+    /** Linear level below which a sample is silent. */
+    val closeLevel: Double get() = 10.0.pow(thresholdDb / 20.0)
+
+    /** Linear level above which a sample ends the silence. */
+    val openLevel: Double get() = 10.0.pow((thresholdDb + hysteresisDb) / 20.0)
+}
+
+/**
+ * Skip-silence stage: drops sustained silence from the stream so the player moves on to
+ * the next sound, keeping the first [SilenceSettings.minSilenceMs] of a pause as a pause.
+ *
+ * The output runs a few milliseconds behind the detector, so the gain can ramp out before
+ * the audio is dropped and ramp back in on the samples just before the sound returns; the
+ * sound itself always plays at full level, and the splice never clicks. Every stream and
+ * seek starts open, so a soft passage is never swallowed. The player has to add
+ * [skippedFrames] to its position, or the position falls behind the audio. Nothing is
+ * allocated while processing.
+ */
+class SilenceGate {
+
+    companion object {
+        private const val RAMP_SECONDS = 0.004
+        // Lookahead ring size; at high rates the ramp gets shorter rather than the ring longer
+        private const val MAX_RAMP_FRAMES = 256
+    }
+
+    @Volatile private var settings: SilenceSettings? = null
+
+    private val ringL = DoubleArray(MAX_RAMP_FRAMES)
+    private val ringR = DoubleArray(MAX_RAMP_FRAMES)
+    private var sampleRate = 48000
+    private var rampFrames = MAX_RAMP_FRAMES
+
+    // Audio thread state
+    private var active = false
+    private var ringPos = 0
+    private var primed = 0
+    private var quietRun = 0L
+    private var target = 0.0
+    private var gain = 0.0
+
+    /** Frames dropped since the last [flush]; the sink adds them to the playback position. */
+    @Volatile var skippedFrames = 0L
+        private set
+
+    /** True while the stage delays the stream, i.e. skipping is on or its lookahead still holds audio. */
+    val isActive: Boolean get() = active || settings != null
+
+    /** Frames the lookahead holds back; written out by [drain]. */
+    val pendingFrames: Int get() = if (active) primed else 0
+
+    /** Turns skipping on with [settings], or off when null. Off takes effect at the next flush. */
+    fun setSettings(settings: SilenceSettings?) {
+        this.settings = settings
+    }
+
+    fun configure(sampleRate: Int) {
+        this.sampleRate = sampleRate
+        rampFrames = min((sampleRate * RAMP_SECONDS).toInt(), MAX_RAMP_FRAMES).coerceAtLeast(1)
+    }
+
+    /** New stream or seek: forgets the lookahead and starts open. */
+    fun flush() {
+        active = settings != null
+        ringPos = 0
+        primed = 0
+        quietRun = 0L
+        target = 1.0
+        gain = 1.0
+        skippedFrames = 0L
+    }
+
+    /**
+     * Runs [frames] frames through the gate in place; returns how many are left. Audio
+     * thread.
+     */
+    fun process(left: DoubleArray, right: DoubleArray, frames: Int): Int {
+        if (!active) {
+            if (settings == null) return frames
+            flush()
+        }
+        val s = settings
+        // Switched off mid-stream: keep the delay, stop skipping until the next flush
+        val closeLevel = s?.closeLevel ?: 0.0
+        val openLevel = s?.openLevel ?: 0.0
+        val minSilence = if (s == null) Long.MAX_VALUE else (s.minSilenceMs / 1000.0 * sampleRate).toLong()
+        val step = 1.0 / rampFrames
+        var out = 0
+        var skipped = 0
+        for (i in 0 until frames) {
+            val l = left[i]
+            val r = right[i]
+            val level = max(abs(l), abs(r))
+            if (s == null || level > openLevel) {
+                quietRun = 0L
+                target = 1.0
+            } else if (level < closeLevel) {
+                if (quietRun < Long.MAX_VALUE) quietRun++
+                if (quietRun >= minSilence) target = 0.0
+            } else {
+                // Between the two levels: not silence, but not loud enough to reopen
+                quietRun = 0L
+            }
+            gain = if (target > gain) min(gain + step, 1.0) else max(gain - step, 0.0)
+
+            // Swap the new sample in for the one rampFrames ago; out <= i keeps this in place
+            val dl = ringL[ringPos]
+            val dr = ringR[ringPos]
+            ringL[ringPos] = l
+            ringR[ringPos] = r
+            if (++ringPos == rampFrames) ringPos = 0
+            if (primed < rampFrames) { primed++; continue }
+            if (gain == 0.0) { skipped++; continue }
+            left[out] = dl * gain
+            right[out] = dr * gain
+            out++
+        }
+        if (skipped > 0) skippedFrames += skipped
+        return out
+    }
+
+    /**
+     * Writes out what the lookahead holds at the end of the stream into [left]/[right];
+     * returns the frame count, at most [MAX_RAMP_FRAMES].
+     */
+    fun drain(left: DoubleArray, right: DoubleArray): Int {
+        if (!active) return 0
+        val step = 1.0 / rampFrames
+        var pos = (ringPos - primed + rampFrames) % rampFrames
+        var out = 0
+        repeat(primed) {
+            gain = if (target > gain) min(gain + step, 1.0) else max(gain - step, 0.0)
+            if (gain > 0.0) {
+                left[out] = ringL[pos] * gain
+                right[out] = ringR[pos] * gain
+                out++
+            }
+            if (++pos == rampFrames) pos = 0
+        }
+        skippedFrames += primed - out
+        primed = 0
+        return out
+    }
+}
+
+/**
+ * Finds the leading and trailing silence of a whole track, for seeking past it without
+ * decoding it. Silence is everything before the first and after the last sample above
+ * [SilenceSettings.thresholdDb].
+ */
+class SilenceScan(private val sampleRate: Int, settings: SilenceSettings = SilenceSettings()) {
+
+    private val level = settings.closeLevel
+    private var frames = 0L
+    private var firstSound = -1L
+    private var lastSound = -1L
+
+    // Scratch for processInterleaved
+    private var reader: PcmReader? = null
+    private var readerEncoding: PcmEncoding? = null
+    private var readerChannels = 0
+    private val scratchL = DoubleArray(1024)
+    private val scratchR = DoubleArray(1024)
+
+    /** Silence before the first sound; the whole track when it never rises above the threshold. */
+    val leadingMs: Long get() = toMs(if (firstSound < 0) frames else firstSound)
+
+    /** Silence after the last sound; 0 when the track is all silence (it is all leading). */
+    val trailingMs: Long get() = toMs(if (lastSound < 0) 0 else frames - lastSound - 1)
+
+    fun process(left: DoubleArray, right: DoubleArray, count: Int) {
+        for (i in 0 until count) {
+            if (abs(left[i]) > level || abs(right[i]) > level) {
+                if (firstSound < 0) firstSound = frames + i
+                lastSound = frames + i
+            }
+        }
+        frames += count
+    }
+
+    /** Scans interleaved PCM in [encoding] with [channelCount] channels, consuming all of [input]. */
+    fun processInterleaved(input: ByteBuffer, encoding: PcmEncoding, channelCount: Int) {
+        var r = reader
+        if (r == null || readerEncoding != encoding || readerChannels != channelCount) {
+            r = PcmReader.create(encoding, channelCount, scratchL.size)
+            reader = r
+            readerEncoding = encoding
+            readerChannels = channelCount
+        }
+        while (input.remaining() >= r.bytesPerFrame) {
+            val count = min(input.remaining() / r.bytesPerFrame, scratchL.size)
+            r.read(input, scratchL, scratchR, count)
+            process(scratchL, scratchR, count)
+        }
+        input.position(input.limit())
+    }
+
+    private fun toMs(frames: Long) = frames * 1000L / sampleRate
+}
@@ -0,0 +1,108 @@
+package com.helpofai.mymmusic.dsp
+
+import java.util.concurrent.atomic.AtomicIntegerArray
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.math.PI
+import kotlin.math.abs
+import kotlin.math.cos
+import kotlin.math.sqrt
+
+/**
+ * Spectrum tap for the visualizers: magnitude spectrum of the mid (L+R)/2 signal.
+ *
+ * Frames are [FFT_SIZE] samples, Hann windowed, with 50% overlap, transformed by a
+ * radix-2 [RealFft]. All tables and buffers are allocated up front, so [process] never
+ * allocates.
+ *
+ * Finished frames go into a double buffer and are published with a sequence number; [read]
+ * copies the newest one and retries if the producer overwrote it mid-copy. Like
+ * [MeterTap], the analyzer stays idle while nobody reads it.
+ */
+class SpectrumAnalyzer {
+
+    companion object {
+        const val FFT_SIZE = 1024
+        /** Magnitude bins per frame: DC up to one bin below Nyquist. */
+        const val BINS = FFT_SIZE / 2
+        private const val HOP = FFT_SIZE / 2
+        private const val HALF = FFT_SIZE / 2
+        private const val IDLE_NANOS = 1_000_000_000L
+    }
+
+    // Periodic Hann window
+    private val window = DoubleArray(FFT_SIZE) { 0.5 - 0.5 * cos(2.0 * PI * it / FFT_SIZE) }
+    // A full-scale sine reads 1.0 in its bin (Hann coherent gain is 1/2)
+    private val scale = 4.0 / FFT_SIZE
+
+    private val fft = RealFft(FFT_SIZE)
+
+    // Input history (ring of the last FFT_SIZE mid samples) and FFT work arrays
+    private val history = DoubleArray(FFT_SIZE)
+    private var historyPos = 0
+    private var untilNextFrame = FFT_SIZE
+    private val frame = DoubleArray(FFT_SIZE)
+    private val re = DoubleArray(HALF + 1)
+    private val im = DoubleArray(HALF + 1)
+
+    // Double buffer of raw float bits; frame n is written to buffers[n % 2]. Ordered stores
+    // here and volatile loads in read keep every bin access between the sequence reads
+    // around it, so read's re-check catches a frame overwritten mid-copy.
+    private val buffers = arrayOf(AtomicIntegerArray(BINS), AtomicIntegerArray(BINS))
+    private val published = AtomicLong(0L)
+    @Volatile private var lastReadNanos = System.nanoTime() - IDLE_NANOS
+
+    /** True while the UI is reading; the chain skips the tap otherwise. */
+    val isActive: Boolean get() = System.nanoTime() - lastReadNanos < IDLE_NANOS
+
+    fun reset() {
+        history.fill(0.0)
+        historyPos = 0
+        untilNextFrame = FFT_SIZE
+    }
+
+    /** Feeds one block; emits a frame every [HOP] samples. Audio thread only. */
+    fun process(left: DoubleArray, right: DoubleArray, frames: Int) {
+        for (i in 0 until frames) {
+            history[historyPos] = 0.5 * (left[i] + right[i])
+            if (++historyPos == FFT_SIZE) historyPos = 0
+            if (--untilNextFrame == 0) {
+                transform()
+                untilNextFrame = HOP
+            }
+        }
+    }
+
+    /**
+     * Copies the newest frame into [out] (at least [BINS] long) and returns its sequence
+     * number, or -1 if no frame exists yet. UI thread.
+     */
+    fun read(out: FloatArray): Long {
+        lastReadNanos = System.nanoTime()
+        while (true) {
+            val count = published.get()
+            if (count == 0L) return -1L
+            val sequence = count - 1
+            val buffer = buffers[(sequence and 1L).toInt()]
+            for (k in 0 until BINS) out[k] = Float.fromBits(buffer.get(k))
+            // The buffer is only reused for frame sequence + 2
+            if (published.get() < sequence + 2) return sequence
+        }
+    }
+
+    private fun transform() {
+        // Windowed frame, oldest sample first
+        var pos = historyPos
+        for (n in 0 until FFT_SIZE) {
+            frame[n] = history[pos] * window[n]
+            if (++pos == FFT_SIZE) pos = 0
+        }
+        fft.forward(frame, re, im)
+
+        val out = buffers[(published.get() and 1L).toInt()]
+        // DC: a constant offset reads its own value (half the scale of a sine's peak bin)
+        out.lazySet(0, (abs(re[0]) * 0.5 * scale).toFloat().toRawBits())
+        for (k in 1 until BINS) out.lazySet(k, (sqrt(re[k] * re[k] + im[k] * im[k]) * scale).toFloat().toRawBits())
+        // Ordered store: the frame is complete before readers can see its number
+        published.lazySet(published.get() + 1)
+    }
+}
@@ -0,0 +1,58 @@
+package com.helpofai.mymmusic.dsp
+
+/**
+ * Planar stereo delay of up to `capacity - 1` frames, for keeping a side path (the dry
+ * signal of the bypass crossfade) in time with stages that add latency. The delay may
+ * differ from call to call; every call reads relative to the latest frame written.
+ * Allocated once; nothing here allocates.
+ */
+internal class StereoDelayLine(val capacity: Int) {
+
+    private val ringL = DoubleArray(capacity)
+    private val ringR = DoubleArray(capacity)
+    // Slot the next frame is written to
+    private var pos = 0
+
+    /** Longest delay [process] and [read] support. */
+    val maxDelay: Int get() = capacity - 1
+
+    fun clear() {
+        ringL.fill(0.0)
+        ringR.fill(0.0)
+        pos = 0
+    }
+
+    /** Pushes [frames] frames and replaces each with the frame [delay] frames before it. */
+    fun process(left: DoubleArray, right: DoubleArray, frames: Int, delay: Int) {
+        var read = pos - delay
+        if (read < 0) read += capacity
+        for (i in 0 until frames) {
+            ringL[pos] = left[i]
+            ringR[pos] = right[i]
+            left[i] = ringL[read]
+            right[i] = ringR[read]
+            if (++pos == capacity) pos = 0
+            if (++read == capacity) read = 0
+        }
+    }
+
+    /** Pushes [frames] frames without reading anything back. */
+    fun write(left: DoubleArray, right: DoubleArray, frames: Int) {
+        for (i in 0 until frames) {
+            ringL[pos] = left[i]
+            ringR[pos] = right[i]
+            if (++pos == capacity) pos = 0
+        }
+    }
+
+    /** Copies [frames] frames, oldest first, starting [back] frames before the next write. */
+    fun read(left: DoubleArray, right: DoubleArray, frames: Int, back: Int) {
+        var read = pos - back
+        if (read < 0) read += capacity
+        for (i in 0 until frames) {
+            left[i] = ringL[read]
+            right[i] = ringR[read]
+            if (++read == capacity) read = 0
+        }
+    }
+}
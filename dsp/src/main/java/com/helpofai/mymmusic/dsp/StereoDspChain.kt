@@ -0,0 +1,1187 @@
+package com.helpofai.mymmusic.dsp
+
+import java.nio.ByteBuffer
+import java.util.concurrent.atomic.AtomicReference
+import kotlin.math.*
+
+/**
+ * The complete stereo mastering chain, independent of any player framework.
+ *
+ * Call [configure] once per input format, then feed interleaved PCM through [process]
+ * (or planar float through the [FloatArray] overload). Controls may be changed from any
+ * thread; processing must stay on a single thread.
+ */
+class StereoDspChain {
+
+    companion object {
+        // Frames processed per pass through the stage chain
+        private const val BLOCK_FRAMES = 512
+        // Length of the wet/dry crossfade when entering or leaving bypass
+        private const val BYPASS_FADE_SECONDS = 0.01
+        // Fade-in after a seek, so playback doesn't start mid-waveform with a click
+        private const val DECLICK_SECONDS = 0.005
+        // Time constant of the one-pole smoothing applied to every continuous control
+        private const val SMOOTHING_SECONDS = 0.02
+        // Distance at which a smoothed control snaps onto its target
+        private const val SMOOTHING_SNAP = 1e-6
+        // Bass/air split point; two cascaded Butterworth sections per band make an LR4
+        private const val CROSSOVER_HZ = 150.0
+        private const val CROSSOVER_Q = 0.7071
+
+        init {
+            BiquadCache.prewarmAsync(listOf(
+                EqBandSpec(CROSSOVER_HZ, q = CROSSOVER_Q, type = FilterType.LOW_PASS),
+                EqBandSpec(CROSSOVER_HZ, q = CROSSOVER_Q, type = FilterType.HIGH_PASS)
+            ))
+        }
+    }
+
+    // --- Quantum Precision Parameters (64-bit Internal) ---
+    // Written by the UI as whole snapshots, read by the audio thread once per buffer
+    private val params = AtomicReference(Snapshot(DspParams()))
+
+    // A control snapshot and how long the audio thread should take to reach it: 0 for the
+    // usual one-pole glide, otherwise a linear morph of that many seconds (presets)
+    private class Snapshot(val params: DspParams, val morphSeconds: Double = 0.0)
+
+    // One-pole smoothed control, advanced once per block and ramped linearly inside it.
+    // Stage loops start at `start` and add `step` per frame, reaching `end` on the last frame.
+    private class SmoothedParam(initial: Double) {
+        var start = initial
+        var end = initial
+        var step = 0.0
+        // Value when the running morph began
+        var from = initial
+
+        // Either edge of the ramp is non-zero, so the stage has something to do
+        val isActive: Boolean get() = start != 0.0 || end != 0.0
+
+        fun isSettledAt(value: Double) = start == value && end == value
+
+        fun next(target: Double, coef: Double, frames: Int) {
+            start = end
+            var e = start + (target - start) * coef
+            if (abs(target - e) < SMOOTHING_SNAP) e = target
+            end = e
+            step = (e - start) / frames
+        }
+
+        // Position t (0..1) of a linear morph from `from` to target
+        fun morph(target: Double, t: Double, frames: Int) {
+            start = end
+            end = if (t >= 1.0) target else from + (target - from) * t
+            step = (end - start) / frames
+        }
+
+        fun snap(target: Double) {
+            start = target
+            end = target
+            step = 0.0
+        }
+    }
+
+    private val preGain = SmoothedParam(1.0)
+    private val balance = SmoothedParam(0.0)
+    private val width = SmoothedParam(1.0)
+    private val crossfeed = SmoothedParam(0.0)
+    private val clarity = SmoothedParam(0.0)
+    private val warmth = SmoothedParam(0.0)
+    private val subBassDepth = SmoothedParam(0.0)
+    private val hiFiAir = SmoothedParam(0.0)
+    private val adaptiveLoudness = SmoothedParam(0.0)
+    // Wet amount of the 8D stage, so toggling it fades instead of switching
+    private val eightDMix = SmoothedParam(0.0)
+    // Per-track loudness normalization; set by playback, not part of the user's DspParams
+    private val normalizationGain = SmoothedParam(1.0)
+    @Volatile private var normalizationTarget = 1.0
+    // Gain of the track after the current stream; takes over at the track boundary
+    @Volatile private var nextNormalizationTarget = 1.0
+    // The input stream ended, so the next flush is a track boundary rather than a seek
+    private var streamEnded = false
+
+    // Preset morph: snapshot last picked up, and progress in frames of the running morph
+    // (morphFrames 0 = none). Normalization is not part of a preset and never morphs.
+    private var applied: Snapshot? = null
+    private var morphFrames = 0.0
+    private var morphDone = 0.0
+    private var rotationFrom = 0.12
+    private val morphed = arrayOf(
+        preGain, balance, width, crossfeed, clarity, warmth, subBassDepth, hiFiAir, adaptiveLoudness, eightDMix
+    )
+
+    // 8D Audio State
+    private var rotationSpeed = 0.12 // Hz
+    private var eightDPath = EightDPath.CIRCLE
+    // Quadrature oscillator (sin, cos of the rotation phase), stepped once per block
+    private var oscSin = 0.0
+    private var oscCos = 1.0
+    // Pan gains and filter coefficient at the oscillator's current position
+    private var gainL8D = 0.0
+    private var gainR8D = 0.0
+    private var alpha8D = 0.0
+    private var sampleRate = 48000
+    // Rate of the input buffers, which sets their deadline
+    private var inputSampleRate = 48000
+    private var filterL = 0.0
+    private var filterR = 0.0
+
+    // --- Audiophile Crossover (Linkwitz-Riley 4th Order) ---
+    // 24dB/octave separation for perfect isolation of Bass vs Air
+    private val lp1L = Biquad(); private val lp2L = Biquad() // Cascaded for LPF
+    private val hp1L = Biquad(); private val hp2L = Biquad() // Cascaded for HPF
+    private val lp1R = Biquad(); private val lp2R = Biquad()
+    private val hp1R = Biquad(); private val hp2R = Biquad()
+
+    // DC Blocker State (Removes sub-audible offset)
+    private var dcX1L = 0.0; var dcY1L = 0.0
+    private var dcX1R = 0.0; var dcY1R = 0.0
+
+    // Bass Limiter State
+    private var bassDriveL = 0.0
+    private var bassDriveR = 0.0
+
+    // Transient Shaper State
+    private var envL = 0.0
+    private var envR = 0.0
+
+    // User parametric EQ, first stage of the chain
+    private val eq = ParametricEq()
+
+    // 3/4-band dynamics right after the EQ (commute mode)
+    private val multiband = MultibandCompressor(BLOCK_FRAMES)
+
+    // Optional IR convolution (HRTF crossfeed, headphone correction, room); built off the
+    // audio thread for the current rate and crossfaded in. Adds convolution.latencyFrames.
+    private val convolution = ConvolutionStage(BLOCK_FRAMES)
+    @Volatile private var impulseResponse: ImpulseResponse? = null
+    @Volatile private var convolutionMix = 1.0
+
+    // Final true-peak limiter; delays the processed signal by limiter.latencyFrames
+    private val limiter = TruePeakLimiter()
+
+    // Optional conversion to the output device's rate, ahead of every other stage so the
+    // whole chain runs at the output rate. Replaced in configure, never while processing.
+    private var resampler: PolyphaseResampler? = null
+    // Input frames read per block, chosen so a block never resamples to more than BLOCK_FRAMES
+    private var inputBlockFrames = BLOCK_FRAMES
+
+    // Dither State (independent, fixed-seed generators per channel)
+    private val ditherL = TpdfDither(0x5DEECE66DL)
+    private val ditherR = TpdfDither(0x2545F4914F6CDD1DL)
+
+    // --- Planar Block Buffers (preallocated, reused for every block) ---
+    // bufL/bufR carry the full-band signal (and the high band after the split)
+    private val bufL = DoubleArray(BLOCK_FRAMES)
+    private val bufR = DoubleArray(BLOCK_FRAMES)
+    private val lowL = DoubleArray(BLOCK_FRAMES)
+    private val lowR = DoubleArray(BLOCK_FRAMES)
+    // Input-rate samples ahead of the resampler
+    private val srcL = DoubleArray(BLOCK_FRAMES)
+    private val srcR = DoubleArray(BLOCK_FRAMES)
+    // Unprocessed copy of the block, only filled while crossfading in/out of bypass
+    private val dryL = DoubleArray(BLOCK_FRAMES)
+    private val dryR = DoubleArray(BLOCK_FRAMES)
+    // Input history that delays the dry signal by latencyFrames, so it lines up with the
+    // processed one. Fed on every block, bypassed or not; sized in configure.
+    private var dryDelay = StereoDelayLine(1)
+    // Single-precision copies for the FLOAT32 filter kernels
+    private val floatL = FloatArray(BLOCK_FRAMES)
+    private val floatR = FloatArray(BLOCK_FRAMES)
+    private val floatLowL = FloatArray(BLOCK_FRAMES)
+    private val floatLowR = FloatArray(BLOCK_FRAMES)
+
+    // --- Neutral Passthrough ---
+    // 0.0 = fully processed, 1.0 = fully bypassed. Moves in a short ramp whenever
+    // the parameter set becomes (or stops being) neutral.
+    private var bypassMix = 0.0
+    private var bypassStep = 1.0 / (BYPASS_FADE_SECONDS * 48000)
+    // Frames processed since the stage state was last cleared; leaving bypass holds the
+    // dry signal until the limiter and convolver delay lines hold current audio again
+    private var wetFrames = 0
+    // Input can be copied byte-for-byte when it already matches the output format
+    private var canCopyThrough = false
+
+    // --- Seek Declick ---
+    // Output gain after a seek, ramping from 0 back to 1
+    private var declickGain = 1.0
+    private var declickStep = 1.0 / (DECLICK_SECONDS * 48000)
+
+    /** Output meters (post-limiter, pre-dither); the UI polls them. */
+    val meter = MeterTap()
+
+    /** Output spectrum for the visualizers; the UI polls it. */
+    val analyzer = SpectrumAnalyzer()
+
+    /** Processing time per buffer and stage; the diagnostics panel polls it. */
+    val loadMonitor = DspLoadMonitor()
+
+    // Right after the input, so every control acts on what is left: skip-silence drops
+    // silence first, so the crossfader overlaps sound rather than trailing silence
+    private val silenceGate = SilenceGate()
+    private val crossfader = TrackCrossfader()
+
+    // Which UI taps are being polled, sampled once per buffer
+    private var metering = false
+    private var analyzing = false
+    private var profiling = false
+
+    var outputEncoding = PcmEncoding.PCM_16BIT
+        private set
+
+    /** Rate of the processed output; differs from the input rate only while resampling. */
+    var outputSampleRate = 48000
+        private set
+
+    /** Precision of the filter kernels, set by [configure]. */
+    var precision = ProcessingPrecision.FLOAT64
+        private set
+
+    // Format-specialized kernels, chosen once per configuration, and the input format they
+    // were chosen for
+    private lateinit var reader: PcmReader
+    private lateinit var writer: PcmWriter
+    private var inputEncoding: PcmEncoding? = null
+    private var inputChannels = 0
+    private var inputDownmix: DownmixMatrix? = null
+    private var writerEncoding: PcmEncoding? = null
+
+    // Control setters (Converting to Double internally). Each one publishes a new snapshot
+    // with a CAS loop, so concurrent setters never lose each other's writes.
+    fun setPreGain(v: Float) = updateParams { it.copy(preGain = v.toDouble()) }
+    fun setBalance(v: Float) = updateParams { it.copy(balance = v.toDouble()) }
+    fun setWidth(v: Float) = updateParams { it.copy(width = v.toDouble()) }
+    fun setCrossfeed(v: Float) = updateParams { it.copy(crossfeed = v.toDouble()) }
+    fun setClarity(v: Float) = updateParams { it.copy(clarity = v.toDouble()) }
+    fun setWarmth(v: Float) = updateParams { it.copy(warmth = v.toDouble()) }
+    fun setSubBass(v: Float) = updateParams { it.copy(subBass = v.toDouble()) }
+    fun setHiFiAir(v: Float) = updateParams { it.copy(hiFiAir = v.toDouble()) }
+    fun setAdaptiveLoudness(v: Float) = updateParams { it.copy(adaptiveLoudness = v.toDouble()) }
+
+    fun set8DMode(enabled: Boolean) = updateParams { it.copy(is8DEnabled = enabled) }
+    fun set8DSpeed(speed: Float) = updateParams { it.copy(rotationSpeed = speed.toDouble()) }
+    fun set8DPath(path: EightDPath) = updateParams { it.copy(eightDPath = path) }
+    fun setNoiseShaping(enabled: Boolean) = updateParams { it.copy(noiseShaping = enabled) }
+
+    /** Replaces the EQ bands; coefficients are designed on the calling thread. */
+    fun setEqBands(bands: List<EqBandSpec>) = eq.setBands(bands)
+    fun setEqEnabled(enabled: Boolean) = eq.setEnabled(enabled)
+
+    /** Replaces the multiband compressor settings; filters are designed on the calling thread. */
+    fun setMultiband(settings: MultibandSettings) = multiband.setSettings(settings)
+
+    /**
+     * Loads [ir] into the convolution stage, or removes it when null; either way the change
+     * crossfades over a few tens of milliseconds. [mix] is the wet share.
+     * Transforms the IR on the calling thread, so call it off the audio thread.
+     */
+    fun setImpulseResponse(ir: ImpulseResponse?, mix: Double = 1.0) {
+        impulseResponse = ir
+        convolutionMix = mix
+        convolution.set(ir?.let { PartitionedConvolver(it.resampledTo(sampleRate), mix = mix) })
+    }
+
+    /** Skips sustained silence with [settings]; null turns skipping off from the next track or seek. */
+    fun setSilenceSkipping(settings: SilenceSettings?) = silenceGate.setSettings(settings)
+
+    /**
+     * Output frames the silence gate dropped since the last [flush]. The player adds them to
+     * its position, which otherwise falls behind the audio by the skipped time.
+     */
+    val skippedFrames: Long get() = silenceGate.skippedFrames
+
+    /** Crossfade between tracks; takes effect from the next track or seek. */
+    fun setCrossfade(settings: CrossfadeSettings) = crossfader.setSettings(settings)
+
+    /** Whether another track follows the one being decoded, so its end is held for the crossfade. */
+    fun setHasNextTrack(hasNext: Boolean) {
+        crossfader.hasNextTrack = hasNext
+    }
+
+    /**
+     * Track/album gain from the loudness scanner for the playing stream, in dB, applied
+     * right away; 0 disables normalization.
+     */
+    fun setNormalizationGain(db: Double) {
+        normalizationTarget = 10.0.pow(db / 20.0)
+    }
+
+    /**
+     * Gain for the track that follows the current stream, in dB. It takes over when [flush]
+     * starts that track after [endOfStream], so the old track's tail keeps its own gain.
+     */
+    fun setNextNormalizationGain(db: Double) {
+        nextNormalizationTarget = 10.0.pow(db / 20.0)
+    }
+
+    /** Replaces every control at once; the audio thread sees either the old or the new set. */
+    fun setParams(newParams: DspParams) = params.set(Snapshot(newParams))
+
+    val currentParams: DspParams get() = params.get().params
+
+    /**
+     * Switches to [preset] as one snapshot. With [morphMs] > 0 every continuous control
+     * moves linearly from where it is to the preset over that time, instead of the usual
+     * short glide; on/off switches such as the 8D path change at once. The multiband stage
+     * is designed here and cross-fades by itself. Nothing is allocated on the audio thread.
+     */
+    fun applyPreset(preset: DspPreset, morphMs: Double = 0.0) {
+        multiband.setSettings(preset.multiband)
+        params.set(Snapshot(preset.params, maxOf(morphMs, 0.0) / 1000.0))
+    }
+
+    // A setter cancels any running morph; from there the controls glide as usual
+    private inline fun updateParams(transform: (DspParams) -> DspParams) {
+        while (true) {
+            val current = params.get()
+            if (params.compareAndSet(current, Snapshot(transform(current.params)))) return
+        }
+    }
+
+    /**
+     * Prepares the chain for a new input format and returns the output encoding.
+     * Output is always stereo, at [targetSampleRate] when one is given and
+     * [PolyphaseResampler.isSupported] allows it, otherwise at the input sample rate.
+     * [forcedOutputEncoding] overrides the automatic choice and must be
+     * [PcmEncoding.PCM_16BIT] or [PcmEncoding.PCM_FLOAT]. Builds the resampler's coefficient
+     * bank when the rates change, so call it off the audio thread. Input with more than two
+     * channels is folded to stereo by [downmix], by default [DownmixMatrix.forChannelCount].
+     * [precision] selects the arithmetic of the filter kernels.
+     *
+     * Media3 calls this at every track boundary. When the format is unchanged, all filter,
+     * limiter, resampler and convolver state carries on, so gapless tracks join seamlessly;
+     * only [flush] after a seek and [reset] clear it.
+     */
+    fun configure(
+        sampleRate: Int,
+        channelCount: Int,
+        encoding: PcmEncoding,
+        forcedOutputEncoding: PcmEncoding? = null,
+        targetSampleRate: Int? = null,
+        resamplerQuality: ResamplerQuality = ResamplerQuality.HIGH,
+        downmix: DownmixMatrix? = null,
+        precision: ProcessingPrecision = ProcessingPrecision.FLOAT64
+    ): PcmEncoding {
+        require(channelCount >= 1) { "Invalid channel count: $channelCount" }
+        // The two kernels keep separate filter state; start the new one from rest
+        if (precision != this.precision) resetDspState()
+        this.precision = precision
+        configureResampler(sampleRate, targetSampleRate, resamplerQuality)
+        // Every stage after the resampler runs at the output rate
+        val rate = outputSampleRate
+        val rateChanged = rate != this.sampleRate
+        this.sampleRate = rate
+        inputSampleRate = sampleRate
+        calculateCrossover(CROSSOVER_HZ)
+        limiter.configure(rate)
+        eq.configure(rate)
+        convolution.configure(rate)
+        multiband.configure(rate)
+        impulseResponse?.let { ir ->
+            if (convolution.convolver?.sampleRate != rate) {
+                convolution.set(PartitionedConvolver(ir.resampledTo(rate), mix = convolutionMix))
+            }
+        }
+        meter.configure(rate)
+        if (rateChanged) analyzer.reset()
+        silenceGate.configure(rate)
+        crossfader.configure(rate, BLOCK_FRAMES)
+
+        // Intelligent Output Format Selection
+        outputEncoding = forcedOutputEncoding ?: if (encoding == PcmEncoding.PCM_16BIT) {
+            PcmEncoding.PCM_16BIT // Keep 16-bit for standard audio
+        } else {
+            PcmEncoding.PCM_FLOAT // Upgrade everything else to 32-bit Float
+        }
+        if (encoding != inputEncoding || channelCount != inputChannels || downmix != inputDownmix) {
+            reader = PcmReader.create(encoding, channelCount, BLOCK_FRAMES, downmix)
+            inputEncoding = encoding
+            inputChannels = channelCount
+            inputDownmix = downmix
+        }
+        if (outputEncoding != writerEncoding) {
+            writer = PcmWriter.create(outputEncoding, BLOCK_FRAMES)
+            writerEncoding = outputEncoding
+        }
+        canCopyThrough = channelCount == 2 && encoding == outputEncoding && resampler == null
+        bypassStep = 1.0 / (BYPASS_FADE_SECONDS * rate)
+        val dryCapacity = limiter.latencyFrames + ConvolutionStage.LATENCY + 1
+        if (dryDelay.capacity != dryCapacity) dryDelay = StereoDelayLine(dryCapacity)
+        declickStep = 1.0 / (DECLICK_SECONDS * rate)
+        return outputEncoding
+    }
+
+    // Keeps the current resampler, history included, when the conversion is unchanged, so a
+    // reconfigure at a gapless track boundary neither rebuilds the coefficient bank nor
+    // breaks the signal; flush() clears the history on a seek
+    private fun configureResampler(inputRate: Int, targetRate: Int?, quality: ResamplerQuality) {
+        val outputRate = targetRate?.takeIf { PolyphaseResampler.isSupported(inputRate, it) } ?: inputRate
+        val current = resampler
+        resampler = when {
+            outputRate == inputRate -> null
+            current != null && current.inputRate == inputRate && current.outputRate == outputRate &&
+                current.quality == quality -> current
+            else -> PolyphaseResampler(inputRate, outputRate, quality)
+        }
+        outputSampleRate = outputRate
+        inputBlockFrames = min(BLOCK_FRAMES, resampler?.maxInputFrames(BLOCK_FRAMES) ?: BLOCK_FRAMES)
+    }
+
+    /**
+     * Upper bound on the output bytes [process] writes for [inputBytes] bytes of input;
+     * exact unless resampling.
+     */
+    fun outputSize(inputBytes: Int): Int {
+        val frames = inputBytes / reader.bytesPerFrame
+        return (resampler?.maxOutputFrames(frames) ?: frames) * writer.bytesPerFrame
+    }
+
+    /**
+     * Frames the output lags the input by: the limiter's lookahead plus one convolution
+     * partition while an impulse response is loaded. Bypassed audio is delayed by the same
+     * amount.
+     */
+    val latencyFrames: Int
+        get() = limiter.latencyFrames + convolution.latencyFrames
+
+    private fun calculateCrossover(fc: Double) {
+        val lpf = BiquadCache.get(FilterType.LOW_PASS, sampleRate, fc, CROSSOVER_Q, 0.0)
+        val hpf = BiquadCache.get(FilterType.HIGH_PASS, sampleRate, fc, CROSSOVER_Q, 0.0)
+        lp1L.set(lpf); lp2L.set(lpf); lp1R.set(lpf); lp2R.set(lpf)
+        hp1L.set(hpf); hp2L.set(hpf); hp1R.set(hpf); hp2R.set(hpf)
+    }
+
+    /**
+     * Consumes all of [inputBuffer] (interleaved, configured encoding) and appends the
+     * processed stereo frames to [outputBuffer], which needs [outputSize] bytes remaining.
+     */
+    fun process(inputBuffer: ByteBuffer, outputBuffer: ByteBuffer) {
+        if (!inputBuffer.hasRemaining()) return
+
+        // Frame sizes come from the selected kernels; output is always stereo
+        val numFrames = inputBuffer.remaining() / reader.bytesPerFrame
+
+        // Latest snapshot from the UI; picked up once and used for every block of this buffer
+        val target = pickUp()
+        val neutral = isNeutral(target)
+        metering = meter.isActive
+        analyzing = analyzer.isActive
+        profiling = loadMonitor.isActive
+        if (profiling) loadMonitor.begin()
+        streamEnded = false
+        if (neutral && bypassMix >= 1.0 && declickGain >= 1.0 && !silenceGate.isActive && !crossfader.isActive) {
+            passThrough(inputBuffer, outputBuffer, numFrames)
+            mark(DspStage.BYPASS)
+            if (profiling) loadMonitor.end(numFrames, inputSampleRate)
+            return
+        }
+
+        // Walk the buffer one block at a time: deinterleave -> stage loops -> interleave
+        var remaining = numFrames
+        while (remaining > 0) {
+            val consumed = min(remaining, inputBlockFrames)
+            remaining -= consumed
+
+            // --- READ ---
+            var frames = readBlock(inputBuffer, consumed)
+            normalize(frames)
+            mark(DspStage.INPUT)
+            if (silenceGate.isActive || crossfader.isActive) {
+                frames = silenceGate.process(bufL, bufR, frames)
+                if (crossfader.isActive) frames = crossfader.process(bufL, bufR, frames)
+                mark(DspStage.CROSSFADE)
+            }
+            if (frames == 0) continue
+
+            renderBlock(target, neutral, frames, outputBuffer)
+        }
+
+        // Drop any trailing partial frame so the buffer is fully consumed
+        inputBuffer.position(inputBuffer.limit())
+
+        // Chain is now fully bypassed: start from clean state when it is re-enabled
+        if (bypassMix >= 1.0) resetDspState()
+        if (profiling) loadMonitor.end(numFrames, inputSampleRate)
+    }
+
+    // Runs the stages on the block in buf and writes it out
+    private fun renderBlock(target: DspParams, neutral: Boolean, frames: Int, outputBuffer: ByteBuffer) {
+        // After a seek the input ramps in, so the filters starting from rest never see a step
+        if (declickGain < 1.0) declick(frames)
+
+        // Keep the dry signal around while a bypass crossfade is pending or running
+        val crossfading = neutral || bypassMix > 0.0
+        delayDry(frames, crossfading)
+
+        // --- PROCESS (64-bit Core) ---
+        advanceParams(target, frames)
+        processBlock(frames)
+
+        if (crossfading) crossfadeBypass(frames, if (neutral) 1.0 else 0.0)
+
+        feedTaps(frames)
+
+        // 10. TPDF Dithering (Only for 16-bit output)
+        if (outputEncoding == PcmEncoding.PCM_16BIT) applyDither(frames, target.noiseShaping)
+
+        // --- WRITE ---
+        writer.write(outputBuffer, bufL, bufR, frames)
+        mark(DspStage.OUTPUT)
+    }
+
+    /** Upper bound on the bytes [endOfStream] writes: audio the input stages still hold. */
+    fun endOfStreamSize(): Int = (silenceGate.pendingFrames + crossfader.pendingFrames) * writer.bytesPerFrame
+
+    /**
+     * The input stream has ended, so the next [flush] starts the following track. Processes
+     * and writes the audio the input stages still hold, except what the crossfader keeps to
+     * fade into the next track.
+     */
+    fun endOfStream(outputBuffer: ByteBuffer) {
+        val target = pickUp()
+        val neutral = isNeutral(target)
+        profiling = false
+        // The gate's lookahead is the last of the track; it goes on to the crossfader as usual
+        var frames = silenceGate.drain(bufL, bufR)
+        if (crossfader.isActive) frames = crossfader.process(bufL, bufR, frames)
+        if (frames > 0) renderBlock(target, neutral, frames, outputBuffer)
+        if (!crossfader.endOfStream()) {
+            while (true) {
+                frames = crossfader.drain(bufL, bufR, BLOCK_FRAMES)
+                if (frames == 0) break
+                renderBlock(target, neutral, frames, outputBuffer)
+            }
+        }
+        if (bypassMix >= 1.0) resetDspState()
+        streamEnded = true
+    }
+
+    /**
+     * Track boundary or seek: keeps a tail held by [endOfStream] and drops any other held
+     * audio. At a track boundary the gain set with [setNextNormalizationGain] becomes
+     * current and every filter, envelope and delay line carries on, so gapless albums stay
+     * seamless. A seek (a flush without [endOfStream]) keeps the current gain, but the
+     * resampler and every stage start from rest and the output fades in over a few
+     * milliseconds.
+     */
+    fun flush() {
+        silenceGate.flush()
+        crossfader.flush()
+        if (streamEnded) normalizationTarget = nextNormalizationTarget else restart()
+        streamEnded = false
+    }
+
+    /** Drops all held audio and state and releases the crossfade buffers. */
+    fun reset() {
+        silenceGate.flush()
+        crossfader.reset()
+        restart()
+        streamEnded = false
+    }
+
+    // Deterministic start for a discontinuous stream: nothing from before the seek rings
+    // into the new position, and the first samples ramp in rather than jump
+    private fun restart() {
+        resetDspState()
+        resampler?.reset()
+        dryDelay.clear()
+        declickGain = 0.0
+    }
+
+    /**
+     * Processes planar float audio in place. Runs the same stages as the ByteBuffer path
+     * minus dithering and resampling, for offline rendering and benchmarks.
+     */
+    fun process(left: FloatArray, right: FloatArray, frames: Int) {
+        check(resampler == null) { "Planar processing cannot change the sample rate" }
+        profiling = false
+        val target = pickUp()
+        val neutral = isNeutral(target)
+        val bypassed = neutral && bypassMix >= 1.0
+
+        var offset = 0
+        while (offset < frames) {
+            val n = min(frames - offset, BLOCK_FRAMES)
+            for (i in 0 until n) {
+                bufL[i] = left[offset + i].toDouble()
+                bufR[i] = right[offset + i].toDouble()
+            }
+
+            if (bypassed) {
+                // Same latency as processed audio, so leaving bypass neither skips nor repeats
+                dryDelay.process(bufL, bufR, n, latencyFrames)
+            } else {
+                val crossfading = neutral || bypassMix > 0.0
+                normalize(n)
+                delayDry(n, crossfading)
+                advanceParams(target, n)
+                processBlock(n)
+                if (crossfading) crossfadeBypass(n, if (neutral) 1.0 else 0.0)
+            }
+
+            for (i in 0 until n) {
+                left[offset + i] = bufL[i].toFloat()
+                right[offset + i] = bufR[i].toFloat()
+            }
+            offset += n
+        }
+        if (bypassMix >= 1.0) resetDspState()
+    }
+
+    // True when every stage would leave the signal untouched (ignoring the DC blocker,
+    // limiter and dither, which only exist to protect processed audio) and no control
+    // is still gliding towards its neutral value
+    private fun isNeutral(target: DspParams): Boolean =
+        target.isNeutral && eq.isFlat && !multiband.isActive && !convolution.isActive &&
+            preGain.isSettledAt(1.0) && balance.isSettledAt(0.0) && width.isSettledAt(1.0) &&
+            crossfeed.isSettledAt(0.0) && clarity.isSettledAt(0.0) && warmth.isSettledAt(0.0) &&
+            subBassDepth.isSettledAt(0.0) && hiFiAir.isSettledAt(0.0) &&
+            adaptiveLoudness.isSettledAt(0.0) && eightDMix.isSettledAt(0.0) &&
+            normalizationTarget == 1.0 && normalizationGain.isSettledAt(1.0)
+
+    /**
+     * Jumps every smoothed control straight to the current snapshot instead of gliding.
+     * For offline use before the first block; call only from the processing thread.
+     */
+    fun settleParams() {
+        val snapshot = params.get()
+        applied = snapshot
+        morphFrames = 0.0
+        val target = snapshot.params
+        preGain.snap(target.preGain)
+        balance.snap(target.balance)
+        width.snap(target.width)
+        crossfeed.snap(target.crossfeed)
+        clarity.snap(target.clarity)
+        warmth.snap(target.warmth)
+        subBassDepth.snap(target.subBass)
+        hiFiAir.snap(target.hiFiAir)
+        adaptiveLoudness.snap(target.adaptiveLoudness)
+        eightDMix.snap(if (target.is8DEnabled) 1.0 else 0.0)
+        normalizationGain.snap(normalizationTarget)
+        rotationSpeed = target.rotationSpeed
+        eightDPath = target.eightDPath
+        bypassMix = if (isNeutral(target)) 1.0 else 0.0
+    }
+
+    // Latest snapshot; a new one that asks for a morph starts it from the current values
+    private fun pickUp(): DspParams {
+        val snapshot = params.get()
+        if (snapshot !== applied) {
+            applied = snapshot
+            morphFrames = snapshot.morphSeconds * sampleRate
+            morphDone = 0.0
+            if (morphFrames > 0.0) {
+                for (p in morphed) p.from = p.end
+                rotationFrom = rotationSpeed
+            }
+        }
+        return snapshot.params
+    }
+
+    // Moves every smoothed control one block closer to the published snapshot
+    private fun advanceParams(target: DspParams, frames: Int) {
+        val coef = 1.0 - exp(-frames / (SMOOTHING_SECONDS * sampleRate))
+        // Morph position after this block, or -1 while gliding
+        var t = -1.0
+        if (morphFrames > 0.0) {
+            morphDone += frames
+            t = min(morphDone / morphFrames, 1.0)
+            // Arrived: the one-pole glide takes over, already at the target
+            if (t >= 1.0) morphFrames = 0.0
+        }
+        advance(preGain, target.preGain, coef, t, frames)
+        advance(balance, target.balance, coef, t, frames)
+        advance(width, target.width, coef, t, frames)
+        advance(crossfeed, target.crossfeed, coef, t, frames)
+        advance(clarity, target.clarity, coef, t, frames)
+        advance(warmth, target.warmth, coef, t, frames)
+        advance(subBassDepth, target.subBass, coef, t, frames)
+        advance(hiFiAir, target.hiFiAir, coef, t, frames)
+        advance(adaptiveLoudness, target.adaptiveLoudness, coef, t, frames)
+        advance(eightDMix, if (target.is8DEnabled) 1.0 else 0.0, coef, t, frames)
+        rotationSpeed = if (t < 0.0) target.rotationSpeed else rotationFrom + (target.rotationSpeed - rotationFrom) * t
+        eightDPath = target.eightDPath
+    }
+
+    private fun advance(p: SmoothedParam, target: Double, coef: Double, t: Double, frames: Int) {
+        if (t < 0.0) p.next(target, coef, frames) else p.morph(target, t, frames)
+    }
+
+    // Forwards the input without running the chain, delayed by latencyFrames like processed
+    // audio, so entering or leaving bypass neither skips nor repeats frames. When the formats
+    // already match, all but the delayed frames are a single bulk copy; otherwise the samples
+    // are only converted (mono -> stereo, int -> float, sample rate).
+    // Polled UI taps still see the signal: the bulk-copy path decodes it once more for them.
+    private fun passThrough(inputBuffer: ByteBuffer, outputBuffer: ByteBuffer, numFrames: Int) {
+        val delay = latencyFrames
+        if (canCopyThrough && numFrames >= delay) {
+            val start = inputBuffer.position()
+            val bytesPerFrame = reader.bytesPerFrame
+            if (metering || analyzing) {
+                var remaining = numFrames
+                while (remaining > 0) {
+                    val frames = min(remaining, BLOCK_FRAMES)
+                    reader.read(inputBuffer, bufL, bufR, frames)
+                    feedTaps(frames)
+                    remaining -= frames
+                }
+            }
+            // The delayed frames from the previous buffers come first...
+            var done = 0
+            while (done < delay) {
+                val frames = min(delay - done, BLOCK_FRAMES)
+                dryDelay.read(bufL, bufR, frames, delay - done)
+                writer.write(outputBuffer, bufL, bufR, frames)
+                done += frames
+            }
+            // ...then this buffer up to its last `delay` frames, byte for byte...
+            val limit = inputBuffer.limit()
+            inputBuffer.position(start)
+            inputBuffer.limit(start + (numFrames - delay) * bytesPerFrame)
+            outputBuffer.put(inputBuffer)
+            inputBuffer.limit(limit)
+            // ...which, with what the delay line can hold before them, stay behind for the next
+            var remaining = min(numFrames, dryDelay.maxDelay)
+            inputBuffer.position(start + (numFrames - remaining) * bytesPerFrame)
+            while (remaining > 0) {
+                val frames = min(remaining, BLOCK_FRAMES)
+                reader.read(inputBuffer, bufL, bufR, frames)
+                dryDelay.write(bufL, bufR, frames)
+                remaining -= frames
+            }
+        } else {
+            var remaining = numFrames
+            while (remaining > 0) {
+                val consumed = min(remaining, inputBlockFrames)
+                remaining -= consumed
+                val frames = readBlock(inputBuffer, consumed)
+                feedTaps(frames)
+                dryDelay.process(bufL, bufR, frames, delay)
+                writer.write(outputBuffer, bufL, bufR, frames)
+            }
+        }
+        inputBuffer.position(inputBuffer.limit())
+    }
+
+    // Decodes `inputFrames` frames into bufL/bufR, resampling on the way when configured.
+    // Returns the number of frames now in the block.
+    private fun readBlock(inputBuffer: ByteBuffer, inputFrames: Int): Int {
+        val rs = resampler
+        if (rs == null) {
+            reader.read(inputBuffer, bufL, bufR, inputFrames)
+            return inputFrames
+        }
+        reader.read(inputBuffer, srcL, srcR, inputFrames)
+        return rs.process(srcL, srcR, inputFrames, bufL, bufR)
+    }
+
+    // Hands the finished block to whichever UI taps are being polled
+    private fun feedTaps(frames: Int) {
+        if (metering) meter.process(bufL, bufR, frames)
+        if (analyzing) analyzer.process(bufL, bufR, frames)
+    }
+
+    // Copies the block into dry, delayed to line up with the processed signal, or only
+    // records it when no crossfade needs the dry signal
+    private fun delayDry(frames: Int, crossfading: Boolean) {
+        if (crossfading) {
+            bufL.copyInto(dryL, 0, 0, frames)
+            bufR.copyInto(dryR, 0, 0, frames)
+            dryDelay.process(dryL, dryR, frames, latencyFrames)
+        } else {
+            dryDelay.write(bufL, bufR, frames)
+        }
+    }
+
+    // Blends processed (buf) and dry signal, ramping bypassMix towards target. Leaving
+    // bypass waits until the processed path's delay lines no longer replay cleared state.
+    private fun crossfadeBypass(frames: Int, target: Double) {
+        var mix = bypassMix
+        val step = if (target > mix) bypassStep else -bypassStep
+        val latency = latencyFrames
+        for (i in 0 until frames) {
+            if (mix >= 1.0 && wetFrames < latency) {
+                wetFrames++
+            } else if (mix != target) {
+                mix += step
+                if ((step > 0 && mix > target) || (step < 0 && mix < target)) mix = target
+            }
+            bufL[i] += (dryL[i] - bufL[i]) * mix
+            bufR[i] += (dryR[i] - bufR[i]) * mix
+        }
+        bypassMix = mix
+    }
+
+    // Ramps the block in after a seek
+    private fun declick(frames: Int) {
+        var gain = declickGain
+        for (i in 0 until frames) {
+            gain = min(gain + declickStep, 1.0)
+            bufL[i] *= gain
+            bufR[i] *= gain
+        }
+        declickGain = gain
+    }
+
+    // Clears all filter/envelope memory so re-entering the chain doesn't replay stale state
+    private fun resetDspState() {
+        for (bq in arrayOf(lp1L, lp2L, hp1L, hp2L, lp1R, lp2R, hp1R, hp2R)) bq.reset()
+        eq.reset()
+        multiband.reset()
+        dcX1L = 0.0; dcY1L = 0.0
+        dcX1R = 0.0; dcY1R = 0.0
+        envL = 0.0; envR = 0.0
+        filterL = 0.0; filterR = 0.0
+        convolution.reset()
+        limiter.reset()
+        wetFrames = 0
+        ditherL.reset(); ditherR.reset()
+    }
+
+    // Loudness normalization, straight after decoding: every stage sees the levelled signal,
+    // and audio the crossfader holds keeps the gain of the track it came from
+    private fun normalize(frames: Int) {
+        val coef = 1.0 - exp(-frames / (SMOOTHING_SECONDS * sampleRate))
+        normalizationGain.next(normalizationTarget, coef, frames)
+        if (normalizationGain.isSettledAt(1.0)) return
+        var gain = normalizationGain.start
+        val dGain = normalizationGain.step
+        for (i in 0 until frames) {
+            bufL[i] *= gain
+            bufR[i] *= gain
+            gain += dGain
+        }
+    }
+
+    // Runs every stage over the block, one tight loop per stage.
+    // Controls ramp from their `start` to `end` value across the block, so slider
+    // drags glide instead of stepping at block boundaries.
+    private fun processBlock(frames: Int) {
+        // 1. Parametric EQ (user bands)
+        if (precision == ProcessingPrecision.FLOAT32 && !eq.isFlat) {
+            toFloat(bufL, floatL, frames); toFloat(bufR, floatR, frames)
+            eq.process(floatL, floatR, frames)
+            toDouble(floatL, bufL, frames); toDouble(floatR, bufR, frames)
+        } else {
+            eq.process(bufL, bufR, frames)
+        }
+        mark(DspStage.EQ)
+
+        // 1b. Multiband compression/expansion on the EQ'd signal
+        multiband.process(bufL, bufR, frames)
+        mark(DspStage.MULTIBAND)
+
+        // 2. Adaptive Loudness (Quantum curve)
+        if (adaptiveLoudness.isActive) {
+            var comp = (1.0 - preGain.start).coerceIn(0.0, 0.5) * adaptiveLoudness.start * 0.25
+            val compEnd = (1.0 - preGain.end).coerceIn(0.0, 0.5) * adaptiveLoudness.end * 0.25
+            val dComp = (compEnd - comp) / frames
+            for (i in 0 until frames) {
+                val l = bufL[i]; val r = bufR[i]
+                bufL[i] = l + l * l * abs(l) * comp
+                bufR[i] = r + r * r * abs(r) * comp
+                comp += dComp
+            }
+        }
+
+        // 3. Hi-Fi Air (64-bit harmonics)
+        if (hiFiAir.isActive) {
+            var amount = hiFiAir.start * 0.35
+            val dAmount = hiFiAir.step * 0.35
+            for (i in 0 until frames) {
+                val l = bufL[i]; val r = bufR[i]
+                bufL[i] = l + (l - abs(l) * l) * amount
+                bufR[i] = r + (r - abs(r) * r) * amount
+                amount += dAmount
+            }
+        }
+
+        // 4. Gain Stage + 5. Tape Saturation (Warmer than Tanh)
+        var gain = preGain.start
+        val dGain = preGain.step
+        if (warmth.isActive) {
+            var drive = 1.0 + warmth.start
+            val dDrive = warmth.step
+            for (i in 0 until frames) {
+                val l = bufL[i] * gain; val r = bufR[i] * gain
+                val knee = drive * 0.5
+                bufL[i] = (l * drive) / (1.0 + abs(l * knee))
+                bufR[i] = (r * drive) / (1.0 + abs(r * knee))
+                gain += dGain
+                drive += dDrive
+            }
+        } else if (!preGain.isSettledAt(1.0)) {
+            for (i in 0 until frames) {
+                bufL[i] *= gain
+                bufR[i] *= gain
+                gain += dGain
+            }
+        }
+        mark(DspStage.TONE)
+
+        // --- SPLIT BANDS (Linkwitz-Riley 4th Order) ---
+        if (precision == ProcessingPrecision.FLOAT32) {
+            splitBandsFloat(frames)
+        } else {
+            bufL.copyInto(lowL, 0, 0, frames)
+            bufR.copyInto(lowR, 0, 0, frames)
+            lp1L.process(lowL, frames); lp2L.process(lowL, frames)
+            lp1R.process(lowR, frames); lp2R.process(lowR, frames)
+            hp1L.process(bufL, frames); hp2L.process(bufL, frames)
+            hp1R.process(bufR, frames); hp2R.process(bufR, frames)
+        }
+
+        // Apply Clarity (Transient Shaper + Exciter) to Highs
+        if (clarity.isActive) processClarity(frames)
+
+        // 6. Mastering Stereo Matrix (identity at width 1.0)
+        if (!width.isSettledAt(1.0)) processStereoMatrix(frames)
+
+        // --- ADVANCED BASS ENHANCEMENT ---
+        if (subBassDepth.isActive) processSubBass(frames)
+
+        // Recombine
+        for (i in 0 until frames) {
+            bufL[i] += lowL[i]
+            bufR[i] += lowR[i]
+        }
+        mark(DspStage.BANDS)
+
+        if (crossfeed.isActive) {
+            var mix = crossfeed.start * 0.28
+            val dMix = crossfeed.step * 0.28
+            for (i in 0 until frames) {
+                val l = bufL[i]; val r = bufR[i]
+                bufL[i] = l * (1.0 - mix) + r * mix
+                bufR[i] = r * (1.0 - mix) + l * mix
+                mix += dMix
+            }
+        }
+
+        if (balance.isActive) {
+            var bal = balance.start
+            val dBal = balance.step
+            for (i in 0 until frames) {
+                bufL[i] *= (1.0 - bal).coerceIn(0.0, 1.0)
+                bufR[i] *= (1.0 + bal).coerceIn(0.0, 1.0)
+                bal += dBal
+            }
+        }
+        mark(DspStage.SPATIAL)
+
+        // Impulse response convolution
+        convolution.process(bufL, bufR, frames)
+        mark(DspStage.CONVOLUTION)
+
+        // 7. 8D Audio Logic
+        if (eightDMix.isActive) process8D(frames)
+        mark(DspStage.EIGHT_D)
+
+        // 8. DC Blocker
+        processDcBlocker(frames)
+
+        // 9. Inter-Sample Peak Limiter (lookahead, -1 dBTP)
+        limiter.process(bufL, bufR, frames)
+        mark(DspStage.LIMITER)
+    }
+
+    // Charges the time since the last mark to `stage` while the load monitor is polled
+    private fun mark(stage: DspStage) {
+        if (profiling) loadMonitor.mark(stage)
+    }
+
+    // The LR4 split on single-precision copies: high band back into buf, low band into low
+    private fun splitBandsFloat(frames: Int) {
+        toFloat(bufL, floatL, frames); toFloat(bufR, floatR, frames)
+        floatL.copyInto(floatLowL, 0, 0, frames)
+        floatR.copyInto(floatLowR, 0, 0, frames)
+        lp1L.process(floatLowL, frames); lp2L.process(floatLowL, frames)
+        lp1R.process(floatLowR, frames); lp2R.process(floatLowR, frames)
+        hp1L.process(floatL, frames); hp2L.process(floatL, frames)
+        hp1R.process(floatR, frames); hp2R.process(floatR, frames)
+        toDouble(floatL, bufL, frames); toDouble(floatR, bufR, frames)
+        toDouble(floatLowL, lowL, frames); toDouble(floatLowR, lowR, frames)
+    }
+
+    private fun toFloat(src: DoubleArray, dst: FloatArray, frames: Int) {
+        for (i in 0 until frames) dst[i] = src[i].toFloat()
+    }
+
+    private fun toDouble(src: FloatArray, dst: DoubleArray, frames: Int) {
+        for (i in 0 until frames) dst[i] = src[i].toDouble()
+    }
+
+    private fun processClarity(frames: Int) {
+        var clarity = clarity.start
+        val dClarity = this.clarity.step
+        var envL = envL
+        var envR = envR
+        for (i in 0 until frames) {
+            val highL = bufL[i]; val highR = bufR[i]
+            val absL = abs(highL); val absR = abs(highR)
+
+            // 1. Harmonic Exciter (Shimmer)
+            val harmonicL = highL * absL * 0.2
+            val harmonicR = highR * absR * 0.2
+
+            // 2. Transient Shaper (Punch)
+            envL = envL * 0.9 + absL * 0.1
+            envR = envR * 0.9 + absR * 0.1
+
+            val transL = absL - envL
+            val transR = absR - envR
+
+            val boostL = if (transL > 0) transL * 0.6 else 0.0
+            val boostR = if (transR > 0) transR * 0.6 else 0.0
+
+            bufL[i] = highL + (harmonicL + boostL) * clarity
+            bufR[i] = highR + (harmonicR + boostR) * clarity
+            clarity += dClarity
+        }
+        this.envL = Denormals.flush(envL)
+        this.envR = Denormals.flush(envR)
+    }
+
+    private fun processStereoMatrix(frames: Int) {
+        var width = width.start
+        val dWidth = this.width.step
+        for (i in 0 until frames) {
+            // Vocal Protection: If widening, boost Mid slightly to keep vocals focus
+            val midGain = if (width > 1.0) 1.0 + (width - 1.0) * 0.15 else 1.0
+            val bassWidth = if (width > 1.0) 0.0 else width
+
+            // Process Highs (Widening with Vocal Protection)
+            val midHigh = (bufL[i] + bufR[i]) * 0.5 * midGain
+            val sideHigh = (bufL[i] - bufR[i]) * 0.5 * width
+            bufL[i] = midHigh + sideHigh
+            bufR[i] = midHigh - sideHigh
+
+            // Mono Bass Focus
+            val midLow = (lowL[i] + lowR[i]) * 0.5
+            val sideLow = (lowL[i] - lowR[i]) * 0.5 * bassWidth
+            lowL[i] = midLow + sideLow
+            lowR[i] = midLow - sideLow
+            width += dWidth
+        }
+    }
+
+    private fun processSubBass(frames: Int) {
+        var depth = subBassDepth.start
+        val dDepth = subBassDepth.step
+        val threshold = 0.85
+        for (i in 0 until frames) {
+            val drive = 1.0 + depth * 0.5
+            var l = harmonicExcite(lowL[i], drive, depth)
+            var r = harmonicExcite(lowR[i], drive, depth)
+            if (abs(l) > threshold) l = (threshold + (1.0 - threshold) * FastMath.tanh((l - threshold) / (1.0 - threshold)))
+            if (abs(r) > threshold) r = (threshold + (1.0 - threshold) * FastMath.tanh((r - threshold) / (1.0 - threshold)))
+            lowL[i] = l
+            lowR[i] = r
+            depth += dDepth
+        }
+    }
+
+    // Evaluates the trajectory at the oscillator's position into gainL8D/gainR8D/alpha8D
+    private fun eightDGains() {
+        val s = oscSin
+        val c = oscCos
+        // pan: -1 (left) .. 1 (right); depth: 1 (front) .. -1 (behind / below)
+        val pan: Double
+        val depth: Double
+        var volumeDepth = 0.3
+        when (eightDPath) {
+            EightDPath.CIRCLE -> { pan = s; depth = c }
+            // Lemniscate of Gerono: sin(2x) = 2*sin(x)*cos(x), so no extra trig
+            EightDPath.FIGURE_EIGHT -> { pan = s; depth = 2.0 * s * c }
+            // Vertical circle through the overhead point: only the filter tracks height
+            EightDPath.ELEVATION -> { pan = c; depth = s; volumeDepth = 0.0 }
+        }
+        val angle = (pan + 1.0) * PI / 4.0
+        val distanceMix = (1.0 - depth) / 2.0
+        val volumeScalar = 1.0 - (distanceMix * volumeDepth)
+        gainL8D = FastMath.cos(angle) * volumeScalar
+        gainR8D = FastMath.sin(angle) * volumeScalar
+        alpha8D = 1.0 - (distanceMix * 0.85)
+    }
+
+    // Position is evaluated at block edges only and the gains interpolated in between;
+    // at the slowest block rate (~86 Hz) a sub-1 Hz rotation moves far less than a degree
+    // per block, so the ramps are inaudible.
+    private fun process8D(frames: Int) {
+        eightDGains()
+        var gainL = gainL8D
+        var gainR = gainR8D
+        var lpfAlpha = alpha8D
+
+        // Rotate the oscillator by one block, then pull it back onto the unit circle
+        // (one Newton step of 1/sqrt) so rounding errors can't make it grow or decay
+        val delta = 2.0 * PI * rotationSpeed * frames / sampleRate
+        val cd = FastMath.cos(delta)
+        val sd = FastMath.sin(delta)
+        val s = oscSin * cd + oscCos * sd
+        val c = oscCos * cd - oscSin * sd
+        val norm = 1.5 - 0.5 * (s * s + c * c)
+        oscSin = s * norm
+        oscCos = c * norm
+
+        eightDGains()
+        val dGainL = (gainL8D - gainL) / frames
+        val dGainR = (gainR8D - gainR) / frames
+        val dAlpha = (alpha8D - lpfAlpha) / frames
+
+        var filterL = filterL
+        var filterR = filterR
+        var mix = eightDMix.start
+        val dMix = eightDMix.step
+        for (i in 0 until frames) {
+            gainL += dGainL
+            gainR += dGainR
+            lpfAlpha += dAlpha
+
+            val l = bufL[i]; val r = bufR[i]
+            filterL += lpfAlpha * (l - filterL)
+            filterR += lpfAlpha * (r - filterR)
+
+            bufL[i] = l + (filterL * gainL - l) * mix
+            bufR[i] = r + (filterR * gainR - r) * mix
+            mix += dMix
+        }
+        this.filterL = Denormals.flush(filterL)
+        this.filterR = Denormals.flush(filterR)
+    }
+
+    private fun processDcBlocker(frames: Int) {
+        var x1L = dcX1L; var y1L = dcY1L
+        var x1R = dcX1R; var y1R = dcY1R
+        for (i in 0 until frames) {
+            val l = bufL[i]
+            y1L = l - x1L + 0.995 * y1L
+            x1L = l
+            bufL[i] = y1L
+
+            val r = bufR[i]
+            y1R = r - x1R + 0.995 * y1R
+            x1R = r
+            bufR[i] = y1R
+        }
+        dcX1L = x1L; dcY1L = Denormals.flush(y1L)
+        dcX1R = x1R; dcY1R = Denormals.flush(y1R)
+    }
+
+    private fun applyDither(frames: Int, shaped: Boolean) {
+        if (shaped) {
+            ditherL.processShaped(bufL, frames)
+            ditherR.processShaped(bufR, frames)
+        } else {
+            ditherL.process(bufL, frames)
+            ditherR.process(bufR, frames)
+        }
+    }
+
+    private fun harmonicExcite(x: Double, drive: Double, depth: Double): Double {
+        val s = x * drive
+        // Soft clip curve: 1.5*x - 0.5*x^3
+        val limited = if (abs(s) > 1.0) (if (s > 0) 1.0 else -1.0) else (1.5 * s - 0.5 * s * s * s)
+        return x + (limited - x) * depth * 0.45
+    }
+}
@@ -0,0 +1,312 @@
+package com.helpofai.mymmusic.dsp
+
+import kotlin.math.PI
+import kotlin.math.cos
+import kotlin.math.ln
+import kotlin.math.max
+import kotlin.math.min
+import kotlin.math.sin
+
+/**
+ * Crossfade between consecutive tracks. [seconds] is the overlap (0 = gapless, no fade);
+ * with [beatAware] the fade starts on a beat of the outgoing track, which shortens it by
+ * less than one beat.
+ */
+data class CrossfadeSettings(
+    val seconds: Double = 0.0,
+    val beatAware: Boolean = false
+) {
+    init {
+        require(seconds in 0.0..TrackCrossfader.MAX_FADE_SECONDS) {
+            "Crossfade must be 0..${TrackCrossfader.MAX_FADE_SECONDS} s, got $seconds"
+        }
+    }
+
+    val enabled: Boolean get() = seconds > 0.0
+}
+
+/**
+ * Overlaps the end of one track with the start of the next using equal-power curves.
+ *
+ * The player hands over tracks back to back, so the stage delays everything by one fade
+ * length: the newest [CrossfadeSettings.seconds] of the playing track are always held in a
+ * ring buffer. When that track ends ([endOfStream]) and another follows, the held audio
+ * becomes the tail; after the boundary ([flush]) it is played out, its last part mixed with
+ * the head of the new track. The delay only shifts when audio is written, not the timeline,
+ * and the decoder refills it far faster than real time. A track start or seek without a
+ * tail only primes the delay.
+ *
+ * Audio is stored as float at the processing rate, after decoding, downmixing and
+ * resampling, so encoding and channel layout changes at the boundary don't matter; a rate
+ * change converts the tail once. Rings are allocated off the audio thread by [setSettings]
+ * and [configure], sized to the fade length, and adopted at the next [flush].
+ */
+class TrackCrossfader {
+
+    companion object {
+        const val MAX_FADE_SECONDS = 12.0
+
+        // Beat tracking: onset envelope resolution and the tempo range searched
+        private const val BEAT_HOP = 512
+        private const val MIN_BPM = 60.0
+        private const val MAX_BPM = 180.0
+        // Fewer beats than this in the tail can't give a reliable tempo
+        private const val MIN_BEATS = 4
+    }
+
+    // Two rings of equal size: one delays the playing track, the other plays out the tail
+    private class Rings(val sampleRate: Int, val delayFrames: Int, blockFrames: Int) {
+        val capacity = delayFrames + blockFrames
+        val left = arrayOf(FloatArray(capacity), FloatArray(capacity))
+        val right = arrayOf(FloatArray(capacity), FloatArray(capacity))
+        val onsets = DoubleArray(capacity / BEAT_HOP + 1)
+    }
+
+    @Volatile private var settings = CrossfadeSettings()
+    @Volatile private var pending: Rings? = null
+    private var blockFrames = 512
+    private var sampleRate = 48000
+
+    /** Whether another track follows the one being decoded; the player keeps it current. */
+    @Volatile var hasNextTrack = true
+
+    // Audio thread state
+    private var rings: Rings? = null
+    private var delaySlot = 0
+    private var writePos = 0
+    private var fill = 0
+    private var tailPending = false
+    private var tailStart = 0
+    private var tailFrames = 0
+    private var tailPos = 0
+    private var fadeStart = 0
+
+    /** Frames the playing track is held back by. */
+    val delayFrames: Int get() = rings?.delayFrames ?: 0
+
+    /** True while the stage holds or delays audio; otherwise it passes blocks through. */
+    val isActive: Boolean
+        get() {
+            val r = rings ?: return false
+            return r.delayFrames > 0 || fill > 0 || tailPos < tailFrames
+        }
+
+    /** Frames [drain] still has to play out. */
+    val pendingFrames: Int get() = fill + (tailFrames - tailPos)
+
+    /**
+     * Replaces the settings; allocates the rings on the calling thread. Takes effect from the
+     * next track or seek, since changing the delay mid-track would skip or repeat audio.
+     */
+    fun setSettings(settings: CrossfadeSettings) {
+        this.settings = settings
+        pending = if (settings.enabled) Rings(sampleRate, framesFor(settings, sampleRate), blockFrames) else null
+    }
+
+    /** Processing rate and largest block of the next track. May allocate; not for the audio thread. */
+    fun configure(sampleRate: Int, blockFrames: Int) {
+        this.sampleRate = sampleRate
+        this.blockFrames = blockFrames
+        val s = settings
+        val current = pending ?: rings
+        if (s.enabled && (current == null || current.sampleRate != sampleRate ||
+                current.delayFrames != framesFor(s, sampleRate))) {
+            pending = Rings(sampleRate, framesFor(s, sampleRate), blockFrames)
+        }
+    }
+
+    /**
+     * The playing track has ended. Returns true when its held audio is kept as the tail for
+     * the next track; false when it must be played out with [drain] (nothing follows, the
+     * fade is off, or an earlier tail is still playing).
+     */
+    fun endOfStream(): Boolean {
+        tailPending = settings.enabled && hasNextTrack && fill > 0 && tailPos >= tailFrames
+        return tailPending
+    }
+
+    /** Track boundary or seek: keeps a tail from [endOfStream], drops everything else. */
+    fun flush() {
+        val old = rings
+        // A tail held just before the fade was switched off still plays
+        val next = if (settings.enabled || tailPending) pending ?: old else null
+        pending = null
+        if (tailPending && old != null && next != null) {
+            if (next === old) {
+                // Same format: the delay ring becomes the tail as it is
+                tailStart = (writePos - fill + old.capacity) % old.capacity
+                tailFrames = fill
+                delaySlot = 1 - delaySlot
+            } else {
+                tailStart = 0
+                tailFrames = convertTail(old, next)
+                delaySlot = 0
+            }
+            // The whole tail overlaps the new track, so the delay ring never has to hold
+            // more than its own length while the tail plays
+            tailPos = 0
+            fadeStart = if (settings.beatAware) beatAlignedStart(next) else 0
+        } else {
+            tailFrames = 0; tailPos = 0; fadeStart = 0
+        }
+        rings = next
+        tailPending = false
+        writePos = 0
+        fill = 0
+    }
+
+    /** Drops all held audio and rings. */
+    fun reset() {
+        tailPending = false
+        rings = null
+        flush()
+    }
+
+    /**
+     * Delays [frames] frames of the block in place and returns how many came out (fewer while
+     * the delay primes). Audio thread.
+     */
+    fun process(left: DoubleArray, right: DoubleArray, frames: Int): Int {
+        val r = rings ?: return frames
+        val dl = r.left[delaySlot]
+        val dr = r.right[delaySlot]
+        for (i in 0 until frames) {
+            dl[writePos] = left[i].toFloat()
+            dr[writePos] = right[i].toFloat()
+            if (++writePos == r.capacity) writePos = 0
+        }
+        fill += frames
+        return emit(r, left, right, frames, r.delayFrames, draining = false)
+    }
+
+    /**
+     * Plays out up to [maxFrames] held frames into [left]/[right] once the stream has ended;
+     * a tail still fading mixes with silence. Returns 0 when empty.
+     */
+    fun drain(left: DoubleArray, right: DoubleArray, maxFrames: Int): Int {
+        val r = rings ?: return 0
+        return emit(r, left, right, maxFrames, 0, draining = true)
+    }
+
+    // Writes up to max frames: the tail before its fade, then delayed frames beyond `hold`,
+    // mixed with the fading tail while it lasts. Draining, the fade runs on against silence.
+    private fun emit(r: Rings, left: DoubleArray, right: DoubleArray, max: Int, hold: Int, draining: Boolean): Int {
+        val tl = r.left[1 - delaySlot]
+        val tr = r.right[1 - delaySlot]
+        var out = 0
+        while (out < max && tailPos < fadeStart) {
+            val t = (tailStart + tailPos) % r.capacity
+            left[out] = tl[t].toDouble()
+            right[out] = tr[t].toDouble()
+            tailPos++; out++
+        }
+        if (tailPos < fadeStart) return out
+
+        val dl = r.left[delaySlot]
+        val dr = r.right[delaySlot]
+        var read = (writePos - fill + r.capacity) % r.capacity
+        var available = max(fill - hold, 0)
+        val fadeFrames = tailFrames - fadeStart
+        while (out < max) {
+            val fading = tailPos < tailFrames
+            if (available == 0 && !(draining && fading)) break
+            var l = 0.0
+            var rr = 0.0
+            if (available > 0) {
+                l = dl[read].toDouble()
+                rr = dr[read].toDouble()
+                if (++read == r.capacity) read = 0
+                available--; fill--
+            }
+            if (fading) {
+                // Equal power: constant summed power for uncorrelated material
+                val x = (tailPos - fadeStart + 0.5) / fadeFrames * (PI / 2.0)
+                val t = (tailStart + tailPos) % r.capacity
+                val gIn = sin(x)
+                val gOut = cos(x)
+                l = l * gIn + tl[t] * gOut
+                rr = rr * gIn + tr[t] * gOut
+                tailPos++
+            }
+            left[out] = l
+            right[out] = rr
+            out++
+        }
+        return out
+    }
+
+    // Linear interpolation of the held audio into the new rings' tail slot, keeping the
+    // newest part when the fade got shorter
+    private fun convertTail(old: Rings, next: Rings): Int {
+        val sl = old.left[delaySlot]
+        val sr = old.right[delaySlot]
+        val start = (writePos - fill + old.capacity) % old.capacity
+        val ratio = old.sampleRate.toDouble() / next.sampleRate
+        val converted = ((fill - 1) / ratio).toInt() + 1
+        val frames = min(converted, next.delayFrames)
+        val skip = converted - frames
+        val dl = next.left[1]
+        val dr = next.right[1]
+        for (i in 0 until frames) {
+            val pos = (i + skip) * ratio
+            val k = pos.toInt()
+            val frac = pos - k
+            val a = (start + k) % old.capacity
+            val b = (start + min(k + 1, fill - 1)) % old.capacity
+            dl[i] = (sl[a] + (sl[b] - sl[a]) * frac).toFloat()
+            dr[i] = (sr[a] + (sr[b] - sr[a]) * frac).toFloat()
+        }
+        return frames
+    }
+
+    // Start of the fade on the first beat of the tail, so the incoming track comes in on the
+    // beat. Tempo from the autocorrelation of a log-energy onset envelope; 0 when unclear.
+    // The part before it plays unmixed while the new track primes, so it stays within the delay.
+    private fun beatAlignedStart(r: Rings): Int {
+        val rate = r.sampleRate
+        val minLag = (rate * 60.0 / MAX_BPM / BEAT_HOP).toInt()
+        val maxLag = (rate * 60.0 / MIN_BPM / BEAT_HOP).toInt() + 1
+        val hops = min(tailFrames / BEAT_HOP, r.onsets.size)
+        if (hops < maxLag * MIN_BEATS) return 0
+
+        val tl = r.left[1 - delaySlot]
+        val tr = r.right[1 - delaySlot]
+        val onsets = r.onsets
+        var previous = 0.0
+        for (h in 0 until hops) {
+            var energy = 0.0
+            for (i in h * BEAT_HOP until (h + 1) * BEAT_HOP) {
+                val t = (tailStart + i) % r.capacity
+                val m = tl[t].toDouble() + tr[t]
+                energy += m * m
+            }
+            val level = ln(energy + 1e-9)
+            onsets[h] = if (h == 0) 0.0 else max(level - previous, 0.0)
+            previous = level
+        }
+
+        var bestLag = 0
+        var bestScore = 0.0
+        for (lag in minLag..maxLag) {
+            var sum = 0.0
+            for (h in lag until hops) sum += onsets[h] * onsets[h - lag]
+            val score = sum / (hops - lag)
+            if (score > bestScore) { bestScore = score; bestLag = lag }
+        }
+        if (bestLag == 0) return 0
+
+        var bestPhase = 0
+        var phaseScore = -1.0
+        for (phase in 0 until bestLag) {
+            var sum = 0.0
+            var h = phase
+            while (h < hops) { sum += onsets[h]; h += bestLag }
+            if (sum > phaseScore) { phaseScore = sum; bestPhase = phase }
+        }
+
+        val aligned = bestPhase * BEAT_HOP
+        return if (aligned < min(tailFrames, r.delayFrames)) aligned else 0
+    }
+
+    private fun framesFor(settings: CrossfadeSettings, sampleRate: Int) = (settings.seconds * sampleRate).toInt()
+}
@@ -0,0 +1,48 @@
+package com.helpofai.mymmusic.dsp
+
+import kotlin.math.PI
+import kotlin.math.abs
+import kotlin.math.cos
+import kotlin.math.sin
+
+// 4x polyphase interpolator for true-peak estimation (ITU-R BS.1770 style), shared by the
+// limiter and the loudness meter. Only the three fractional phases are stored: phase 0
+// is the input itself, delayed by CENTER samples.
+internal object TruePeakFilter {
+    // Taps per phase; 4 phases x 12 taps matches the BS.1770 reference filter
+    const val TAPS = 12
+    const val CENTER = TAPS / 2
+    private const val OVERSAMPLING = 4
+
+    // Windowed-sinc coefficients for the phases 1/4, 2/4 and 3/4, each normalized to unity DC gain
+    val PHASES: Array<DoubleArray> = Array(OVERSAMPLING - 1) { p ->
+        val frac = (p + 1).toDouble() / OVERSAMPLING
+        val halfSpan = CENTER + 1.0
+        val taps = DoubleArray(TAPS) { j ->
+            val u = j - CENTER + frac
+            val sinc = if (u == 0.0) 1.0 else sin(PI * u) / (PI * u)
+            // Blackman window
+            val w = 0.42 + 0.5 * cos(PI * u / halfSpan) + 0.08 * cos(2.0 * PI * u / halfSpan)
+            sinc * w
+        }
+        val sum = taps.sum()
+        DoubleArray(TAPS) { taps[it] / sum }
+    }
+
+    // Largest output any phase can produce per unit of input peak
+    val INTERP_GAIN = PHASES.maxOf { phase -> phase.sumOf { abs(it) } }
+
+    /**
+     * Peak magnitude of the reconstructed signal around `hist[pos + CENTER]`, where
+     * `hist[pos + j]` holds the input j samples ago (see [TruePeakLimiter] for the layout).
+     */
+    fun peak(hist: DoubleArray, pos: Int): Double {
+        val p1 = PHASES[0]; val p2 = PHASES[1]; val p3 = PHASES[2]
+        var a1 = 0.0; var a2 = 0.0; var a3 = 0.0
+        for (j in 0 until TAPS) {
+            val h = hist[pos + j]
+            a1 += p1[j] * h; a2 += p2[j] * h; a3 += p3[j] * h
+        }
+        return maxOf(abs(hist[pos + CENTER]), abs(a1), abs(a2), abs(a3))
+    }
+}
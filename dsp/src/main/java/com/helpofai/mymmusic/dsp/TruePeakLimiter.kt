@@ -0,0 +1,185 @@
+package com.helpofai.mymmusic.dsp
+
+import kotlin.math.abs
+import kotlin.math.exp
+import kotlin.math.pow
+import kotlin.math.roundToInt
+
+/**
+ * Stereo-linked lookahead brickwall limiter that holds the output below [ceilingDb] dBTP,
+ * including inter-sample peaks.
+ *
+ * Per frame it:
+ *  1. estimates the true peak with a 4x polyphase interpolator (ITU-R BS.1770 style),
+ *  2. converts it into the gain that frame needs,
+ *  3. takes the minimum of that gain over the lookahead window (monotonic deque, O(1)),
+ *  4. smooths it with a moving average as long as the lookahead, so the gain has fully
+ *     ramped down by the time the peak leaves the delay line,
+ *  5. releases exponentially.
+ *
+ * Like the BS.1770 meter, the 4x estimate can under-read by up to ~0.7 dB for content close
+ * to Nyquist; sample peaks always stay below the ceiling.
+ *
+ * All buffers are allocated in [configure]; [process] never allocates.
+ */
+class TruePeakLimiter(
+    ceilingDb: Double = -1.0,
+    private val lookaheadSeconds: Double = 0.0015,
+    private val releaseSeconds: Double = 0.1
+) {
+
+    companion object {
+        private const val TAPS = TruePeakFilter.TAPS
+        private const val CENTER = TruePeakFilter.CENTER
+        // Samples either side of a detected peak that the gain must also cover, since the
+        // reconstructed waveform around a peak depends on its neighbours
+        private const val GUARD = 8
+    }
+
+    private val ceiling = 10.0.pow(ceilingDb / 20.0)
+    // Below this input level no interpolated sample can reach the ceiling
+    private val quietLevel = ceiling / TruePeakFilter.INTERP_GAIN
+
+    /** Delay the limiter adds to the signal, in frames. */
+    var latencyFrames = 0
+        private set
+
+    // Rate the buffers are sized for; 0 until the first configure
+    private var sampleRate = 0
+    private var lookahead = 1
+    private var window = 1
+    private var releaseCoef = 0.0
+
+    // Interpolator history, each sample written twice so a tap run never wraps
+    private val histL = DoubleArray(2 * TAPS)
+    private val histR = DoubleArray(2 * TAPS)
+    private var histPos = 0
+    // Frames until the last sample above quietLevel leaves the interpolator history
+    private var loudFrames = 0
+
+    // Sliding-window minimum of the required gain (values + frame numbers, as a ring deque)
+    private var minValues = DoubleArray(0)
+    private var minFrames = LongArray(0)
+    private var minHead = 0
+    private var minSize = 0
+    private var frame = 0L
+
+    // Moving average over the window minimum
+    private var avgRing = DoubleArray(0)
+    private var avgPos = 0
+    private var avgSum = 0.0
+
+    // Signal delay line
+    private var delayL = DoubleArray(0)
+    private var delayR = DoubleArray(0)
+    private var delayPos = 0
+
+    private var gain = 1.0
+
+    /**
+     * Sizes the buffers for [sampleRate]; call before [process], off the audio thread. A
+     * repeat call at the same rate keeps the history, so a gapless track boundary carries
+     * the lookahead across; [reset] clears it.
+     */
+    fun configure(sampleRate: Int) {
+        if (sampleRate == this.sampleRate) return
+        this.sampleRate = sampleRate
+        lookahead = (lookaheadSeconds * sampleRate).roundToInt().coerceAtLeast(1)
+        window = lookahead + 2 * GUARD
+        // The averaged gain is at or below a peak's requirement for frames
+        // [d + lookahead - 1, d + window - 1] after detection at d; the delay centres
+        // the peak (detected CENTER frames late) inside that span
+        latencyFrames = lookahead - 1 + CENTER + GUARD
+        releaseCoef = 1.0 - exp(-1.0 / (releaseSeconds * sampleRate))
+
+        minValues = DoubleArray(window + 1)
+        minFrames = LongArray(window + 1)
+        avgRing = DoubleArray(lookahead)
+        delayL = DoubleArray(latencyFrames + 1)
+        delayR = DoubleArray(latencyFrames + 1)
+        reset()
+    }
+
+    /** Clears all history; the next output starts from silence at unity gain. */
+    fun reset() {
+        histL.fill(0.0); histR.fill(0.0); histPos = 0; loudFrames = 0
+        minHead = 0; minSize = 0; frame = 0L
+        avgRing.fill(1.0); avgPos = 0; avgSum = lookahead.toDouble()
+        delayL.fill(0.0); delayR.fill(0.0); delayPos = 0
+        gain = 1.0
+    }
+
+    /** Limits [frames] samples of [left]/[right] in place, delayed by [latencyFrames]. */
+    fun process(left: DoubleArray, right: DoubleArray, frames: Int) {
+        val p1 = TruePeakFilter.PHASES[0]; val p2 = TruePeakFilter.PHASES[1]; val p3 = TruePeakFilter.PHASES[2]
+        val capacity = minValues.size
+        val delaySize = delayL.size
+        var gain = gain
+
+        for (i in 0 until frames) {
+            val l = left[i]; val r = right[i]
+
+            // --- True-peak estimate of the frame at the interpolator centre ---
+            histPos = if (histPos == 0) TAPS - 1 else histPos - 1
+            histL[histPos] = l; histL[histPos + TAPS] = l
+            histR[histPos] = r; histR[histPos + TAPS] = r
+            if (abs(l) > quietLevel || abs(r) > quietLevel) loudFrames = TAPS
+            var required = 1.0
+            // Quiet passages skip the interpolator entirely
+            if (loudFrames > 0) {
+                loudFrames--
+                var peak = maxOf(abs(histL[histPos + CENTER]), abs(histR[histPos + CENTER]))
+                var a1 = 0.0; var a2 = 0.0; var a3 = 0.0
+                var b1 = 0.0; var b2 = 0.0; var b3 = 0.0
+                for (j in 0 until TAPS) {
+                    val hl = histL[histPos + j]; val hr = histR[histPos + j]
+                    a1 += p1[j] * hl; a2 += p2[j] * hl; a3 += p3[j] * hl
+                    b1 += p1[j] * hr; b2 += p2[j] * hr; b3 += p3[j] * hr
+                }
+                peak = maxOf(peak, abs(a1), abs(a2), abs(a3))
+                peak = maxOf(peak, abs(b1), abs(b2), abs(b3))
+                if (peak > ceiling) required = ceiling / peak
+            }
+
+            // --- Sliding-window minimum: drop larger values from the back, stale from the front ---
+            var tail = minHead + minSize
+            if (tail >= capacity) tail -= capacity
+            while (minSize > 0) {
+                val last = if (tail == 0) capacity - 1 else tail - 1
+                if (minValues[last] < required) break
+                tail = last
+                minSize--
+            }
+            minValues[tail] = required
+            minFrames[tail] = frame
+            minSize++
+            if (minFrames[minHead] <= frame - window) {
+                if (++minHead == capacity) minHead = 0
+                minSize--
+            }
+            val held = minValues[minHead]
+
+            // --- Moving average (attack ramp), recomputed once per lap to cancel drift ---
+            avgSum += held - avgRing[avgPos]
+            avgRing[avgPos] = held
+            if (++avgPos == lookahead) {
+                avgPos = 0
+                avgSum = avgRing.sum()
+            }
+            val target = avgSum / lookahead
+
+            // Attack is already shaped by the average; only the release needs smoothing
+            gain = if (target < gain) target else gain + (target - gain) * releaseCoef
+            frame++
+
+            // --- Delay line ---
+            val readPos = if (delayPos + 1 == delaySize) 0 else delayPos + 1
+            delayL[delayPos] = l
+            delayR[delayPos] = r
+            left[i] = delayL[readPos] * gain
+            right[i] = delayR[readPos] * gain
+            delayPos = readPos
+        }
+        this.gain = gain
+    }
+}
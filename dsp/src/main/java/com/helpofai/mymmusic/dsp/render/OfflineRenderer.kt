@@ -0,0 +1,105 @@
+package com.helpofai.mymmusic.dsp.render
+
+import com.helpofai.mymmusic.dsp.DspParams
+import com.helpofai.mymmusic.dsp.PcmEncoding
+import com.helpofai.mymmusic.dsp.ProcessingPrecision
+import com.helpofai.mymmusic.dsp.StereoDspChain
+import java.io.File
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+import kotlin.math.min
+
+/**
+ * Streams WAV files through [StereoDspChain] as fast as the CPU allows, with the same
+ * processing the player applies. Controls start settled at [params] rather than gliding in.
+ * The chain's latency is compensated: output is frame-aligned with the input and just as long.
+ *
+ * Output is deterministic for a given input and preset: 16-bit dither comes from fixed-seed
+ * generators, so golden files can be rendered in either encoding.
+ */
+class OfflineRenderer(
+    private val params: DspParams,
+    private val blockFrames: Int = 4096,
+    private val outputEncoding: PcmEncoding = PcmEncoding.PCM_FLOAT,
+    private val precision: ProcessingPrecision = ProcessingPrecision.FLOAT64
+) {
+
+    init {
+        require(blockFrames > 0) { "Invalid block size: $blockFrames" }
+        require(outputEncoding == PcmEncoding.PCM_16BIT || outputEncoding == PcmEncoding.PCM_FLOAT) {
+            "Unsupported output encoding: $outputEncoding"
+        }
+    }
+
+    data class Result(
+        val input: File,
+        val output: File,
+        val frames: Long,
+        val sampleRate: Int,
+        val elapsedNanos: Long
+    ) {
+        /** Seconds of audio rendered per second of wall time. */
+        val realtimeFactor: Double
+            get() = frames.toDouble() / sampleRate / (elapsedNanos.coerceAtLeast(1) / 1e9)
+    }
+
+    /** Renders one file; a fresh chain per call keeps concurrent renders independent. */
+    fun render(input: File, output: File): Result = WavReader(input).use { reader ->
+        val format = reader.format
+        val chain = StereoDspChain()
+        chain.configure(format.sampleRate, format.channelCount, format.encoding, outputEncoding, precision = precision)
+        chain.setParams(params)
+        chain.settleParams()
+
+        val inBuffer = ByteBuffer.allocateDirect(blockFrames * format.bytesPerFrame).order(ByteOrder.nativeOrder())
+        val outBuffer = ByteBuffer.allocateDirect(chain.outputSize(inBuffer.capacity())).order(ByteOrder.nativeOrder())
+        val outputFormat = WavFormat(format.sampleRate, 2, outputEncoding)
+        var frames = 0L
+        // The chain's delay lines start out empty and hold the end of the file when it runs
+        // out: drop that much from the start, and push that much silence in after the end
+        var trimBytes = chain.latencyFrames * outputFormat.bytesPerFrame
+        var padFrames = chain.latencyFrames
+
+        val start = System.nanoTime()
+        WavWriter(output, outputFormat).use { writer ->
+            while (true) {
+                inBuffer.clear()
+                var read = reader.read(inBuffer)
+                if (read > 0) {
+                    frames += read
+                } else {
+                    if (padFrames == 0) break
+                    read = min(padFrames, blockFrames)
+                    padFrames -= read
+                    // All-zero bytes are silence in every supported encoding
+                    repeat(read * format.bytesPerFrame) { inBuffer.put(0) }
+                }
+                inBuffer.flip()
+                outBuffer.clear()
+                chain.process(inBuffer, outBuffer)
+                outBuffer.flip()
+                val trim = min(trimBytes, outBuffer.remaining())
+                outBuffer.position(trim)
+                trimBytes -= trim
+                writer.write(outBuffer)
+            }
+        }
+        Result(input, output, frames, format.sampleRate, System.nanoTime() - start)
+    }
+
+    /** Renders every input/output pair on a fixed pool of [threads] workers, in input order. */
+    fun renderAll(
+        jobs: List<Pair<File, File>>,
+        threads: Int = Runtime.getRuntime().availableProcessors()
+    ): List<Result> {
+        val pool = Executors.newFixedThreadPool(threads.coerceIn(1, jobs.size.coerceAtLeast(1)))
+        try {
+            return pool.invokeAll(jobs.map { (input, output) -> Callable { render(input, output) } })
+                .map { it.get() }
+        } finally {
+            pool.shutdown()
+        }
+    }
+}
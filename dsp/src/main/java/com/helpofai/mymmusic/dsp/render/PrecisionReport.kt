@@ -0,0 +1,145 @@
+package com.helpofai.mymmusic.dsp.render
+
+import com.helpofai.mymmusic.dsp.DspParams
+import com.helpofai.mymmusic.dsp.EqBandSpec
+import com.helpofai.mymmusic.dsp.PcmEncoding
+import com.helpofai.mymmusic.dsp.ProcessingPrecision
+import com.helpofai.mymmusic.dsp.StereoDspChain
+import kotlin.math.PI
+import kotlin.math.abs
+import kotlin.math.cos
+import kotlin.math.log10
+import kotlin.math.sin
+import kotlin.random.Random
+
+/**
+ * Quality of [ProcessingPrecision.FLOAT32] against the double path for one preset.
+ *
+ * THD+N is measured per precision on a sine: the fundamental is fitted by least squares at
+ * its known frequency and everything left over counts as distortion plus noise. The null
+ * test runs the same noise through both precisions and compares the outputs sample by
+ * sample, so it shows only what the float kernels change. Controls start settled, and the
+ * first [SETTLE_SECONDS] of every run are discarded so filter transients don't count.
+ */
+class PrecisionReport(
+    private val params: DspParams,
+    private val eqBands: List<EqBandSpec> = emptyList(),
+    private val sampleRate: Int = 48000
+) {
+
+    companion object {
+        private const val SETTLE_SECONDS = 0.25
+        private const val MEASURE_SECONDS = 1.0
+
+        /** Peaking boosts and cuts from 31 Hz to 16 kHz, low Q at the bottom where float hurts most. */
+        val TEST_EQ = listOf(
+            EqBandSpec(31.0, 6.0, 0.7), EqBandSpec(62.0, 4.0, 1.0), EqBandSpec(125.0, -3.0, 1.41),
+            EqBandSpec(250.0, 2.0, 1.41), EqBandSpec(500.0, -2.0, 1.41), EqBandSpec(1000.0, 1.5, 1.41),
+            EqBandSpec(2000.0, -1.5, 1.41), EqBandSpec(4000.0, 3.0, 1.41), EqBandSpec(8000.0, -4.0, 1.41),
+            EqBandSpec(16000.0, 5.0, 0.7)
+        )
+    }
+
+    data class Result(
+        val sampleRate: Int,
+        val thdNFloat64Db: Double,
+        val thdNFloat32Db: Double,
+        /** Difference between the two outputs relative to the double output; lower is better. */
+        val nullDb: Double
+    ) {
+        override fun toString(): String =
+            "%6d Hz: THD+N float64 %.1f dB, float32 %.1f dB, null %.1f dB".format(
+                sampleRate, thdNFloat64Db, thdNFloat32Db, nullDb)
+    }
+
+    fun measure(frequency: Double = 997.0, amplitude: Double = 0.25): Result {
+        val settle = (SETTLE_SECONDS * sampleRate).toInt()
+        val length = settle + (MEASURE_SECONDS * sampleRate).toInt()
+        val w = 2.0 * PI * frequency / sampleRate
+        val sine = FloatArray(length) { (amplitude * sin(w * it)).toFloat() }
+        val random = Random(7)
+        var lp = 0.0
+        val noise = FloatArray(length) {
+            lp = lp * 0.9 + random.nextDouble(-1.0, 1.0) * 0.1
+            (lp * amplitude * 2.0).toFloat()
+        }
+
+        val sine64 = run(ProcessingPrecision.FLOAT64, sine)
+        val sine32 = run(ProcessingPrecision.FLOAT32, sine)
+        val noise64 = run(ProcessingPrecision.FLOAT64, noise)
+        val noise32 = run(ProcessingPrecision.FLOAT32, noise)
+
+        var diff = 0.0
+        var ref = 0.0
+        for (i in settle until length) {
+            val d = noise32[i].toDouble() - noise64[i]
+            diff += d * d
+            ref += noise64[i].toDouble() * noise64[i]
+        }
+        return Result(
+            sampleRate,
+            thdN(sine64, settle, w),
+            thdN(sine32, settle, w),
+            10.0 * log10(diff / ref)
+        )
+    }
+
+    // Left channel of the chain's output for a mono signal fed to both inputs
+    private fun run(precision: ProcessingPrecision, input: FloatArray): FloatArray {
+        val chain = StereoDspChain()
+        chain.configure(sampleRate, 2, PcmEncoding.PCM_FLOAT, PcmEncoding.PCM_FLOAT, precision = precision)
+        chain.setParams(params)
+        chain.setEqBands(eqBands)
+        chain.settleParams()
+        val left = input.copyOf()
+        val right = input.copyOf()
+        chain.process(left, right, left.size)
+        return left
+    }
+
+    // Residual power after removing the best-fitting sinusoid at w (plus DC), relative to it
+    private fun thdN(x: FloatArray, from: Int, w: Double): Double {
+        // Normal equations of x ~ a sin + b cos + c
+        val m = Array(3) { DoubleArray(3) }
+        val v = DoubleArray(3)
+        for (i in from until x.size) {
+            val basis = doubleArrayOf(sin(w * i), cos(w * i), 1.0)
+            for (r in 0 until 3) {
+                v[r] += basis[r] * x[i]
+                for (c in 0 until 3) m[r][c] += basis[r] * basis[c]
+            }
+        }
+        val (a, b, c) = solve(m, v)
+        var fundamental = 0.0
+        var residual = 0.0
+        for (i in from until x.size) {
+            val fit = a * sin(w * i) + b * cos(w * i)
+            val e = x[i] - fit - c
+            fundamental += fit * fit
+            residual += e * e
+        }
+        return 10.0 * log10(residual / fundamental)
+    }
+
+    // Gaussian elimination with partial pivoting; 3x3 only
+    private fun solve(m: Array<DoubleArray>, v: DoubleArray): DoubleArray {
+        val n = v.size
+        for (col in 0 until n) {
+            val pivot = (col until n).maxByOrNull { abs(m[it][col]) }!!
+            m[col] = m[pivot].also { m[pivot] = m[col] }
+            v[col] = v[pivot].also { v[pivot] = v[col] }
+            for (row in col + 1 until n) {
+                val f = m[row][col] / m[col][col]
+                for (k in col until n) m[row][k] -= f * m[col][k]
+                v[row] -= f * v[col]
+            }
+        }
+        val x = DoubleArray(n)
+        for (row in n - 1 downTo 0) {
+            var sum = v[row]
+            for (k in row + 1 until n) sum -= m[row][k] * x[k]
+            x[row] = sum / m[row][row]
+        }
+        return x
+    }
+}
@@ -0,0 +1,76 @@
+package com.helpofai.mymmusic.dsp.render
+
+import com.helpofai.mymmusic.dsp.DspParams
+import com.helpofai.mymmusic.dsp.PcmEncoding
+import com.helpofai.mymmusic.dsp.ProcessingPrecision
+import java.io.File
+import java.util.Properties
+import kotlin.system.exitProcess
+
+private const val USAGE =
+    "usage: render [--preset file.properties] [--block frames] [--encoding 16|float] [--precision 32|64] " +
+        "[--threads n] --out dir input.wav...\n       render [--preset file.properties] --report"
+
+/**
+ * Command-line entry point: `./gradlew :dsp:render --args="--preset p.properties --out out a.wav b.wav"`.
+ * Prints the realtime factor of every rendered file. With `--report` it renders nothing and
+ * prints the [PrecisionReport] of the preset instead.
+ */
+fun main(args: Array<String>) {
+    var params = DspParams()
+    var blockFrames = 4096
+    var encoding = PcmEncoding.PCM_FLOAT
+    var precision = ProcessingPrecision.FLOAT64
+    var report = false
+    var threads = Runtime.getRuntime().availableProcessors()
+    var outDir: File? = null
+    val inputs = mutableListOf<File>()
+
+    var i = 0
+    fun value(): String = args.getOrNull(++i) ?: fail("missing value for ${args[i - 1]}")
+    while (i < args.size) {
+        when (val arg = args[i]) {
+            "--preset" -> params = File(value()).reader().use { DspParams.fromProperties(Properties().apply { load(it) }) }
+            "--block" -> blockFrames = value().toIntOrNull() ?: fail("invalid block size")
+            "--encoding" -> encoding = when (value()) {
+                "16" -> PcmEncoding.PCM_16BIT
+                "float" -> PcmEncoding.PCM_FLOAT
+                else -> fail("encoding must be 16 or float")
+            }
+            "--precision" -> precision = when (value()) {
+                "32" -> ProcessingPrecision.FLOAT32
+                "64" -> ProcessingPrecision.FLOAT64
+                else -> fail("precision must be 32 or 64")
+            }
+            "--report" -> report = true
+            "--threads" -> threads = value().toIntOrNull() ?: fail("invalid thread count")
+            "--out" -> outDir = File(value())
+            else -> if (arg.startsWith("--")) fail("unknown option $arg") else inputs += File(arg)
+        }
+        i++
+    }
+    if (report) {
+        // The preset on its own, then with a demanding EQ on top
+        for (rate in intArrayOf(44100, 48000, 96000, 192000)) {
+            println("preset     " + PrecisionReport(params, sampleRate = rate).measure())
+            println("preset+EQ  " + PrecisionReport(params, PrecisionReport.TEST_EQ, rate).measure())
+        }
+        return
+    }
+    val dir = outDir ?: fail("--out is required")
+    if (inputs.isEmpty()) fail("no input files")
+    dir.mkdirs()
+
+    val renderer = OfflineRenderer(params, blockFrames, encoding, precision)
+    val results = renderer.renderAll(inputs.map { it to File(dir, it.name) }, threads)
+    for (r in results) {
+        println("%s: %d frames @ %d Hz, %.1f ms, %.1fx realtime".format(
+            r.input.name, r.frames, r.sampleRate, r.elapsedNanos / 1e6, r.realtimeFactor))
+    }
+}
+
+private fun fail(message: String): Nothing {
+    System.err.println("render: $message")
+    System.err.println(USAGE)
+    exitProcess(2)
+}
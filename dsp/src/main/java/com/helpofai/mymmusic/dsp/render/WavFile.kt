@@ -0,0 +1,157 @@
+package com.helpofai.mymmusic.dsp.render
+
+import com.helpofai.mymmusic.dsp.PcmEncoding
+import java.io.Closeable
+import java.io.File
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.nio.channels.FileChannel
+
+data class WavFormat(val sampleRate: Int, val channelCount: Int, val encoding: PcmEncoding) {
+    val bytesPerFrame: Int get() = channelCount * encoding.bytesPerSample
+}
+
+private const val FORMAT_PCM = 1
+private const val FORMAT_IEEE_FLOAT = 3
+private const val FORMAT_EXTENSIBLE = 0xFFFE
+
+/**
+ * Streaming reader for RIFF/WAVE files holding 16/24/32-bit integer or 32-bit float PCM
+ * (plain or WAVE_FORMAT_EXTENSIBLE). Sample data is never loaded as a whole.
+ */
+class WavReader(file: File) : Closeable {
+    private val channel: FileChannel = RandomAccessFile(file, "r").channel
+    val format: WavFormat
+    val frameCount: Long
+    private var remainingBytes: Long
+
+    init {
+        try {
+            val (parsedFormat, dataBytes) = parseHeader(file)
+            format = parsedFormat
+            remainingBytes = dataBytes
+            frameCount = dataBytes / format.bytesPerFrame
+        } catch (e: IOException) {
+            channel.close()
+            throw e
+        }
+    }
+
+    /** Fills [buffer] with whole frames; returns the number of frames read, 0 at end of data. */
+    fun read(buffer: ByteBuffer): Int {
+        val frameBytes = format.bytesPerFrame
+        val wanted = minOf(buffer.remaining().toLong() / frameBytes * frameBytes, remainingBytes).toInt()
+        if (wanted == 0) return 0
+        val limit = buffer.limit()
+        buffer.limit(buffer.position() + wanted)
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) throw IOException("Unexpected end of WAV data")
+        }
+        buffer.limit(limit)
+        remainingBytes -= wanted
+        return wanted / frameBytes
+    }
+
+    override fun close() = channel.close()
+
+    // Walks the chunk list up to the data chunk; returns the format and data size in bytes
+    private fun parseHeader(file: File): Pair<WavFormat, Long> {
+        val header = readBytes(12)
+        if (header.int != RIFF || header.getInt(8) != WAVE) throw IOException("$file is not a RIFF/WAVE file")
+
+        var format: WavFormat? = null
+        while (true) {
+            val chunk = readBytes(8)
+            val id = chunk.int
+            val size = chunk.int.toLong() and 0xFFFFFFFFL
+            when (id) {
+                FMT -> format = parseFormat(readBytes(size.toInt()))
+                DATA -> {
+                    val parsed = format ?: throw IOException("$file: data chunk before fmt chunk")
+                    // Streaming writers may leave the size unpatched; clamp to what is on disk
+                    return parsed to minOf(size, channel.size() - channel.position())
+                }
+                else -> channel.position(channel.position() + size + (size and 1))
+            }
+        }
+    }
+
+    private fun readBytes(count: Int): ByteBuffer {
+        val buffer = ByteBuffer.allocate(count).order(ByteOrder.LITTLE_ENDIAN)
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) throw IOException("Truncated WAV header")
+        }
+        buffer.flip()
+        return buffer
+    }
+
+    private fun parseFormat(fmt: ByteBuffer): WavFormat {
+        var tag = fmt.getShort(0).toInt() and 0xFFFF
+        val channels = fmt.getShort(2).toInt()
+        val sampleRate = fmt.getInt(4)
+        val bits = fmt.getShort(14).toInt()
+        if (tag == FORMAT_EXTENSIBLE && fmt.limit() >= 26) {
+            // First two bytes of the SubFormat GUID carry the actual format tag
+            tag = fmt.getShort(24).toInt() and 0xFFFF
+        }
+        val encoding = when {
+            tag == FORMAT_PCM && bits == 16 -> PcmEncoding.PCM_16BIT
+            tag == FORMAT_PCM && bits == 24 -> PcmEncoding.PCM_24BIT
+            tag == FORMAT_PCM && bits == 32 -> PcmEncoding.PCM_32BIT
+            tag == FORMAT_IEEE_FLOAT && bits == 32 -> PcmEncoding.PCM_FLOAT
+            else -> throw IOException("Unsupported WAV format: tag=$tag bits=$bits")
+        }
+        return WavFormat(sampleRate, channels, encoding)
+    }
+}
+
+/** Streaming WAV writer; chunk sizes are patched into the header on [close]. */
+class WavWriter(file: File, val format: WavFormat) : Closeable {
+    private val channel: FileChannel = RandomAccessFile(file, "rw").channel
+    private var dataBytes = 0L
+
+    init {
+        channel.truncate(0)
+        channel.write(header())
+    }
+
+    /** Appends the remaining bytes of [buffer] (interleaved, native little-endian). */
+    fun write(buffer: ByteBuffer) {
+        while (buffer.hasRemaining()) dataBytes += channel.write(buffer)
+    }
+
+    override fun close() {
+        channel.use {
+            it.position(0)
+            it.write(header())
+        }
+    }
+
+    private fun header(): ByteBuffer {
+        val bits = format.encoding.bytesPerSample * 8
+        return ByteBuffer.allocate(44).order(ByteOrder.LITTLE_ENDIAN).apply {
+            putInt(RIFF)
+            putInt((36 + dataBytes).toInt())
+            putInt(WAVE)
+            putInt(FMT)
+            putInt(16)
+            putShort((if (format.encoding == PcmEncoding.PCM_FLOAT) FORMAT_IEEE_FLOAT else FORMAT_PCM).toShort())
+            putShort(format.channelCount.toShort())
+            putInt(format.sampleRate)
+            putInt(format.sampleRate * format.bytesPerFrame)
+            putShort(format.bytesPerFrame.toShort())
+            putShort(bits.toShort())
+            putInt(DATA)
+            putInt(dataBytes.toInt())
+            flip()
+        }
+    }
+}
+
+// Chunk ids as little-endian ints
+private const val RIFF = 0x46464952 // "RIFF"
+private const val WAVE = 0x45564157 // "WAVE"
+private const val FMT = 0x20746d66  // "fmt "
+private const val DATA = 0x61746164 // "data"
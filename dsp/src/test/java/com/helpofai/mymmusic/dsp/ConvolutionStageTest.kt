@@ -0,0 +1,108 @@
+package com.helpofai.mymmusic.dsp
+
+import org.junit.Test
+
+import org.junit.Assert.*
+import kotlin.math.PI
+import kotlin.math.abs
+import kotlin.math.sin
+
+/**
+ * The chain's convolution slot: latency only while a convolver runs, and swaps that
+ * neither drop out nor cut off.
+ */
+class ConvolutionStageTest {
+
+    private val rate = 48000
+    private val latency = ConvolutionStage.LATENCY
+
+    private fun stage() = ConvolutionStage(512).apply { configure(rate) }
+
+    // An IR that only scales: the wet path is the input, delayed by one partition
+    private fun gain(g: Double) = PartitionedConvolver(ImpulseResponse(rate, listOf(doubleArrayOf(g))))
+
+    private fun input(n: Int) = 0.5 * sin(2.0 * PI * 440.0 * n / rate)
+
+    // Runs `frames` frames of the tone through the stage from frame `offset`; returns the left channel
+    private fun ConvolutionStage.run(offset: Int, frames: Int): DoubleArray {
+        val out = DoubleArray(frames)
+        val l = DoubleArray(512)
+        val r = DoubleArray(512)
+        var done = 0
+        while (done < frames) {
+            val n = minOf(512, frames - done)
+            for (i in 0 until n) { l[i] = input(offset + done + i); r[i] = l[i] }
+            process(l, r, n)
+            l.copyInto(out, done, 0, n)
+            done += n
+        }
+        return out
+    }
+
+    // Largest sample-to-sample step of the tone at `peak` amplitude
+    private fun toneSlope(peak: Double) = peak * 2.0 * PI * 440.0 / rate
+
+    @Test
+    fun withoutConvolver_passesThroughWithoutLatency() {
+        val stage = stage()
+        val out = stage.run(0, rate / 10)
+        assertFalse(stage.isActive)
+        assertEquals(0, stage.latencyFrames)
+        for (i in out.indices) assertEquals("frame $i", input(i), out[i], 0.0)
+    }
+
+    @Test
+    fun loadingConvolver_fadesIntoTheDelayedSignal() {
+        val stage = stage()
+        stage.run(0, rate / 10)
+
+        stage.set(gain(1.0))
+        assertTrue(stage.isActive)
+        val out = stage.run(rate / 10, rate / 10)
+        assertEquals(latency, stage.latencyFrames)
+
+        // From the input to the input a partition later, without a jump
+        assertEquals(input(rate / 10), out[0], 0.01)
+        val last = out.size - 1
+        assertEquals(input(rate / 10 + last - latency), out[last], 1e-12)
+        for (i in 1 until out.size) {
+            assertTrue("step at $i", abs(out[i] - out[i - 1]) <= toneSlope(0.5) * 1.05)
+        }
+    }
+
+    @Test
+    fun swappingConvolver_continuesTheDelayedSignal() {
+        val stage = stage()
+        stage.set(gain(1.0))
+        stage.run(0, rate / 10)
+
+        // Two identity IRs sound the same, so the output must not change at all: no
+        // partition of silence while the new convolver fills up
+        stage.set(gain(1.0))
+        val out = stage.run(rate / 10, rate / 10)
+        for (i in out.indices) {
+            assertEquals("frame $i", input(rate / 10 + i - latency), out[i], 1e-12)
+        }
+    }
+
+    @Test
+    fun removingConvolver_fadesOutBeforeGoingNeutral() {
+        val stage = stage()
+        stage.set(gain(2.0))
+        stage.run(0, rate / 10)
+
+        stage.set(null)
+        assertTrue(stage.isActive)
+        val out = stage.run(rate / 10, rate / 10)
+        assertFalse(stage.isActive)
+        assertEquals(0, stage.latencyFrames)
+
+        // From twice the delayed input down to the input itself, without a jump
+        assertEquals(2.0 * input(rate / 10 - latency), out[0], 0.01)
+        val last = out.size - 1
+        assertEquals(input(rate / 10 + last), out[last], 0.0)
+        for (i in 1 until out.size) {
+            assertTrue("step at $i", abs(out[i] - out[i - 1]) <= toneSlope(1.0) * 1.05)
+        }
+    }
+}
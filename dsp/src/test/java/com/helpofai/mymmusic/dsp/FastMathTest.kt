@@ -0,0 +1,86 @@
+package com.helpofai.mymmusic.dsp
+
+import org.junit.Test
+
+import org.junit.Assert.*
+import kotlin.math.abs
+
+/**
+ * Holds every [FastMath] function to its documented error bound.
+ */
+class FastMathTest {
+
+    private fun maxError(from: Double, to: Double, step: Double, fast: (Double) -> Double, exact: (Double) -> Double): Double {
+        var worst = 0.0
+        var x = from
+        while (x <= to) {
+            worst = maxOf(worst, abs(fast(x) - exact(x)))
+            x += step
+        }
+        return worst
+    }
+
+    @Test
+    fun tanh_isWithinBound() {
+        val error = maxError(-20.0, 20.0, 1e-4, FastMath::tanh, { kotlin.math.tanh(it) })
+        assertTrue("tanh error $error", error <= FastMath.TANH_MAX_ERROR)
+    }
+
+    @Test
+    fun tanh_saturatesAndStaysMonotonic() {
+        assertEquals(1.0, FastMath.tanh(1e300), 0.0)
+        assertEquals(-1.0, FastMath.tanh(-1e300), 0.0)
+        assertEquals(0.0, FastMath.tanh(0.0), 0.0)
+        var previous = FastMath.tanh(-8.0)
+        var x = -8.0
+        while (x <= 8.0) {
+            val y = FastMath.tanh(x)
+            assertTrue("not monotonic at $x", y >= previous)
+            previous = y
+            x += 1e-3
+        }
+    }
+
+    @Test
+    fun sinCos_areWithinBound() {
+        val sinError = maxError(-50.0, 50.0, 1e-4, FastMath::sin, { kotlin.math.sin(it) })
+        val cosError = maxError(-50.0, 50.0, 1e-4, FastMath::cos, { kotlin.math.cos(it) })
+        assertTrue("sin error $sinError", sinError <= FastMath.SIN_MAX_ERROR)
+        assertTrue("cos error $cosError", cosError <= FastMath.SIN_MAX_ERROR)
+    }
+
+    @Test
+    fun sinCos_holdForLargePhases() {
+        val error = maxError(1e6 - 10.0, 1e6, 1e-3, FastMath::sin, { kotlin.math.sin(it) })
+        assertTrue("sin error $error at large phase", error <= FastMath.SIN_MAX_ERROR)
+    }
+
+    @Test
+    fun log2_isWithinBound() {
+        var worst = 0.0
+        var x = 1e-12
+        // Geometric sweep over 24 decades, so every mantissa region is hit many times
+        while (x < 1e12) {
+            worst = maxOf(worst, abs(FastMath.log2(x) - kotlin.math.ln(x) / kotlin.math.ln(2.0)))
+            x *= 1.0001
+        }
+        assertTrue("log2 error $worst", worst <= FastMath.LOG2_MAX_ERROR)
+        assertEquals(-1075.0, FastMath.log2(0.0), 0.0)
+        assertEquals(-1075.0, FastMath.log2(-1.0), 0.0)
+    }
+
+    @Test
+    fun exp2_isWithinRelativeBound() {
+        var worst = 0.0
+        var x = -60.0
+        while (x <= 60.0) {
+            val exact = Math.pow(2.0, x)
+            worst = maxOf(worst, abs(FastMath.exp2(x) - exact) / exact)
+            x += 1e-4
+        }
+        assertTrue("exp2 relative error $worst", worst <= FastMath.EXP2_MAX_RELATIVE_ERROR)
+        assertEquals(1.0, FastMath.exp2(0.0), 0.0)
+        assertTrue(FastMath.exp2(-5000.0) > 0.0)
+        assertTrue(FastMath.exp2(5000.0).isFinite())
+    }
+}
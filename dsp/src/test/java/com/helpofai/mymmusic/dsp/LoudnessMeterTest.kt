@@ -0,0 +1,128 @@
+package com.helpofai.mymmusic.dsp
+
+import org.junit.Test
+
+import org.junit.Assert.*
+import kotlin.math.PI
+import kotlin.math.log10
+import kotlin.math.pow
+import kotlin.math.sin
+import kotlin.math.sqrt
+
+/**
+ * BS.1770 / EBU R128 readings of the [LoudnessMeter] against the reference values of the
+ * standard and of the EBU Tech 3341 (loudness) and Tech 3342 (loudness range) test signals.
+ */
+class LoudnessMeterTest {
+
+    private val rate = 48000
+
+    private fun dbToLinear(db: Double) = 10.0.pow(db / 20.0)
+
+    // Feeds `seconds` of a sine with the given peak amplitude, identical on both channels
+    private fun LoudnessMeter.sine(seconds: Double, amplitude: Double, hz: Double = 1000.0, phase: Double = 0.0) {
+        val l = DoubleArray(4800)
+        val frames = (seconds * rate).toInt()
+        var done = 0
+        while (done < frames) {
+            val n = minOf(l.size, frames - done)
+            for (i in 0 until n) l[i] = amplitude * sin(2.0 * PI * hz * (done + i) / rate + phase)
+            process(l, l, n)
+            done += n
+        }
+    }
+
+    // Tech 3341/3342 levels are the sine's peak in dBFS, on both channels
+    private fun LoudnessMeter.tone(seconds: Double, peakDb: Double) = sine(seconds, dbToLinear(peakDb))
+
+    @Test
+    fun sine997_atMinus20DbfsRms_readsMinus20Mono() {
+        val meter = LoudnessMeter(rate, 1)
+        meter.sine(10.0, dbToLinear(-20.0) * sqrt(2.0), hz = 997.0)
+        assertEquals(-20.0, meter.integratedLufs, 0.05)
+        assertEquals(-20.0, meter.momentaryLufs, 0.05)
+        assertEquals(-20.0, meter.shortTermLufs, 0.05)
+    }
+
+    @Test
+    fun sine997_atMinus20DbfsRms_readsMinus17Stereo() {
+        // Two channels carry twice the power: +3 dB
+        val meter = LoudnessMeter(rate, 2)
+        meter.sine(10.0, dbToLinear(-20.0) * sqrt(2.0), hz = 997.0)
+        assertEquals(-17.0, meter.integratedLufs, 0.05)
+    }
+
+    @Test
+    fun relativeGate_ignoresPassagesMoreThan10LuBelow() {
+        val meter = LoudnessMeter(rate, 2)
+        meter.tone(10.0, -20.0)
+        meter.tone(10.0, -36.0)
+        // Ungated, the mean power of both halves would read about -22.9 LUFS
+        assertEquals(-20.0, meter.integratedLufs, 0.1)
+    }
+
+    @Test
+    fun absoluteGate_ignoresSilence() {
+        val meter = LoudnessMeter(rate, 2)
+        meter.sine(5.0, 0.0)
+        assertEquals(Double.NEGATIVE_INFINITY, meter.integratedLufs, 0.0)
+        // Blocks straddling the edges of the tone are partly silent but still pass the gates
+        meter.tone(20.0, -23.0)
+        meter.sine(5.0, 0.0)
+        assertEquals(-23.0, meter.integratedLufs, 0.1)
+    }
+
+    @Test
+    fun tech3341_case1And2_steadyTones() {
+        for (level in doubleArrayOf(-23.0, -33.0)) {
+            val meter = LoudnessMeter(rate, 2)
+            meter.tone(20.0, level)
+            assertEquals("I at $level", level, meter.integratedLufs, 0.1)
+            assertEquals("M at $level", level, meter.momentaryLufs, 0.1)
+            assertEquals("S at $level", level, meter.shortTermLufs, 0.1)
+        }
+    }
+
+    @Test
+    fun tech3341_case3_gatesQuietEnds() {
+        val meter = LoudnessMeter(rate, 2)
+        meter.tone(10.0, -36.0)
+        meter.tone(60.0, -23.0)
+        meter.tone(10.0, -36.0)
+        assertEquals(-23.0, meter.integratedLufs, 0.1)
+    }
+
+    @Test
+    fun tech3341_case4_gatesBothWays() {
+        val meter = LoudnessMeter(rate, 2)
+        meter.tone(10.0, -72.0)
+        meter.tone(10.0, -36.0)
+        meter.tone(60.0, -23.0)
+        meter.tone(10.0, -36.0)
+        meter.tone(10.0, -72.0)
+        assertEquals(-23.0, meter.integratedLufs, 0.1)
+    }
+
+    @Test
+    fun tech3342_loudnessRange() {
+        // Cases 1-3: 20 s at one level, then 20 s at another
+        for ((first, second, range) in listOf(Triple(-20.0, -30.0, 10.0), Triple(-20.0, -15.0, 5.0), Triple(-40.0, -20.0, 20.0))) {
+            val meter = LoudnessMeter(rate, 2)
+            meter.tone(20.0, first)
+            meter.tone(20.0, second)
+            assertEquals("LRA of $first/$second", range, meter.loudnessRange, 1.0)
+        }
+    }
+
+    @Test
+    fun truePeak_findsPeaksBetweenSamples() {
+        // A quarter-rate sine 45 degrees off the sample grid: every sample sits 3 dB below
+        // the waveform's peak
+        val meter = LoudnessMeter(rate, 2)
+        meter.sine(1.0, dbToLinear(-6.0), hz = rate / 4.0, phase = PI / 4)
+        // Tech 3341 allows +0.2 / -0.4 dB
+        assertEquals(-6.0 - 0.1, meter.truePeakDb, 0.3)
+        val samplePeak = 20.0 * log10(dbToLinear(-6.0) * sin(PI / 4))
+        assertTrue("${meter.truePeakDb}", meter.truePeakDb > samplePeak + 2.5)
+    }
+}
@@ -0,0 +1,84 @@
+package com.helpofai.mymmusic.dsp
+
+import org.junit.Test
+
+import org.junit.Assert.*
+import kotlin.math.PI
+import kotlin.math.log10
+import kotlin.math.sin
+import kotlin.math.sqrt
+
+/**
+ * The band split sums back flat, so the stage only changes the level where it compresses.
+ */
+class MultibandCompressorTest {
+
+    private val rate = 48000
+
+    private fun compressor(settings: MultibandSettings) = MultibandCompressor(512).apply {
+        configure(rate)
+        setSettings(settings)
+    }
+
+    // RMS level of the last half of a second of `amplitude * sin`, relative to the input, in dB
+    private fun MultibandCompressor.gainDb(hz: Double, amplitude: Double): Double {
+        val l = DoubleArray(512)
+        val r = DoubleArray(512)
+        val frames = rate
+        var energy = 0.0
+        var done = 0
+        while (done < frames) {
+            val n = minOf(512, frames - done)
+            for (i in 0 until n) {
+                l[i] = amplitude * sin(2.0 * PI * hz * (done + i) / rate)
+                r[i] = l[i]
+            }
+            process(l, r, n)
+            if (done >= frames / 2) for (i in 0 until n) energy += l[i] * l[i]
+            done += n
+        }
+        val rms = sqrt(energy / (frames - frames / 2))
+        return 20.0 * log10(rms / (amplitude * sqrt(0.5)))
+    }
+
+    // Within the error of the fast log/exp gain computer
+    private val flatDb = 0.05
+    private val unity = CompressorBand(ratio = 1.0, expanderRatio = 1.0, makeupDb = 0.0)
+    private val frequencies = doubleArrayOf(40.0, 200.0, 700.0, 2500.0, 6000.0, 15000.0)
+
+    @Test
+    fun threeBands_atOneToOne_sumFlat() {
+        val settings = MultibandSettings(enabled = true, crossovers = listOf(200.0, 2500.0), bands = List(3) { unity })
+        for (hz in frequencies) {
+            assertEquals("$hz Hz", 0.0, compressor(settings).gainDb(hz, 0.5), flatDb)
+        }
+    }
+
+    @Test
+    fun fourBands_atOneToOne_sumFlat() {
+        val settings = MultibandSettings(enabled = true, crossovers = listOf(120.0, 1000.0, 6000.0), bands = List(4) { unity })
+        for (hz in frequencies) {
+            assertEquals("$hz Hz", 0.0, compressor(settings).gainDb(hz, 0.5), flatDb)
+        }
+    }
+
+    @Test
+    fun disabled_leavesSignalUntouched() {
+        val stage = compressor(MultibandSettings(enabled = false))
+        assertFalse(stage.isActive)
+        val l = DoubleArray(64) { sin(it * 0.1) }
+        val r = l.copyOf()
+        stage.process(l, r, 64)
+        for (i in 0 until 64) assertEquals(sin(i * 0.1), l[i], 0.0)
+    }
+
+    @Test
+    fun loudBand_isCompressedAboveThreshold() {
+        // -6 dBFS into a 4:1 compressor at -20 dB: 14 dB over, so 10.5 dB down on the static
+        // curve. The peak detector releases a little between peaks, so slightly less.
+        val band = CompressorBand(thresholdDb = -20.0, ratio = 4.0, kneeDb = 0.0, makeupDb = 0.0)
+        val settings = MultibandSettings(enabled = true, crossovers = listOf(200.0, 2500.0), bands = List(3) { band })
+        val gain = compressor(settings).gainDb(700.0, 0.5)
+        assertTrue("$gain dB", gain >= -10.5 - flatDb && gain < -8.0)
+    }
+}
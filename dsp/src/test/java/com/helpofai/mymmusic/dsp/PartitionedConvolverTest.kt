@@ -0,0 +1,123 @@
+package com.helpofai.mymmusic.dsp
+
+import org.junit.Test
+
+import org.junit.Assert.*
+import kotlin.math.PI
+import kotlin.math.cos
+import kotlin.math.sin
+import kotlin.random.Random
+
+/**
+ * Partitioned convolution against the direct sum, and the [RealFft] underneath it.
+ */
+class PartitionedConvolverTest {
+
+    private val random = Random(7)
+
+    private fun noise(frames: Int) = DoubleArray(frames) { random.nextDouble(-0.5, 0.5) }
+
+    @Test
+    fun realFft_matchesDirectDft() {
+        val size = 64
+        val fft = RealFft(size)
+        val x = noise(size)
+        val re = DoubleArray(size / 2 + 1)
+        val im = DoubleArray(size / 2 + 1)
+        fft.forward(x, re, im)
+        for (k in 0..size / 2) {
+            var sumRe = 0.0
+            var sumIm = 0.0
+            for (n in 0 until size) {
+                sumRe += x[n] * cos(2.0 * PI * k * n / size)
+                sumIm -= x[n] * sin(2.0 * PI * k * n / size)
+            }
+            assertEquals("re[$k]", sumRe, re[k], 1e-12)
+            assertEquals("im[$k]", sumIm, im[k], 1e-12)
+        }
+
+        val back = DoubleArray(size)
+        fft.inverse(re, im, back)
+        for (n in 0 until size) assertEquals("x[$n]", x[n], back[n], 1e-14)
+    }
+
+    // Runs the convolver over `left`/`right` in uneven blocks, as the chain's buffers arrive
+    private fun PartitionedConvolver.run(left: DoubleArray, right: DoubleArray) {
+        var offset = 0
+        var size = 100
+        while (offset < left.size) {
+            val n = minOf(size, left.size - offset)
+            val l = left.copyOfRange(offset, offset + n)
+            val r = right.copyOfRange(offset, offset + n)
+            process(l, r, n)
+            l.copyInto(left, offset)
+            r.copyInto(right, offset)
+            offset += n
+            size = if (size == 100) 300 else 100
+        }
+    }
+
+    // y[n] = sum of h[k] * x[n - delay - k]
+    private fun direct(x: DoubleArray, h: DoubleArray, n: Int, delay: Int): Double {
+        var sum = 0.0
+        for (k in h.indices) {
+            val i = n - delay - k
+            if (i >= 0) sum += h[k] * x[i]
+        }
+        return sum
+    }
+
+    @Test
+    fun stereoIr_matchesDirectConvolution() {
+        // Three partitions, the last one partial
+        val hL = noise(600)
+        val hR = noise(600)
+        val conv = PartitionedConvolver(ImpulseResponse(48000, listOf(hL, hR)))
+        val xL = noise(4000)
+        val xR = noise(4000)
+        val left = xL.copyOf()
+        val right = xR.copyOf()
+        conv.run(left, right)
+
+        for (n in left.indices) {
+            assertEquals("left $n", direct(xL, hL, n, conv.latencyFrames), left[n], 1e-12)
+            assertEquals("right $n", direct(xR, hR, n, conv.latencyFrames), right[n], 1e-12)
+        }
+    }
+
+    @Test
+    fun trueStereoIr_crossFeedsBothChannels() {
+        // WAV order L->L, L->R, R->L, R->R
+        val paths = List(4) { noise(300) }
+        val conv = PartitionedConvolver(ImpulseResponse(48000, paths))
+        val xL = noise(2000)
+        val xR = noise(2000)
+        val left = xL.copyOf()
+        val right = xR.copyOf()
+        conv.run(left, right)
+
+        val latency = conv.latencyFrames
+        for (n in left.indices) {
+            val expectedL = direct(xL, paths[0], n, latency) + direct(xR, paths[2], n, latency)
+            val expectedR = direct(xL, paths[1], n, latency) + direct(xR, paths[3], n, latency)
+            assertEquals("left $n", expectedL, left[n], 1e-12)
+            assertEquals("right $n", expectedR, right[n], 1e-12)
+        }
+    }
+
+    @Test
+    fun mix_blendsWithAlignedDrySignal() {
+        val h = noise(400)
+        val conv = PartitionedConvolver(ImpulseResponse(48000, listOf(h)), mix = 0.25)
+        val x = noise(2000)
+        val left = x.copyOf()
+        val right = x.copyOf()
+        conv.run(left, right)
+
+        val latency = conv.latencyFrames
+        for (n in left.indices) {
+            val dry = if (n >= latency) x[n - latency] else 0.0
+            assertEquals("frame $n", 0.75 * dry + 0.25 * direct(x, h, n, latency), left[n], 1e-12)
+        }
+    }
+}
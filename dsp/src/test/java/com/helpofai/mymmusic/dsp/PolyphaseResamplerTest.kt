@@ -0,0 +1,84 @@
+package com.helpofai.mymmusic.dsp
+
+import org.junit.Test
+
+import org.junit.Assert.*
+import kotlin.math.PI
+import kotlin.math.abs
+import kotlin.math.log10
+import kotlin.math.sin
+
+/**
+ * Rate conversion: output length follows the ratio, passband tones keep their level, tones
+ * beyond the lower Nyquist frequency are suppressed to the quality's stopband, and reset
+ * forgets the history.
+ */
+class PolyphaseResamplerTest {
+
+    // Converts `seconds` of a sine at `hz`, in uneven blocks; returns the left channel
+    private fun convert(resampler: PolyphaseResampler, hz: Double, seconds: Double): DoubleArray {
+        val frames = (seconds * resampler.inputRate).toInt()
+        val inL = DoubleArray(700)
+        val outL = DoubleArray(resampler.maxOutputFrames(inL.size))
+        val outR = DoubleArray(outL.size)
+        val out = ArrayList<Double>()
+        var done = 0
+        var size = 700
+        while (done < frames) {
+            val n = minOf(size, frames - done)
+            for (i in 0 until n) inL[i] = 0.5 * sin(2.0 * PI * hz * (done + i) / resampler.inputRate)
+            val produced = resampler.process(inL, inL, n, outL, outR)
+            for (i in 0 until produced) out.add(outL[i])
+            done += n
+            size = if (size == 700) 129 else 700
+        }
+        return out.toDoubleArray()
+    }
+
+    // Peak of the output once the filter has filled, relative to the 0.5 input, in dB
+    private fun steadyLevelDb(out: DoubleArray, resampler: PolyphaseResampler): Double {
+        var peak = 0.0
+        for (i in 2 * resampler.latencyFrames until out.size) peak = maxOf(peak, abs(out[i]))
+        return 20.0 * log10(peak / 0.5)
+    }
+
+    @Test
+    fun outputLength_followsTheRatio() {
+        for ((from, to) in listOf(44100 to 48000, 48000 to 44100, 48000 to 96000, 96000 to 48000)) {
+            val resampler = PolyphaseResampler(from, to)
+            val out = convert(resampler, 1000.0, 1.0)
+            assertEquals("$from -> $to", to.toDouble(), out.size.toDouble(), 1.0)
+        }
+    }
+
+    @Test
+    fun passbandTone_keepsItsLevel() {
+        for ((from, to) in listOf(44100 to 48000, 48000 to 44100)) {
+            val resampler = PolyphaseResampler(from, to)
+            val level = steadyLevelDb(convert(resampler, 1000.0, 0.5), resampler)
+            assertEquals("$from -> $to", 0.0, level, 0.01)
+        }
+    }
+
+    @Test
+    fun toneAboveTargetNyquist_isSuppressed() {
+        // 23.5 kHz exists at 48 kHz but would alias to 20.6 kHz at 44.1 kHz
+        for (quality in ResamplerQuality.values()) {
+            val resampler = PolyphaseResampler(48000, 44100, quality)
+            val level = steadyLevelDb(convert(resampler, 23500.0, 0.5), resampler)
+            assertTrue("$quality: $level dB", level < -quality.stopbandDb + 10.0)
+        }
+    }
+
+    @Test
+    fun reset_forgetsHistory() {
+        val resampler = PolyphaseResampler(44100, 48000)
+        convert(resampler, 1000.0, 0.1)
+        resampler.reset()
+        val silence = DoubleArray(512)
+        val outL = DoubleArray(resampler.maxOutputFrames(512))
+        val outR = DoubleArray(outL.size)
+        val produced = resampler.process(silence, silence, 512, outL, outR)
+        for (i in 0 until produced) assertEquals("frame $i", 0.0, outL[i], 0.0)
+    }
+}
@@ -0,0 +1,108 @@
+package com.helpofai.mymmusic.dsp
+
+import org.junit.Test
+
+import org.junit.Assert.*
+import kotlin.math.PI
+import kotlin.math.abs
+import kotlin.math.sin
+
+/**
+ * Skip-silence gate: what it drops, what it reports as dropped, and that a seek never
+ * swallows soft audio.
+ */
+class SilenceGateTest {
+
+    private val rate = 48000
+    private val settings = SilenceSettings(thresholdDb = -60.0, hysteresisDb = 6.0, minSilenceMs = 500.0)
+
+    private fun gate(): SilenceGate = SilenceGate().apply {
+        setSettings(settings)
+        configure(rate)
+        flush()
+    }
+
+    // Runs `frames` frames of `level * sin` (0 = digital silence) through the gate; returns frames out
+    private fun SilenceGate.feed(frames: Int, level: Double): Int {
+        val l = DoubleArray(512)
+        val r = DoubleArray(512)
+        var out = 0
+        var done = 0
+        while (done < frames) {
+            val n = minOf(512, frames - done)
+            for (i in 0 until n) {
+                l[i] = level * sin(2.0 * PI * 440.0 * (done + i) / rate)
+                r[i] = l[i]
+            }
+            out += process(l, r, n)
+            done += n
+        }
+        return out
+    }
+
+    @Test
+    fun sustainedSilence_isDroppedAndCounted() {
+        val gate = gate()
+        var out = gate.feed(rate, 0.5)
+        out += gate.feed(3 * rate, 0.0)
+        out += gate.feed(rate, 0.5)
+        val l = DoubleArray(512); val r = DoubleArray(512)
+        out += gate.drain(l, r)
+
+        // Everything comes out or is reported as skipped
+        assertEquals(5L * rate, out + gate.skippedFrames)
+        // The first minSilenceMs of the pause stays; the rest (less the ramps) is dropped
+        val skippedSeconds = gate.skippedFrames.toDouble() / rate
+        assertEquals(2.5, skippedSeconds, 0.01)
+    }
+
+    @Test
+    fun shortPause_isKept() {
+        val gate = gate()
+        gate.feed(rate, 0.5)
+        gate.feed(rate / 4, 0.0)
+        gate.feed(rate, 0.5)
+        assertEquals(0L, gate.skippedFrames)
+    }
+
+    @Test
+    fun seek_startsOpenOnSoftAudio() {
+        val gate = gate()
+        gate.feed(rate, 0.5)
+        gate.feed(3 * rate, 0.0)
+        gate.flush()
+        assertEquals(0L, gate.skippedFrames)
+
+        // -58 dBFS sits between the close (-60) and open (-54) levels: not silence, but too
+        // soft to reopen a closed gate
+        val soft = 0.00126
+        val out = gate.feed(rate, soft)
+        assertEquals(0L, gate.skippedFrames)
+        assertEquals(rate - gate.pendingFrames, out)
+    }
+
+    @Test
+    fun splice_rampsWithoutSteps() {
+        val gate = gate()
+        val l = DoubleArray(512); val r = DoubleArray(512)
+        val output = ArrayList<Double>()
+        fun run(frames: Int, level: Double) {
+            var done = 0
+            while (done < frames) {
+                val n = minOf(512, frames - done)
+                for (i in 0 until n) { l[i] = level * sin(2.0 * PI * 440.0 * (done + i) / rate); r[i] = l[i] }
+                val out = gate.process(l, r, n)
+                for (i in 0 until out) output.add(l[i])
+                done += n
+            }
+        }
+        run(rate, 0.5)
+        run(2 * rate, 0.0)
+        run(rate, 0.5)
+        // No sample jumps further than the tone itself moves per sample
+        val toneSlope = 0.5 * 2.0 * PI * 440.0 / rate
+        for (i in 1 until output.size) {
+            assertTrue("step at $i", abs(output[i] - output[i - 1]) <= toneSlope * 1.01)
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package com.helpofai.mymmusic.dsp
+
+import org.junit.Test
+
+import org.junit.Assert.*
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import kotlin.math.PI
+import kotlin.math.abs
+import kotlin.math.min
+import kotlin.math.sin
+
+/**
+ * Stream handling of the whole chain: gapless track boundaries are sample-continuous,
+ * seeks start from rest with a declick ramp, bypass keeps the processed latency, and the
+ * normalization gain changes tracks at the stream boundary, even through a crossfade.
+ */
+class StereoDspChainTest {
+
+    private val params = DspParams(width = 1.2, warmth = 0.3, clarity = 0.4)
+
+    private fun sine(frames: Int, offset: Int, rate: Int, hz: Double = 440.0): ByteBuffer {
+        val buffer = ByteBuffer.allocateDirect(frames * 8).order(ByteOrder.nativeOrder())
+        for (i in 0 until frames) {
+            val x = (0.5 * sin(2.0 * PI * hz * (offset + i) / rate)).toFloat()
+            buffer.putFloat(x); buffer.putFloat(x)
+        }
+        buffer.flip()
+        return buffer
+    }
+
+    private fun newChain(inputRate: Int, outputRate: Int?): StereoDspChain {
+        val chain = StereoDspChain()
+        chain.setParams(params)
+        chain.configure(inputRate, 2, PcmEncoding.PCM_FLOAT, targetSampleRate = outputRate)
+        chain.settleParams()
+        chain.flush()
+        return chain
+    }
+
+    private fun StereoDspChain.run(input: ByteBuffer, out: FloatArrayBuilder) {
+        val buffer = ByteBuffer.allocateDirect(outputSize(input.remaining())).order(ByteOrder.nativeOrder())
+        process(input, buffer)
+        out.addLeft(buffer)
+    }
+
+    private fun StereoDspChain.endTrack(out: FloatArrayBuilder) {
+        val buffer = ByteBuffer.allocateDirect(endOfStreamSize()).order(ByteOrder.nativeOrder())
+        endOfStream(buffer)
+        out.addLeft(buffer)
+    }
+
+    private fun StereoDspChain.boundary(inputRate: Int, outputRate: Int?, out: FloatArrayBuilder) {
+        endTrack(out)
+        configure(inputRate, 2, PcmEncoding.PCM_FLOAT, targetSampleRate = outputRate)
+        flush()
+    }
+
+    // Left channel of the float output, in order
+    private class FloatArrayBuilder {
+        private val values = ArrayList<Float>()
+        fun addLeft(buffer: ByteBuffer) {
+            buffer.flip()
+            while (buffer.remaining() >= 8) { values.add(buffer.getFloat()); buffer.getFloat() }
+        }
+        fun toArray() = values.toFloatArray()
+    }
+
+    private fun assertGapless(inputRate: Int, outputRate: Int?) {
+        val first = 44100 / 3 + 17
+        val second = 44100 / 2
+
+        val continuous = FloatArrayBuilder()
+        newChain(inputRate, outputRate).run(sine(first + second, 0, inputRate), continuous)
+
+        val split = FloatArrayBuilder()
+        val chain = newChain(inputRate, outputRate)
+        chain.run(sine(first, 0, inputRate), split)
+        chain.boundary(inputRate, outputRate, split)
+        chain.run(sine(second, first, inputRate), split)
+
+        val expected = continuous.toArray()
+        val actual = split.toArray()
+        assertEquals("frame count", expected.size, actual.size)
+        for (i in expected.indices) {
+            assertEquals("frame $i of ${expected.size}", expected[i], actual[i], 1e-6f)
+        }
+    }
+
+    @Test
+    fun trackBoundary_isSampleContinuous() {
+        assertGapless(44100, null)
+    }
+
+    @Test
+    fun trackBoundary_isSampleContinuousWhileResampling() {
+        assertGapless(44100, 48000)
+    }
+
+    @Test
+    fun seek_startsFromRestAndRampsIn() {
+        val out = FloatArrayBuilder()
+        val chain = newChain(48000, null)
+        chain.run(sine(48000, 0, 48000), out)
+        chain.flush()
+        val afterSeek = FloatArrayBuilder()
+        chain.run(sine(4800, 0, 48000), afterSeek)
+        val samples = afterSeek.toArray()
+        // Nothing from before the seek comes out of the limiter's delay line
+        assertEquals(0f, samples[0], 0f)
+        var maxStep = 0f
+        for (i in 1 until samples.size) maxStep = maxOf(maxStep, abs(samples[i] - samples[i - 1]))
+        // A 440 Hz sine at this level moves at most ~0.03 per sample; a click would jump further
+        assertTrue("step $maxStep", maxStep < 0.05f)
+    }
+
+    @Test
+    fun bypassFade_staysAlignedWithProcessedSignal() {
+        val rate = 48000
+        val chain = StereoDspChain()
+        chain.configure(rate, 2, PcmEncoding.PCM_FLOAT)
+        chain.settleParams()
+        chain.flush()
+        val latency = chain.latencyFrames
+        // A tone that a dry path off by `latency` frames would meet in antiphase
+        val hz = (2 * (4000 * latency / rate) + 1) * rate / (2.0 * latency)
+
+        // Bypassed, then processed at a gain too small to see, then bypassed again; buffer
+        // sizes on both sides of the latency take the bulk-copy and the block path
+        val out = FloatArrayBuilder()
+        var offset = 0
+        fun play(frames: Int) {
+            var done = 0
+            var size = 1000
+            while (done < frames) {
+                val n = min(size, frames - done)
+                chain.run(sine(n, offset + done, rate, hz), out)
+                done += n
+                size = if (size == 1000) 37 else 1000
+            }
+            offset += frames
+        }
+        play(rate / 2)
+        chain.setParams(DspParams(preGain = 1.001))
+        play(rate / 2)
+        chain.setParams(DspParams())
+        play(rate)
+
+        val samples = out.toArray()
+        assertEquals(offset, samples.size)
+        fun delayedInput(i: Int) = 0.5 * sin(2.0 * PI * hz * (i - latency) / rate)
+        // Bypassed (past the declick) the output is the input `latency` frames earlier, so
+        // nothing was skipped or repeated on the way through processing and back
+        for (i in latency + rate / 100 until rate / 2) {
+            assertEquals("frame $i", delayedInput(i), samples[i].toDouble(), 1e-6)
+        }
+        for (i in samples.size - rate / 8 until samples.size) {
+            assertEquals("frame $i", delayedInput(i), samples[i].toDouble(), 1e-6)
+        }
+        // No comb dip while the two paths are blended
+        val window = 48
+        for (start in latency + rate / 100 until samples.size - window step window) {
+            var peak = 0f
+            for (i in start until start + window) peak = maxOf(peak, abs(samples[i]))
+            assertEquals("level at $start", 0.5, peak.toDouble(), 0.05)
+        }
+    }
+
+    @Test
+    fun nextNormalizationGain_takesOverAtTheTrackBoundary() {
+        val rate = 48000
+        val segment = rate / 4
+        val chain = StereoDspChain()
+        chain.configure(rate, 2, PcmEncoding.PCM_FLOAT)
+        chain.setNormalizationGain(-6.0)
+        chain.settleParams()
+        chain.setNextNormalizationGain(-12.0)
+
+        val out = FloatArrayBuilder()
+        chain.run(sine(segment, 0, rate), out)
+        // A seek keeps the playing track's gain...
+        chain.flush()
+        chain.run(sine(segment, segment, rate), out)
+        // ...the end of the stream hands over to the next track's
+        chain.endTrack(out)
+        chain.flush()
+        chain.run(sine(segment, 2 * segment, rate), out)
+
+        val samples = out.toArray()
+        fun peakBefore(end: Int) = (end - rate / 8 until end).maxOf { abs(samples[it]) }.toDouble()
+        assertEquals(0.5 * 0.501, peakBefore(segment), 0.005)
+        assertEquals(0.5 * 0.501, peakBefore(2 * segment), 0.005)
+        assertEquals(0.5 * 0.251, peakBefore(3 * segment), 0.005)
+    }
+
+    @Test
+    fun normalizationGain_staysWithItsTrackThroughTheCrossfade() {
+        val rate = 48000
+        val chain = StereoDspChain()
+        chain.configure(rate, 2, PcmEncoding.PCM_FLOAT)
+        chain.setCrossfade(CrossfadeSettings(seconds = 1.0))
+        chain.flush()
+        chain.setNormalizationGain(-6.0)
+        chain.settleParams()
+        chain.setNextNormalizationGain(-12.0)
+
+        var offset = 0
+        while (offset < rate * 3 / 2) {
+            chain.run(sine(4096, offset, rate), FloatArrayBuilder())
+            offset += 4096
+        }
+        // The whole held tail stays for the next track
+        val held = FloatArrayBuilder()
+        chain.endTrack(held)
+        assertEquals(0, held.toArray().size)
+        chain.flush()
+
+        // The next track is silent, so once it fills the delay the output is the held tail of
+        // the first one fading out from full level; levelled before it was held, it keeps -6 dB
+        val out = FloatArrayBuilder()
+        repeat(11) {
+            chain.run(ByteBuffer.allocateDirect(rate / 10 * 8).order(ByteOrder.nativeOrder()), out)
+        }
+        val samples = out.toArray()
+        val peak = (rate / 50 until rate / 20).maxOf { abs(samples[it]) }.toDouble()
+        assertEquals(0.5 * 0.501, peak, 0.005)
+    }
+}
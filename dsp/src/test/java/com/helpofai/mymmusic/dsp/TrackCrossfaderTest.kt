@@ -0,0 +1,111 @@
+package com.helpofai.mymmusic.dsp
+
+import org.junit.Test
+
+import org.junit.Assert.*
+import kotlin.math.PI
+import kotlin.math.cos
+import kotlin.math.sin
+
+/**
+ * Track-to-track crossfades: the tail of one track overlaps the head of the next on
+ * equal-power curves, and nothing is lost or repeated around them.
+ */
+class TrackCrossfaderTest {
+
+    private val rate = 8000
+    private val fadeFrames = rate / 2
+
+    private fun crossfader(seconds: Double) = TrackCrossfader().apply {
+        configure(rate, 512)
+        setSettings(CrossfadeSettings(seconds))
+        flush()
+    }
+
+    // Plays `frames` frames of a constant `level` through the stage; appends what comes out
+    private fun TrackCrossfader.play(frames: Int, level: Double, out: MutableList<Double>) {
+        val l = DoubleArray(512)
+        val r = DoubleArray(512)
+        var done = 0
+        while (done < frames) {
+            val n = minOf(512, frames - done)
+            l.fill(level, 0, n); r.fill(level, 0, n)
+            val produced = process(l, r, n)
+            for (i in 0 until produced) out.add(l[i])
+            done += n
+        }
+    }
+
+    private fun TrackCrossfader.drainAll(out: MutableList<Double>) {
+        val l = DoubleArray(512)
+        val r = DoubleArray(512)
+        while (true) {
+            val n = drain(l, r, 512)
+            if (n == 0) break
+            for (i in 0 until n) out.add(l[i])
+        }
+    }
+
+    @Test
+    fun disabled_passesBlocksThrough() {
+        val stage = crossfader(0.0)
+        assertFalse(stage.isActive)
+        val out = ArrayList<Double>()
+        stage.play(1000, 0.25, out)
+        assertEquals(1000, out.size)
+        assertFalse(stage.endOfStream())
+    }
+
+    @Test
+    fun trackBoundary_overlapsOnEqualPowerCurves() {
+        val stage = crossfader(0.5)
+        val out = ArrayList<Double>()
+        val first = 3 * rate
+        val second = 2 * rate
+        stage.play(first, 1.0, out)
+        assertTrue(stage.endOfStream())
+        stage.configure(rate, 512)
+        stage.flush()
+        stage.play(second, 0.5, out)
+        stage.hasNextTrack = false
+        assertFalse(stage.endOfStream())
+        stage.drainAll(out)
+
+        // The overlap is the only audio the two tracks share
+        assertEquals(first + second - fadeFrames, out.size)
+        val fadeStart = first - fadeFrames
+        for (i in 0 until fadeStart) assertEquals("frame $i", 1.0, out[i], 1e-6)
+        for (k in 0 until fadeFrames) {
+            val x = (k + 0.5) / fadeFrames * (PI / 2.0)
+            assertEquals("fade frame $k", 0.5 * sin(x) + 1.0 * cos(x), out[fadeStart + k], 1e-6)
+        }
+        for (i in first until out.size) assertEquals("frame $i", 0.5, out[i], 1e-6)
+    }
+
+    @Test
+    fun lastTrack_playsOutWithoutFade() {
+        val stage = crossfader(0.5)
+        stage.hasNextTrack = false
+        val out = ArrayList<Double>()
+        stage.play(rate, 1.0, out)
+        assertFalse(stage.endOfStream())
+        stage.drainAll(out)
+        assertEquals(rate, out.size)
+        for (i in out.indices) assertEquals("frame $i", 1.0, out[i], 1e-6)
+    }
+
+    @Test
+    fun seek_dropsHeldAudioWithoutTail() {
+        val stage = crossfader(0.5)
+        val out = ArrayList<Double>()
+        stage.play(rate, 1.0, out)
+        stage.flush()
+        assertEquals(0, stage.pendingFrames)
+
+        // The new position primes the delay again; none of the old audio comes back
+        val after = ArrayList<Double>()
+        stage.play(rate, 0.5, after)
+        assertEquals(rate - fadeFrames, after.size)
+        for (i in after.indices) assertEquals("frame $i", 0.5, after[i], 1e-6)
+    }
+}
@@ -0,0 +1,66 @@
+package com.helpofai.mymmusic.dsp.render
+
+import com.helpofai.mymmusic.dsp.DspParams
+import com.helpofai.mymmusic.dsp.PcmEncoding
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import java.io.File
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import kotlin.random.Random
+
+/**
+ * Rendered files line up with their input: the chain's latency is trimmed from the start
+ * and its delay lines are drained at the end.
+ */
+class OfflineRendererTest {
+
+    private val format = WavFormat(48000, 2, PcmEncoding.PCM_FLOAT)
+
+    private fun writeNoise(file: File, frames: Int): FloatArray {
+        val random = Random(3)
+        val samples = FloatArray(frames * 2) { random.nextDouble(-0.5, 0.5).toFloat() }
+        val buffer = ByteBuffer.allocate(samples.size * 4).order(ByteOrder.LITTLE_ENDIAN)
+        for (x in samples) buffer.putFloat(x)
+        buffer.flip()
+        WavWriter(file, format).use { it.write(buffer) }
+        return samples
+    }
+
+    private fun readSamples(file: File): FloatArray = WavReader(file).use { reader ->
+        val buffer = ByteBuffer.allocate(file.length().toInt()).order(ByteOrder.LITTLE_ENDIAN)
+        reader.read(buffer)
+        buffer.flip()
+        FloatArray(buffer.remaining() / 4) { buffer.getFloat() }
+    }
+
+    private fun render(params: DspParams, frames: Int, check: (input: FloatArray, output: FloatArray) -> Unit) {
+        val input = File.createTempFile("render-in", ".wav")
+        val output = File.createTempFile("render-out", ".wav")
+        try {
+            val samples = writeNoise(input, frames)
+            // A block size that doesn't divide the file, or the latency
+            val result = OfflineRenderer(params, blockFrames = 1000).render(input, output)
+            assertEquals(frames.toLong(), result.frames)
+            check(samples, readSamples(output))
+        } finally {
+            input.delete()
+            output.delete()
+        }
+    }
+
+    @Test
+    fun neutralRender_isTheInputExactly() {
+        render(DspParams(), 4321) { input, output ->
+            assertEquals(input.size, output.size)
+            for (i in input.indices) assertEquals("sample $i", input[i], output[i], 0f)
+        }
+    }
+
+    @Test
+    fun processedRender_keepsTheInputLength() {
+        render(DspParams(width = 1.2), 4321) { input, output ->
+            assertEquals(input.size, output.size)
+        }
+    }
+}
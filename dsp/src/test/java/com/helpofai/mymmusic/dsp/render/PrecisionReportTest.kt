@@ -0,0 +1,30 @@
+package com.helpofai.mymmusic.dsp.render
+
+import com.helpofai.mymmusic.dsp.DspParams
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+/**
+ * Holds the single-precision filter kernels to their quality budget: THD+N of a 997 Hz
+ * sine below -120 dB and a null against the double path below -100 dB, up to 192 kHz.
+ */
+class PrecisionReportTest {
+
+    private fun check(result: PrecisionReport.Result) {
+        assertTrue("$result", result.thdNFloat32Db < -120.0)
+        assertTrue("$result", result.nullDb < -100.0)
+    }
+
+    @Test
+    fun eq_meetsBudgetAtEveryRate() {
+        for (rate in intArrayOf(44100, 48000, 96000, 192000)) {
+            check(PrecisionReport(DspParams(), PrecisionReport.TEST_EQ, rate).measure())
+        }
+    }
+
+    @Test
+    fun crossoverSplit_meetsBudget() {
+        // Width alone keeps the chain out of bypass, so only the bass/air split filters
+        check(PrecisionReport(DspParams(width = 1.2), sampleRate = 192000).measure())
+    }
+}
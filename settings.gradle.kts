@@ -21,3 +21,4 @@ dependencyResolutionManagement {
 
 rootProject.name = "My mMusic"
 include(":app")
+include(":dsp")